@@ -1,8 +1,17 @@
 package uk.ac.sanger.aker.catalogue;
 
 import uk.ac.sanger.aker.catalogue.component.*;
-import uk.ac.sanger.aker.catalogue.conversion.JsonExporter;
+import uk.ac.sanger.aker.catalogue.conversion.Compression;
+import uk.ac.sanger.aker.catalogue.conversion.CatalogueSnapshot;
+import uk.ac.sanger.aker.catalogue.conversion.IncrementalJsonExporter;
 import uk.ac.sanger.aker.catalogue.conversion.JsonImporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamImporter;
+import uk.ac.sanger.aker.catalogue.conversion.LayoutSidecar;
+import uk.ac.sanger.aker.catalogue.conversion.MappedCatalogueView;
+import uk.ac.sanger.aker.catalogue.graph.CycleException;
+import uk.ac.sanger.aker.catalogue.graph.DefaultRoute;
+import uk.ac.sanger.aker.catalogue.graph.DefaultRouteCache;
+import uk.ac.sanger.aker.catalogue.graph.LayoutCache;
 import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
 import uk.ac.sanger.aker.catalogue.graph.ModuleLayoutUtil;
 import uk.ac.sanger.aker.catalogue.model.*;
@@ -10,9 +19,15 @@ import uk.ac.sanger.aker.catalogue.model.*;
 import javax.swing.*;
 import java.awt.FileDialog;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
@@ -23,8 +38,29 @@ import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
  * @author dr6
  */
 public class CatalogueApp implements Runnable {
+    /** A catalogue loaded in the background, along with everything worked out about it before it is shown. */
+    private static class LoadedCatalogue {
+        private final Catalogue catalogue;
+        private final MappedCatalogueView mappedView;
+        private final Map<AkerProcess, ModuleLayout> layouts;
+        private final Map<AkerProcess, String> routeProblems;
+
+        LoadedCatalogue(Catalogue catalogue, MappedCatalogueView mappedView,
+                        Map<AkerProcess, ModuleLayout> layouts, Map<AkerProcess, String> routeProblems) {
+            this.catalogue = catalogue;
+            this.mappedView = mappedView;
+            this.layouts = layouts;
+            this.routeProblems = routeProblems;
+        }
+    }
+
     private static final String EXTENSION = ".json";
+    private static final String COMPRESSED_EXTENSION = EXTENSION + Compression.GZIP.getExtension();
     private static final String DEFAULT_FILENAME = "catalogue" + EXTENSION;
+    /** The most unedited module layouts to keep in the cache */
+    private static final int LAYOUT_CACHE_SIZE = 500;
+    /** Files at least this size are opened as a lazily decoded {@link MappedCatalogueView}. */
+    private static final long LARGE_FILE_SIZE = 64L << 20;
 
     private Catalogue catalogue;
     private CatalogueFrame frame;
@@ -37,10 +73,23 @@ public class CatalogueApp implements Runnable {
     private Action pasteModuleMapAction;
     private Action validateAction;
     private Action allUuidsAction;
-    private final FilenameFilter filenameFilter = (dir, name) -> endsWithIgnoreCase(name, EXTENSION);
+    private final FilenameFilter filenameFilter = (dir, name) -> endsWithIgnoreCase(name, EXTENSION)
+            || endsWithIgnoreCase(name, COMPRESSED_EXTENSION);
     private Path filePath;
+    private MappedCatalogueView mappedView;
+    private final IncrementalJsonExporter exporter = new IncrementalJsonExporter();
 
-    private Map<AkerProcess, ModuleLayout> moduleLayoutCache = new HashMap<>();
+    private final LayoutCache moduleLayoutCache = new LayoutCache(LAYOUT_CACHE_SIZE);
+    /** The layouts stored alongside the current file, read when first needed */
+    private LayoutSidecar storedLayouts;
+    private Path storedLayoutsPath;
+    /** The catalogue's modules by name, for resolving the stored layouts; indexed when first needed */
+    private Map<String, Module> storedLayoutModules;
+
+    private final List<CatalogueListener> catalogueListeners = new ArrayList<>();
+    /** Keeps the checks made on the catalogue up to date as it is edited */
+    private final IncrementalValidator validator = new IncrementalValidator(this::peekModuleLayout);
+    private final DefaultRouteCache defaultRouteCache = new DefaultRouteCache();
 
     /**
      * Creates a new catalogue and frame and shows it.
@@ -50,6 +99,9 @@ public class CatalogueApp implements Runnable {
     @Override
     public void run() {
         catalogue = new Catalogue();
+        addCatalogueListener(validator);
+        addCatalogueListener(defaultRouteCache);
+        fireCatalogueReplaced();
         createFrame();
         createActions();
         frame.setJMenuBar(createMenuBar());
@@ -119,6 +171,9 @@ public class CatalogueApp implements Runnable {
      */
     public <E> void view(E item, boolean open) {
         boolean isProcess = (item instanceof AkerProcess);
+        if (isProcess && mappedView!=null && !moduleLayoutCache.contains((AkerProcess) item)) {
+            checkPathValidity(Collections.singletonList((AkerProcess) item));
+        }
         copyModuleMapAction.setEnabled(isProcess);
         pasteModuleMapAction.setEnabled(isProcess && copiedModuleMap!=null);
         frame.view(item, open);
@@ -137,6 +192,51 @@ public class CatalogueApp implements Runnable {
         frame.processesUpdated();
     }
 
+    /**
+     * Adds a listener to be told about changes to the catalogue.
+     * @param listener the listener to add
+     */
+    public void addCatalogueListener(CatalogueListener listener) {
+        catalogueListeners.add(listener);
+    }
+
+    /**
+     * Tells the catalogue listeners that the given item (a module, process or product) has been changed.
+     * @param item the changed item
+     */
+    public void itemChanged(Object item) {
+        for (CatalogueListener listener : catalogueListeners) {
+            listener.itemChanged(item);
+        }
+    }
+
+    /**
+     * Tells the catalogue listeners that the given items have been added to the catalogue.
+     * @param items the new items
+     */
+    public void itemsAdded(Collection<?> items) {
+        for (CatalogueListener listener : catalogueListeners) {
+            listener.itemsAdded(items);
+        }
+    }
+
+    /**
+     * Tells the catalogue listeners that the given items have been removed from the catalogue.
+     * @param items the removed items
+     */
+    public void itemsRemoved(Collection<?> items) {
+        for (CatalogueListener listener : catalogueListeners) {
+            listener.itemsRemoved(items);
+        }
+    }
+
+    /** Tells the catalogue listeners that the catalogue has been replaced. */
+    private void fireCatalogueReplaced() {
+        for (CatalogueListener listener : catalogueListeners) {
+            listener.catalogueReplaced(catalogue);
+        }
+    }
+
     /** Tells the frame to clear its edit panel. */
     public void clearEditPanel() {
         frame.clearEditPanel();
@@ -157,26 +257,50 @@ public class CatalogueApp implements Runnable {
     private void newCatalogue() {
         catalogue = new Catalogue();
         filePath = null;
+        mappedView = null;
+        exporter.reset();
         frame.clear();
         moduleLayoutCache.clear();
+        setStoredLayouts(null, null);
+        fireCatalogueReplaced();
     }
 
-    /** Shows a file dialog and loads a catalogue. */
+    /**
+     * Shows a file dialog and loads a catalogue.
+     * The catalogue is loaded and checked in the background, while a progress dialog is shown.
+     * When it is ready, it replaces the current catalogue all at once.
+     */
     private void openCatalogue() {
         Path path = requestFilePath(filePath, FileDialog.LOAD);
         if (path==null) {
             return;
         }
+        new ProgressWorker<LoadedCatalogue>(frame, "Loading catalogue") {
+            @Override
+            protected LoadedCatalogue work() throws Exception {
+                return loadPath(path, this);
+            }
 
-        Catalogue catalogue = loadPath(path);
-        if (catalogue==null) {
-            return;
-        }
-        this.catalogue = catalogue;
-        checkPathValidity();
-        filePath = path;
-        frame.clear();
-        moduleLayoutCache.clear();
+            @Override
+            protected void succeeded(LoadedCatalogue loaded) {
+                catalogue = loaded.catalogue;
+                mappedView = loaded.mappedView;
+                filePath = path;
+                exporter.reset();
+                moduleLayoutCache.clear();
+                moduleLayoutCache.putAll(loaded.layouts);
+                setStoredLayouts(null, LayoutSidecar.sidecarPath(path));
+                frame.clear();
+                fireCatalogueReplaced();
+                warnInvalidPaths(loaded.routeProblems);
+            }
+
+            @Override
+            protected void failed(Exception exception) {
+                exception.printStackTrace();
+                showError("File error", "An error occurred trying to load the file.", exception);
+            }
+        }.start();
     }
 
     /**
@@ -191,9 +315,7 @@ public class CatalogueApp implements Runnable {
         if (path==null) {
             return;
         }
-        if (savePath(path)) {
-            this.filePath = path;
-        }
+        savePath(path);
     }
 
     /**
@@ -209,43 +331,147 @@ public class CatalogueApp implements Runnable {
     }
 
     /**
-     * Loads the catalogue from the given file path.
-     * If trying to load the file raises an exception, an error will be displayed, and
-     * this method will return null.
+     * Loads the catalogue from the given file path. This is called on a background thread.
+     * If there is a {@link CatalogueSnapshot snapshot} that was written for the file as it is now,
+     * the catalogue is loaded from the snapshot instead.
+     * Otherwise, a large file is opened as a {@link MappedCatalogueView}, whose processes are
+     * checked for invalid paths as they are viewed, instead of all at once.
+     * A medium-sized file is read whole and its processes are decoded in parallel by a {@link JsonImporter}.
+     * If there is a {@link LayoutSidecar layout file} alongside the catalogue, the paths are checked, but
+     * the processes are not laid out; their stored layouts are read when they are first needed.
+     * The loaded catalogue is not published to the rest of the application here.
      * @param path the path of the file to load
-     * @return the loaded catalogue, or null if there was an error
+     * @param worker the worker showing the progress of the load
+     * @return the loaded catalogue, along with the results of checking it
+     * @exception IOException there was a problem loading the file, or the load was cancelled
      */
-    private Catalogue loadPath(Path path) {
-        JsonImporter jim = new JsonImporter();
-        Catalogue catalogue;
+    private LoadedCatalogue loadPath(Path path, ProgressWorker<?> worker) throws IOException {
+        worker.showMessage("Loading "+path.getFileName());
+        Catalogue catalogue = loadSnapshot(path);
+        MappedCatalogueView view = null;
+        if (catalogue==null) {
+            long size = Files.size(path);
+            LongConsumer progressListener = bytes -> worker.showProgress(bytes, size);
+            Compression compression = Compression.detect(path);
+            if (size >= LARGE_FILE_SIZE && compression==Compression.NONE) {
+                view = new MappedCatalogueView();
+                view.setProgressListener(progressListener);
+                catalogue = view.open(path);
+                view.setProgressListener(null);
+            } else if (size >= JsonImporter.PARALLEL_FILE_SIZE && compression==Compression.NONE) {
+                JsonImporter jim = new JsonImporter();
+                jim.setProgressListener(progressListener);
+                jim.setParallelChunkSize(JsonImporter.DEFAULT_CHUNK_SIZE);
+                catalogue = jim.importCatalogue(path);
+            } else {
+                JsonStreamImporter jim = new JsonStreamImporter();
+                jim.setProgressListener(progressListener);
+                catalogue = jim.importCatalogue(path);
+            }
+        }
+        Map<AkerProcess, ModuleLayout> layouts = new ConcurrentHashMap<>();
+        Map<AkerProcess, String> routeProblems;
+        if (view==null) {
+            worker.showMessage("Checking routes");
+            boolean layoutsStored = Files.isRegularFile(LayoutSidecar.sidecarPath(path));
+            routeProblems = findInvalidPaths(catalogue.getProcesses(), layoutsStored ? null : layouts, worker);
+        } else {
+            routeProblems = Collections.emptyMap();
+        }
+        return new LoadedCatalogue(catalogue, view, layouts, routeProblems);
+    }
+
+    /**
+     * Loads the catalogue from the snapshot of the given file, if there is an up-to-date one.
+     * Any problem reading the snapshot is ignored, so that the file itself will be loaded instead.
+     * @param path the path of the catalogue file
+     * @return the catalogue loaded from the snapshot, or null if it could not be loaded
+     */
+    private Catalogue loadSnapshot(Path path) {
         try {
-            catalogue = jim.importCatalogue(jim.readPath(path));
+            if (CatalogueSnapshot.hasCurrentSnapshot(path)) {
+                return new CatalogueSnapshot().read(CatalogueSnapshot.snapshotPath(path));
+            }
         } catch (Exception e) {
             e.printStackTrace();
-            showError("File error", "An error occurred trying to load the file.", e);
-            catalogue = null;
         }
-        return catalogue;
+        return null;
     }
 
     /**
-     * Checks the current catalogue (that has just been loaded) for cyclic paths.
+     * Checks the given processes (that have just been loaded) for cyclic or invalid paths.
      * This is done immediately so the user can be informed at once, instead of finding out
      * when they try to open the process for viewing.
-     * When an invalid module graph is found, it is deleted.
+     * Cyclic paths are kept; other invalid module graphs are deleted.
+     * @param processes the processes to check
      */
-    private void checkPathValidity() {
-        List<AkerProcess> problemProcesses = catalogue.getProcesses().stream()
-                .filter(pro -> !layOutModules(pro))
-                .collect(Collectors.toList());
-        if (problemProcesses.isEmpty()) {
+    private void checkPathValidity(Collection<AkerProcess> processes) {
+        Map<AkerProcess, ModuleLayout> layouts = new ConcurrentHashMap<>();
+        warnInvalidPaths(findInvalidPaths(processes, layouts, null));
+        moduleLayoutCache.putAll(layouts);
+        for (AkerProcess pro : processes) {
+            itemChanged(pro);
+        }
+    }
+
+    /**
+     * Lays out the modules for each of the given processes, and finds those whose paths are cyclic or invalid.
+     * Each process is laid out independently, so they are laid out in parallel in the common {@link ForkJoinPool}.
+     * Only the first {@link #LAYOUT_CACHE_SIZE} processes are laid out, since the layout cache would not keep
+     * any more; the paths of the rest are only checked.
+     * The problems found are gathered at the end, in the order of the given processes.
+     * @param processes the processes to check
+     * @param layouts the map to store the layouts in, which must be safe for concurrent updates;
+     *                or null if the paths should only be checked
+     * @param worker the worker showing progress, or null if there is none
+     * @return a description of the problem with each process whose paths were cyclic or invalid
+     * @exception CancellationException the worker's thread was interrupted
+     */
+    private Map<AkerProcess, String> findInvalidPaths(Collection<AkerProcess> processes,
+                                                      Map<AkerProcess, ModuleLayout> layouts,
+                                                      ProgressWorker<?> worker) {
+        final Thread caller = Thread.currentThread();
+        final List<AkerProcess> processList = new ArrayList<>(processes);
+        final int total = processList.size();
+        AtomicInteger done = new AtomicInteger();
+        Map<AkerProcess, String> problems = new ConcurrentHashMap<>();
+        IntStream.range(0, total).parallel().forEach(i -> {
+            if (caller.isInterrupted()) {
+                throw new CancellationException("Checking routes was interrupted");
+            }
+            AkerProcess pro = processList.get(i);
+            String problem = layOutModules(pro, i < LAYOUT_CACHE_SIZE ? layouts : null);
+            if (problem!=null) {
+                problems.put(pro, problem);
+            }
+            if (worker!=null) {
+                worker.showProgress(done.incrementAndGet(), total);
+            }
+        });
+        Map<AkerProcess, String> routeProblems = new LinkedHashMap<>(problems.size());
+        for (AkerProcess pro : processList) {
+            String problem = problems.get(pro);
+            if (problem!=null) {
+                routeProblems.put(pro, problem);
+            }
+        }
+        return routeProblems;
+    }
+
+    /**
+     * Warns the user about the processes that were found to have cyclic or invalid paths.
+     * @param routeProblems a description of the problem with each process
+     */
+    private void warnInvalidPaths(Map<AkerProcess, String> routeProblems) {
+        if (routeProblems.isEmpty()) {
             return;
         }
         String desc = MessageVar.process("The following process{es} contain{s|} cyclic or invalid path " +
-                "definitions that cannot be loaded:", problemProcesses.size());
+                "definitions:", routeProblems.size());
         StringBuilder sb = new StringBuilder("<p>").append(desc).append("<ul>");
-        for (AkerProcess pro : problemProcesses) {
-            sb.append("<li>").append(escapeHtml4(pro.getName()));
+        for (Map.Entry<AkerProcess, String> entry : routeProblems.entrySet()) {
+            sb.append("<li>").append(escapeHtml4(entry.getKey().getName()))
+                    .append(": ").append(escapeHtml4(entry.getValue()));
         }
         sb.append("</ul>");
         showWarning(htmlWrap(sb.toString()), "Invalid routes");
@@ -253,40 +479,183 @@ public class CatalogueApp implements Runnable {
 
     /**
      * Lays out the modules for the given process, using the {@link ModuleLayoutUtil}.
-     * The layout is saved in the {@link #getLayoutCache() layout cache}.
-     * If the path in the process is invalid (i.e. contains cycles), then the path for that
-     * process is deleted, and this method returns false.
+     * The layout is saved in the given map, unless the map is null, in which case the paths are only checked.
+     * If the path in the process contains cycles, it is kept, and laid out as well as possible.
+     * If the path is otherwise invalid, so that it cannot be laid out, it is deleted.
      * @param pro the process to lay out
-     * @return true if a layout was generated and stored; false if the graph was invalid and therefore deleted
+     * @param layouts the map to store the layout in, or null
+     * @return null if the path was valid; otherwise a description of the problem
      */
-    private boolean layOutModules(AkerProcess pro) {
+    private String layOutModules(AkerProcess pro, Map<AkerProcess, ModuleLayout> layouts) {
+        List<List<Module>> cycles;
         try {
-            ModuleLayout layout = ModuleLayoutUtil.layOut(pro.getModulePairs());
-            getLayoutCache().put(pro, layout);
-            return true;
+            if (layouts!=null) {
+                cycles = new ArrayList<>();
+                layouts.put(pro, ModuleLayoutUtil.layOut(pro.getModulePairs(), cycles));
+            } else {
+                cycles = ModuleLayoutUtil.findCycles(pro.getModulePairs());
+            }
         } catch (Exception e) {
             pro.setModulePairs(new ArrayList<>());
-            return false;
+            return "invalid paths, which have been deleted";
+        }
+        if (cycles.isEmpty()) {
+            return null;
         }
+        return MessageVar.process("cycle{s}: ", cycles.size())
+                + CycleException.describeCycles(cycles, Module::getName);
     }
 
     /**
      * Saves the catalogue to the given path.
-     * If the save fails, an error message is shown to the user, and this method returns false.
+     * After the first save, saving to the same path again only renders the processes and products
+     * that have changed; see {@link IncrementalJsonExporter}.
+     * A {@link CatalogueSnapshot snapshot} and the {@link LayoutSidecar module layouts} are saved alongside it,
+     * to speed up reloading.
+     * The saving happens in the background while a modal progress dialog is shown,
+     * so the catalogue cannot be edited until it is finished.
+     * The save cannot be cancelled: once the file has been replaced, the snapshot, the layouts
+     * and the record of what was saved must be brought up to date with it.
+     * If the save succeeds, the given path becomes the current file path.
+     * If the save fails, an error message is shown to the user.
      * @param path the file path to save to
-     * @return true if successful, false if unsuccessful
      */
-    private boolean savePath(Path path) {
+    private void savePath(Path path) {
         fillInUuids(catalogue, false);
-        JsonExporter jex = new JsonExporter();
+        final Catalogue catalogue = this.catalogue;
+        final LayoutSidecar layouts = collectLayouts();
+        final MappedCatalogueView view = mappedView;
+        new ProgressWorker<Void>(frame, "Saving catalogue", false) {
+            @Override
+            protected Void work() throws Exception {
+                if (view!=null) {
+                    // Decode everything and release the mapped file before it may be overwritten
+                    showMessage("Reading catalogue");
+                    view.loadAll();
+                }
+                showMessage("Saving "+path.getFileName());
+                exporter.write(catalogue, path);
+                saveSnapshot(catalogue, path);
+                saveLayouts(layouts, path);
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                mappedView = null;
+                filePath = path;
+                setStoredLayouts(layouts, LayoutSidecar.sidecarPath(path));
+                moduleLayoutCache.markSaved();
+            }
+
+            @Override
+            protected void failed(Exception exception) {
+                exception.printStackTrace();
+                showError("File error", "An error occurred trying to save the file.", exception);
+            }
+        }.start();
+    }
+
+    /**
+     * Saves a snapshot of the catalogue for the file at the given path.
+     * If the snapshot cannot be saved, any stale snapshot is deleted, so the file itself will be loaded next time.
+     * @param catalogue the catalogue that has been saved
+     * @param path the path the catalogue file has been saved to
+     */
+    private static void saveSnapshot(Catalogue catalogue, Path path) {
+        Path snapshotPath = CatalogueSnapshot.snapshotPath(path);
         try {
-            jex.write(jex.toExportData(catalogue), path);
+            new CatalogueSnapshot().write(catalogue, snapshotPath, path);
         } catch (Exception e) {
             e.printStackTrace();
-            showError("File error", "An error occurred trying to save the file.", e);
-            return false;
+            try {
+                Files.deleteIfExists(snapshotPath);
+            } catch (Exception e2) {
+                e2.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Saves the given module layouts for the file at the given path.
+     * If they cannot be saved, the previous layout file is left as it was;
+     * its layouts are only used for processes whose modules they still match.
+     * @param layouts the layouts to save
+     * @param path the path the catalogue file has been saved to
+     */
+    private static void saveLayouts(LayoutSidecar layouts, Path path) {
+        Path sidecarPath = LayoutSidecar.sidecarPath(path);
+        try {
+            layouts.write(sidecarPath);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copies the layouts of the processes in the catalogue, so they can be saved in the background.
+     * Processes that have not been laid out since the catalogue was loaded keep their stored layouts.
+     * @return the layouts to save, keyed by process UUID
+     */
+    private LayoutSidecar collectLayouts() {
+        LayoutSidecar layouts = getStoredLayouts().copy();
+        for (Map.Entry<AkerProcess, ModuleLayout> entry : moduleLayoutCache.copy().entrySet()) {
+            String uuid = entry.getKey().getUuid();
+            if (uuid!=null) {
+                layouts.putLayout(uuid, entry.getValue());
+            }
+        }
+        layouts.retainProcesses(catalogue.getProcesses());
+        return layouts;
+    }
+
+    /**
+     * Sets the layouts stored alongside the current file.
+     * @param layouts the stored layouts, or null if they have not been read yet
+     * @param path the path of the layout file, or null if there is none
+     */
+    private void setStoredLayouts(LayoutSidecar layouts, Path path) {
+        storedLayouts = layouts;
+        storedLayoutsPath = path;
+        storedLayoutModules = null;
+    }
+
+    /**
+     * Gets the stored layout for the given process, if there is a valid one.
+     * The catalogue's modules are indexed by name the first time a stored layout is looked up.
+     * @param pro the process
+     * @return a new layout for the process, or null if there is no valid stored layout
+     */
+    private ModuleLayout findStoredLayout(AkerProcess pro) {
+        LayoutSidecar stored = getStoredLayouts();
+        if (pro.getUuid()==null || stored.size()==0) {
+            return null;
         }
-        return true;
+        if (storedLayoutModules==null) {
+            storedLayoutModules = new HashMap<>(2*catalogue.getModules().size());
+            for (Module module : catalogue.getModules()) {
+                storedLayoutModules.put(module.getName(), module);
+            }
+        }
+        return stored.getLayout(pro, storedLayoutModules);
+    }
+
+    /**
+     * Gets the layouts stored alongside the current file, reading them if they have not been read yet.
+     * Any problem reading them is ignored, so the layouts will be worked out again instead.
+     */
+    private LayoutSidecar getStoredLayouts() {
+        if (storedLayouts==null) {
+            storedLayouts = new LayoutSidecar();
+            if (storedLayoutsPath!=null && Files.isRegularFile(storedLayoutsPath)) {
+                try {
+                    storedLayouts = LayoutSidecar.read(storedLayoutsPath);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return storedLayouts;
     }
 
     /**
@@ -302,6 +671,7 @@ public class CatalogueApp implements Runnable {
                     String uuid = item.getUuid();
                     if (force || uuid==null || uuid.isEmpty()) {
                         item.setUuid(UUID.randomUUID().toString());
+                        itemChanged(item);
                     }
                 });
         frame.editPanelLoad();
@@ -344,7 +714,8 @@ public class CatalogueApp implements Runnable {
             return null;
         }
         String dir = fd.getDirectory();
-        if (!endsWithIgnoreCase(filename, EXTENSION) && mode==FileDialog.SAVE) {
+        if (!endsWithIgnoreCase(filename, EXTENSION) && !endsWithIgnoreCase(filename, COMPRESSED_EXTENSION)
+                && mode==FileDialog.SAVE) {
             filename += EXTENSION;
             path = Paths.get(dir, filename);
             if (Files.exists(path)) {
@@ -370,7 +741,7 @@ public class CatalogueApp implements Runnable {
         if (pro==null) {
             return;
         }
-        copiedModuleMap = new CopiedModuleMap(getLayoutCache().get(pro), pro.getModulePairs());
+        copiedModuleMap = new CopiedModuleMap(getModuleLayout(pro), pro.getModulePairs());
     }
 
     /**
@@ -387,8 +758,11 @@ public class CatalogueApp implements Runnable {
         catalogueModules.add(Module.START);
         catalogueModules.add(Module.END);
         copiedModuleMap.filter(catalogueModules);
-        getLayoutCache().put(pro, copiedModuleMap.getLayout());
+        ModuleLayout layout = copiedModuleMap.getLayout();
+        layout.setEdited(true);
+        getLayoutCache().put(pro, layout);
         pro.setModulePairs(copiedModuleMap.getPairs());
+        itemChanged(pro);
         pasteModuleMapAction.setEnabled(false);
         frame.clearEditPanel();
         frame.view(pro, false);
@@ -417,11 +791,11 @@ public class CatalogueApp implements Runnable {
 
     /**
      * Checks the catalogue for problems, and display a message to the user.
+     * The checks are kept up to date as the catalogue is edited, by the {@link IncrementalValidator}.
      * @see Validator
      */
     private void validateCatalogue() {
-        Validator validator = new Validator(process -> moduleLayoutCache.get(process));
-        if (validator.findProblems(catalogue)) {
+        if (validator.findProblems()) {
             showWarning(htmlWrap(validator.problemsHtml()), "Problems found");
         } else {
             showInfo("No problems found.", "Valid");
@@ -452,8 +826,7 @@ public class CatalogueApp implements Runnable {
      * @return true to proceed, false to halt.
      */
     private boolean validateForSave() {
-        Validator validator = new Validator(process -> moduleLayoutCache.get(process));
-        if (!validator.findProblems(catalogue)) {
+        if (!validator.findProblems()) {
             return true;
         }
         String message = htmlWrap(validator.problemsHtml()
@@ -464,11 +837,64 @@ public class CatalogueApp implements Runnable {
     }
 
     /**
-     * Gets the map of process to the layout for that process.
-     * This gives direct access to the map so it can be updated by a receiving method.
+     * Gets the cache of process layouts.
+     * This gives direct access to the cache so it can be updated by a receiving method.
      */
-    public Map<AkerProcess, ModuleLayout> getLayoutCache() {
+    public LayoutCache getLayoutCache() {
         return this.moduleLayoutCache;
     }
 
+    /**
+     * Gets the result of checking the default route of the given process.
+     * The result is cached until the process is reported as {@link #itemChanged changed}.
+     * @param pro the process
+     * @return the default route of the process
+     */
+    public DefaultRoute getDefaultRoute(AkerProcess pro) {
+        return defaultRouteCache.get(pro);
+    }
+
+    /**
+     * Gets the layout for the given process.
+     * If it is not in the layout cache, it is taken from the stored layouts if possible,
+     * or else worked out using the {@link ModuleLayoutUtil}, and then put in the cache.
+     * @param pro the process
+     * @return the layout for the process
+     */
+    public ModuleLayout getModuleLayout(AkerProcess pro) {
+        ModuleLayout layout = findModuleLayout(pro);
+        if (layout==null) {
+            layout = ModuleLayoutUtil.layOut(pro.getModulePairs());
+            moduleLayoutCache.put(pro, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Gets the layout for the given process from the cache, or from the stored layouts (putting it in the cache).
+     * @param pro the process
+     * @return the layout for the process, or null if it has not been laid out
+     */
+    private ModuleLayout findModuleLayout(AkerProcess pro) {
+        ModuleLayout layout = moduleLayoutCache.get(pro);
+        if (layout==null) {
+            layout = findStoredLayout(pro);
+            if (layout!=null) {
+                moduleLayoutCache.put(pro, layout);
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Gets the layout for the given process from the cache or from the stored layouts, for checking it.
+     * This does not count as a use of the cache, and does not put anything in it.
+     * @param pro the process
+     * @return the layout for the process, or null if it has not been laid out
+     */
+    private ModuleLayout peekModuleLayout(AkerProcess pro) {
+        ModuleLayout layout = moduleLayoutCache.peek(pro);
+        return (layout!=null ? layout : findStoredLayout(pro));
+    }
+
 }
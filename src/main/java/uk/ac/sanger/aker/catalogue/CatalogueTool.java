@@ -0,0 +1,356 @@
+package uk.ac.sanger.aker.catalogue;
+
+import uk.ac.sanger.aker.catalogue.Validator.Problem;
+import uk.ac.sanger.aker.catalogue.Validator.ProblemItem;
+import uk.ac.sanger.aker.catalogue.conversion.CatalogueSnapshot;
+import uk.ac.sanger.aker.catalogue.conversion.Compression;
+import uk.ac.sanger.aker.catalogue.conversion.IncrementalJsonExporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonImporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamExporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamImporter;
+import uk.ac.sanger.aker.catalogue.conversion.StringPool;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayoutUtil;
+import uk.ac.sanger.aker.catalogue.model.AkerProcess;
+import uk.ac.sanger.aker.catalogue.model.Catalogue;
+
+import javax.json.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * A command line tool for checking and converting catalogue files, for use where there is no display.
+ * It is run with a command followed by file names:
+ * <ul>
+ *     <li>{@code validate FILE...} checks each catalogue for invalid routes and for the problems
+ *     found by the {@link Validator}.</li>
+ *     <li>{@code normalise FILE...} rewrites each catalogue in the standard format.</li>
+ *     <li>{@code convert INPUT OUTPUT} reads a catalogue and writes it in the format indicated by the
+ *     extension of the output file: JSON, compressed JSON (e.g. {@code .json.gz}), or a
+ *     {@link CatalogueSnapshot snapshot}.</li>
+ *     <li>{@code stats FILE...} counts the contents of each catalogue, and reports how much heap
+ *     the {@link StringPool} saved while it was read.</li>
+ *     <li>{@code report FORMAT FILE} writes the problems found by the {@link Validator} in a catalogue
+ *     in the given {@link ProblemFormat format} ({@code html}, {@code json_lines} or {@code sarif}).</li>
+ * </ul>
+ * Files are processed in parallel. For each file, one line of JSON is written to standard output,
+ * in the order in which the files were given. The {@code report} command instead writes its report to
+ * standard output, and describes any error on the error stream.
+ * The exit code is {@link #EXIT_OK} if everything succeeded, {@link #EXIT_PROBLEMS} if problems were found
+ * in any catalogue, {@link #EXIT_ERROR} if any file could not be read or written,
+ * and {@link #EXIT_USAGE} if the command line was invalid.
+ * <p>This tool does not use any AWT or Swing classes.
+ * @author dr6
+ */
+public class CatalogueTool {
+    public static final int EXIT_OK = 0, EXIT_PROBLEMS = 1, EXIT_ERROR = 2, EXIT_USAGE = 3;
+
+    private static final String USAGE = "Usage:\n" +
+            "  validate FILE...       check catalogues for problems\n" +
+            "  normalise FILE...      rewrite catalogues in the standard format\n" +
+            "  convert INPUT OUTPUT   convert a catalogue to the format given by the output extension\n" +
+            "                         (.json, .json.gz or " + CatalogueSnapshot.EXTENSION + ")\n" +
+            "  stats FILE...          count the contents of catalogues\n" +
+            "  report FORMAT FILE     write the problems in a catalogue as html, json_lines or sarif";
+
+    /** A function performed on one file. */
+    @FunctionalInterface
+    private interface FileTask {
+        Outcome apply(Path path) throws IOException;
+    }
+
+    /** The description of what happened to one file, and the exit code it calls for. */
+    private static class Outcome {
+        private final JsonObject json;
+        private final int exitCode;
+
+        Outcome(JsonObject json, int exitCode) {
+            this.json = json;
+            this.exitCode = exitCode;
+        }
+    }
+
+    private final PrintStream out, err;
+
+    /**
+     * Creates a tool writing its results and errors to the given streams.
+     * @param out the stream for the results, one line of JSON for each file
+     * @param err the stream for usage messages
+     */
+    public CatalogueTool(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Runs the command given by the arguments.
+     * @param args the command followed by its file names
+     * @return the exit code
+     */
+    public int run(String... args) {
+        if (args.length==0) {
+            return usage(null);
+        }
+        List<String> filenames = Arrays.asList(args).subList(1, args.length);
+        switch (args[0]) {
+            case "validate":
+                return runAll(filenames, this::validate);
+            case "normalise":
+                return runAll(filenames, this::normalise);
+            case "stats":
+                return runAll(filenames, this::stats);
+            case "convert":
+                if (filenames.size()!=2) {
+                    return usage("convert requires an input file and an output file");
+                }
+                return report(attempt(filenames.get(0), path -> convert(path, Paths.get(filenames.get(1)))));
+            case "report":
+                if (filenames.size()!=2) {
+                    return usage("report requires a format and a file");
+                }
+                ProblemFormat format;
+                try {
+                    format = ProblemFormat.valueOf(filenames.get(0).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    return usage("Unknown format: "+filenames.get(0));
+                }
+                return writeReport(format, Paths.get(filenames.get(1)));
+            case "help":
+                return usage(null);
+            default:
+                return usage("Unknown command: "+args[0]);
+        }
+    }
+
+    private int usage(String message) {
+        if (message!=null) {
+            err.println(message);
+        }
+        err.println(USAGE);
+        return (message==null ? EXIT_OK : EXIT_USAGE);
+    }
+
+    /**
+     * Performs the given task on each of the named files in parallel, and reports the outcomes in order.
+     * @return the most severe exit code of all the outcomes
+     */
+    private int runAll(List<String> filenames, FileTask task) {
+        if (filenames.isEmpty()) {
+            return usage("No files given");
+        }
+        int numThreads = Math.min(filenames.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<CompletableFuture<Outcome>> futures = new ArrayList<>(filenames.size());
+            for (String filename : filenames) {
+                futures.add(CompletableFuture.supplyAsync(() -> attempt(filename, task), executor));
+            }
+            int exitCode = EXIT_OK;
+            for (CompletableFuture<Outcome> future : futures) {
+                exitCode = Math.max(exitCode, report(future.join()));
+            }
+            return exitCode;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Performs the given task on the named file, describing any exception as an error.
+     */
+    private static Outcome attempt(String filename, FileTask task) {
+        try {
+            return task.apply(Paths.get(filename));
+        } catch (Exception e) {
+            String message = e.getMessage();
+            JsonObject json = Json.createObjectBuilder()
+                    .add("file", filename)
+                    .add("error_type", e.getClass().getSimpleName())
+                    .add("error", message!=null ? message : e.toString())
+                    .build();
+            return new Outcome(json, EXIT_ERROR);
+        }
+    }
+
+    private int report(Outcome outcome) {
+        out.println(outcome.json);
+        return outcome.exitCode;
+    }
+
+    /**
+     * Loads a catalogue from a JSON file (which may be compressed) or from a snapshot.
+     * A large uncompressed file is read whole and its processes are decoded in parallel.
+     */
+    private static Catalogue load(Path path) throws IOException {
+        return load(path, null);
+    }
+
+    /**
+     * Loads a catalogue, passing repeated strings read from JSON through the given pool.
+     * If the pool is null, the importer decides whether to use one.
+     */
+    private static Catalogue load(Path path, StringPool stringPool) throws IOException {
+        if (isSnapshot(path)) {
+            return new CatalogueSnapshot().read(path);
+        }
+        if (Files.size(path) >= JsonImporter.PARALLEL_FILE_SIZE && Compression.detect(path)==Compression.NONE) {
+            JsonImporter jim = new JsonImporter();
+            jim.setParallelChunkSize(JsonImporter.DEFAULT_CHUNK_SIZE);
+            jim.setStringPool(stringPool);
+            return jim.importCatalogue(path);
+        }
+        JsonStreamImporter jsim = new JsonStreamImporter();
+        jsim.setStringPool(stringPool);
+        return jsim.importCatalogue(path);
+    }
+
+    private static boolean isSnapshot(Path path) {
+        return path.getFileName().toString().endsWith(CatalogueSnapshot.EXTENSION);
+    }
+
+    private Outcome validate(Path path) throws IOException {
+        Catalogue catalogue = load(path);
+        JsonArrayBuilder invalidRoutes = Json.createArrayBuilder();
+        boolean valid = true;
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            if (!ModuleLayoutUtil.canLayOut(pro.getModulePairs())) {
+                invalidRoutes.add(pro.getName());
+                valid = false;
+            }
+        }
+        // Layouts of loaded processes only contain connected modules, so they are not needed here
+        Validator validator = new Validator(pro -> null);
+        if (validator.findProblems(catalogue)) {
+            valid = false;
+        }
+        JsonArrayBuilder problems = Json.createArrayBuilder();
+        for (Map.Entry<Problem, List<ProblemItem>> entry : validator.getProblems().entrySet()) {
+            List<ProblemItem> items = entry.getValue();
+            if (!items.isEmpty()) {
+                problems.add(problemJson(entry.getKey(), items));
+            }
+        }
+        JsonObject json = Json.createObjectBuilder()
+                .add("file", path.toString())
+                .add("valid", valid)
+                .add("invalid_routes", invalidRoutes)
+                .add("problems", problems)
+                .build();
+        return new Outcome(json, valid ? EXIT_OK : EXIT_PROBLEMS);
+    }
+
+    /**
+     * Writes the problems found in the catalogue at the given path to the output in the given format.
+     * @return {@link #EXIT_PROBLEMS} if any problems were found, {@link #EXIT_ERROR} if the file could not
+     * be read, otherwise {@link #EXIT_OK}
+     */
+    private int writeReport(ProblemFormat format, Path path) {
+        Validator validator = new Validator(pro -> null);
+        boolean anyProblems;
+        try {
+            anyProblems = validator.findProblems(load(path));
+            // The writer is flushed but not closed, so that the output stream stays open
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            validator.writeProblems(format, writer);
+            writer.flush();
+        } catch (Exception e) {
+            err.println(path+": "+(e.getMessage()!=null ? e.getMessage() : e.toString()));
+            return EXIT_ERROR;
+        }
+        return (anyProblems ? EXIT_PROBLEMS : EXIT_OK);
+    }
+
+    private static JsonObject problemJson(Problem problem, List<ProblemItem> items) {
+        JsonArrayBuilder itemsJson = Json.createArrayBuilder();
+        for (ProblemItem item : items) {
+            JsonObjectBuilder itemJson = Json.createObjectBuilder().add("name", item.getName());
+            if (!item.getDetails().isEmpty()) {
+                JsonArrayBuilder details = Json.createArrayBuilder();
+                item.getDetails().forEach(details::add);
+                itemJson.add("details", details);
+            }
+            itemsJson.add(itemJson);
+        }
+        return Json.createObjectBuilder()
+                .add("type", problem.name())
+                .add("severity", problem.getSeverity().name())
+                .add("message", problem.getText(items.size()))
+                .add("items", itemsJson)
+                .build();
+    }
+
+    private Outcome normalise(Path path) throws IOException {
+        if (isSnapshot(path)) {
+            throw new IOException("Cannot normalise a snapshot: "+path);
+        }
+        long checksum = checksum(path);
+        Catalogue catalogue = load(path);
+        new IncrementalJsonExporter().write(catalogue, path);
+        JsonObject json = Json.createObjectBuilder()
+                .add("file", path.toString())
+                .add("changed", checksum(path)!=checksum)
+                .build();
+        return new Outcome(json, EXIT_OK);
+    }
+
+    private static long checksum(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1<<16];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private Outcome convert(Path input, Path output) throws IOException {
+        Catalogue catalogue = load(input);
+        if (isSnapshot(output)) {
+            new CatalogueSnapshot().write(catalogue, output);
+        } else {
+            new JsonStreamExporter().write(catalogue, output);
+        }
+        JsonObject json = Json.createObjectBuilder()
+                .add("file", input.toString())
+                .add("output", output.toString())
+                .add("bytes", Files.size(output))
+                .build();
+        return new Outcome(json, EXIT_OK);
+    }
+
+    private Outcome stats(Path path) throws IOException {
+        StringPool stringPool = new StringPool();
+        Catalogue catalogue = load(path, stringPool);
+        int pairs = 0, invalidRoutes = 0;
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            pairs += pro.getModulePairs().size();
+            if (!ModuleLayoutUtil.canLayOut(pro.getModulePairs())) {
+                ++invalidRoutes;
+            }
+        }
+        JsonObject json = Json.createObjectBuilder()
+                .add("file", path.toString())
+                .add("bytes", Files.size(path))
+                .add("modules", catalogue.getModules().size())
+                .add("processes", catalogue.getProcesses().size())
+                .add("products", catalogue.getProducts().size())
+                .add("module_pairs", pairs)
+                .add("invalid_routes", invalidRoutes)
+                .add("string_pool", Json.createObjectBuilder()
+                        .add("lookups", stringPool.getLookups())
+                        .add("distinct_values", stringPool.size())
+                        .add("duplicates", stringPool.getDuplicates())
+                        .add("saved_bytes", stringPool.getSavedBytes()))
+                .build();
+        return new Outcome(json, EXIT_OK);
+    }
+}
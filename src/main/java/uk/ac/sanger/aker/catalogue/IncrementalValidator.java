@@ -0,0 +1,458 @@
+package uk.ac.sanger.aker.catalogue;
+
+import uk.ac.sanger.aker.catalogue.Validator.Problem;
+import uk.ac.sanger.aker.catalogue.Validator.ProblemItem;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Makes the same checks as the {@link Validator}, but keeps them up to date as the catalogue is edited,
+ * instead of checking the whole catalogue each time.
+ * The validator is a {@link CatalogueListener}: when an item is changed, only that item is checked again,
+ * and the state kept for each check is adjusted by the difference.
+ * The state kept is:
+ * <ul>
+ *     <li>the modules reached by each process, and how many processes reach each module;</li>
+ *     <li>which processes break each of the {@link Validator#PROCESS_RULES process rules}
+ *     (disconnected modules, modules off any route, no modules, or an invalid default route);</li>
+ *     <li>the modules not reached by any process;</li>
+ *     <li>the modules, processes and products with each name;</li>
+ *     <li>the products and processes with each UUID.</li>
+ * </ul>
+ * After a catalogue is {@link #catalogueReplaced replaced}, the state is worked out when it is first needed.
+ * If a change is reported for an item the validator does not know about (so some change has not been reported),
+ * the state is worked out again from the whole catalogue.
+ * <p>Problems are listed in the order of the items in the catalogue, as the {@link Validator} lists them.
+ * Duplicated names and UUIDs are listed in the order of the first item with each; for UUIDs, products
+ * come before processes.
+ * @author dr6
+ */
+public class IncrementalValidator implements CatalogueListener {
+    /** The items with each name, for finding duplicate names */
+    private static class NameCounter {
+        private final Map<HasName, String> names = new HashMap<>();
+        private final Map<String, List<HasName>> named = new HashMap<>();
+        private final Set<String> duplicates = new HashSet<>();
+
+        void update(HasName item) {
+            String name = item.getName();
+            String oldName = names.put(item, name);
+            if (oldName!=null) {
+                if (oldName.equals(name)) {
+                    return;
+                }
+                unname(oldName, item);
+            }
+            List<HasName> items = named.computeIfAbsent(name, k -> new ArrayList<>(1));
+            items.add(item);
+            if (items.size() > 1) {
+                duplicates.add(name);
+            }
+        }
+
+        boolean contains(HasName item) {
+            return names.containsKey(item);
+        }
+
+        void remove(HasName item) {
+            String oldName = names.remove(item);
+            if (oldName!=null) {
+                unname(oldName, item);
+            }
+        }
+
+        private void unname(String name, HasName item) {
+            List<HasName> items = named.get(name);
+            items.remove(item);
+            if (items.isEmpty()) {
+                named.remove(name);
+            }
+            if (items.size() < 2) {
+                duplicates.remove(name);
+            }
+        }
+
+        /** The items with the given name */
+        List<HasName> itemsNamed(String name) {
+            return named.getOrDefault(name, Collections.emptyList());
+        }
+
+        void clear() {
+            names.clear();
+            named.clear();
+            duplicates.clear();
+        }
+    }
+
+    private final Function<AkerProcess, ModuleLayout> layoutProvider;
+    private Catalogue catalogue;
+    private boolean stale = true;
+
+    /** The modules reached by each process */
+    private final Map<AkerProcess, Set<Module>> processModules = new HashMap<>();
+    private final Map<Module, Integer> moduleUses = new HashMap<>();
+    private final Set<Module> catalogueModules = new HashSet<>();
+    private final Set<Module> orphans = new HashSet<>();
+    /** The processes breaking each process rule */
+    private final Map<Problem, Set<AkerProcess>> brokenRules = new EnumMap<>(Problem.class);
+    private final NameCounter moduleNames = new NameCounter();
+    private final NameCounter processNames = new NameCounter();
+    private final NameCounter productNames = new NameCounter();
+    private final Map<HasUuid, String> uuids = new HashMap<>();
+    private final Map<String, List<HasUuid>> uuidItems = new HashMap<>();
+    private final Set<String> duplicateUuids = new HashSet<>();
+    /** The position of each item in its list in the catalogue; null when it needs to be worked out again */
+    private Map<Object, Integer> positions;
+
+    private Map<Problem, List<ProblemItem>> problems;
+    private boolean anyProblems;
+
+    /**
+     * Constructs a new validator.
+     * @param layoutProvider the function that will give the {@link ModuleLayout} for a
+     *                       given {@link AkerProcess process}.
+     */
+    public IncrementalValidator(Function<AkerProcess, ModuleLayout> layoutProvider) {
+        this.layoutProvider = layoutProvider;
+        for (Problem problem : Validator.PROCESS_RULES.keySet()) {
+            brokenRules.put(problem, new HashSet<>());
+        }
+    }
+
+    @Override
+    public void catalogueReplaced(Catalogue catalogue) {
+        this.catalogue = catalogue;
+        stale = true;
+    }
+
+    @Override
+    public void itemsAdded(Collection<?> items) {
+        positions = null;
+        if (stale) {
+            return;
+        }
+        for (Object item : items) {
+            if (item instanceof Module) {
+                addModule((Module) item);
+            } else if (item instanceof AkerProcess) {
+                updateProcess((AkerProcess) item);
+            } else if (item instanceof Product) {
+                updateProduct((Product) item);
+            }
+        }
+    }
+
+    @Override
+    public void itemsRemoved(Collection<?> items) {
+        positions = null;
+        if (stale) {
+            return;
+        }
+        for (Object item : items) {
+            if (item instanceof Module) {
+                removeModule((Module) item);
+            } else if (item instanceof AkerProcess) {
+                removeProcess((AkerProcess) item);
+            } else if (item instanceof Product) {
+                removeUuid((Product) item);
+                productNames.remove((Product) item);
+            }
+        }
+    }
+
+    @Override
+    public void itemChanged(Object item) {
+        if (stale) {
+            return;
+        }
+        if (item instanceof Module) {
+            if (moduleNames.contains((Module) item)) {
+                moduleNames.update((Module) item);
+            } else {
+                stale = true;
+            }
+        } else if (item instanceof AkerProcess) {
+            if (processModules.containsKey(item)) {
+                updateProcess((AkerProcess) item);
+            } else {
+                stale = true;
+            }
+        } else if (item instanceof Product) {
+            if (productNames.contains((Product) item)) {
+                updateProduct((Product) item);
+            } else {
+                stale = true;
+            }
+        }
+    }
+
+    /**
+     * Finds problems with the catalogue, using the state kept up to date as it was edited.
+     * Details can be retrieved subsequently with {@link #problemsHtml problemsHtml}.
+     * @return true if any problems were found, otherwise false
+     */
+    public boolean findProblems() {
+        if (stale) {
+            rebuild();
+        }
+        if (positions==null) {
+            positions = findPositions();
+        }
+        problems = new EnumMap<>(Problem.class);
+        anyProblems = false;
+        for (Map.Entry<Problem, Set<AkerProcess>> entry : brokenRules.entrySet()) {
+            Validator.ProcessRule rule = Validator.PROCESS_RULES.get(entry.getKey());
+            List<AkerProcess> broken = inCatalogueOrder(entry.getValue());
+            List<ProblemItem> problemItems = new ArrayList<>(broken.size());
+            for (AkerProcess pro : broken) {
+                problemItems.add(new ProblemItem(pro.getName(), rule.details(pro), Collections.singletonList(pro)));
+            }
+            addItems(entry.getKey(), problemItems);
+        }
+        addProblems(Problem.ORPHAN_MODULE, inCatalogueOrder(orphans));
+        addNames(Problem.DUPLICATE_MODULE_NAME, moduleNames);
+        addNames(Problem.DUPLICATE_PROCESS_NAME, processNames);
+        addNames(Problem.DUPLICATE_PRODUCT_NAME, productNames);
+        Comparator<HasUuid> uuidOrder = Comparator.comparing((HasUuid item) -> !(item instanceof Product))
+                .thenComparing(this::positionOf);
+        List<List<HasUuid>> uuidGroups = new ArrayList<>(duplicateUuids.size());
+        for (String uuid : duplicateUuids) {
+            List<HasUuid> items = new ArrayList<>(uuidItems.get(uuid));
+            items.sort(uuidOrder);
+            uuidGroups.add(items);
+        }
+        uuidGroups.sort(Comparator.comparing(items -> items.get(0), uuidOrder));
+        List<ProblemItem> uuidProblems = new ArrayList<>(uuidGroups.size());
+        for (List<HasUuid> items : uuidGroups) {
+            uuidProblems.add(new ProblemItem(items.get(0).getUuid(), Validator.describeItems(items), items));
+        }
+        addItems(Problem.DUPLICATE_UUIDS, uuidProblems);
+        return anyProblems;
+    }
+
+    /**
+     * Get an html description of the problems found.
+     * {@link #findProblems findProblems} should have been called before this method is called.
+     * @return a string describing the problems found in html
+     * @see Validator#problemsHtml()
+     */
+    public String problemsHtml() {
+        return Validator.problemsHtml(problems);
+    }
+
+    /**
+     * Writes the problems found in the given format.
+     * {@link #findProblems findProblems} should have been called before this method is called.
+     * @param format the format to write
+     * @param out the writer to write to (which is not closed)
+     * @exception IOException the problems could not be written
+     * @see Validator#writeProblems
+     */
+    public void writeProblems(ProblemFormat format, Writer out) throws IOException {
+        format.write(problems, out);
+    }
+
+    /**
+     * Gets the items found with each type of problem.
+     * {@link #findProblems findProblems} should have been called before this method is called.
+     * @return a map from each type of problem to the items found with that problem
+     */
+    Map<Problem, List<ProblemItem>> getProblems() {
+        return this.problems;
+    }
+
+    /** Discards all the state and works it out again from the whole catalogue. */
+    private void rebuild() {
+        processModules.clear();
+        moduleUses.clear();
+        catalogueModules.clear();
+        orphans.clear();
+        for (Set<AkerProcess> broken : brokenRules.values()) {
+            broken.clear();
+        }
+        moduleNames.clear();
+        processNames.clear();
+        productNames.clear();
+        uuids.clear();
+        uuidItems.clear();
+        duplicateUuids.clear();
+        positions = null;
+        stale = false;
+        if (catalogue==null) {
+            return;
+        }
+        for (Module module : catalogue.getModules()) {
+            addModule(module);
+        }
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            updateProcess(pro);
+        }
+        for (Product product : catalogue.getProducts()) {
+            updateProduct(product);
+        }
+    }
+
+    private void addModule(Module module) {
+        catalogueModules.add(module);
+        moduleNames.update(module);
+        if (moduleUses.getOrDefault(module, 0)==0) {
+            orphans.add(module);
+        }
+    }
+
+    private void removeModule(Module module) {
+        catalogueModules.remove(module);
+        moduleNames.remove(module);
+        orphans.remove(module);
+    }
+
+    /** Checks the given process, adjusting the state by the difference from when it was last checked. */
+    private void updateProcess(AkerProcess pro) {
+        Set<Module> modules = Validator.processModules(pro);
+        ModuleLayout layout = layoutProvider.apply(pro);
+        Set<Module> oldModules = processModules.put(pro, modules);
+        if (oldModules!=null) {
+            for (Module module : oldModules) {
+                if (!modules.contains(module)) {
+                    useModule(module, -1);
+                }
+            }
+        }
+        for (Module module : modules) {
+            if (oldModules==null || !oldModules.contains(module)) {
+                useModule(module, 1);
+            }
+        }
+        for (Map.Entry<Problem, Set<AkerProcess>> entry : brokenRules.entrySet()) {
+            if (Validator.PROCESS_RULES.get(entry.getKey()).isBroken(pro, modules, layout)) {
+                entry.getValue().add(pro);
+            } else {
+                entry.getValue().remove(pro);
+            }
+        }
+        processNames.update(pro);
+        updateUuid(pro);
+    }
+
+    private void removeProcess(AkerProcess pro) {
+        Set<Module> oldModules = processModules.remove(pro);
+        if (oldModules!=null) {
+            for (Module module : oldModules) {
+                useModule(module, -1);
+            }
+        }
+        for (Set<AkerProcess> broken : brokenRules.values()) {
+            broken.remove(pro);
+        }
+        processNames.remove(pro);
+        removeUuid(pro);
+    }
+
+    private void updateProduct(Product product) {
+        productNames.update(product);
+        updateUuid(product);
+    }
+
+    /** Adjusts the number of processes using the given module, keeping track of orphan modules. */
+    private void useModule(Module module, int delta) {
+        int uses = moduleUses.getOrDefault(module, 0) + delta;
+        if (uses > 0) {
+            moduleUses.put(module, uses);
+            orphans.remove(module);
+        } else {
+            moduleUses.remove(module);
+            if (catalogueModules.contains(module)) {
+                orphans.add(module);
+            }
+        }
+    }
+
+    private void updateUuid(HasUuid item) {
+        String uuid = item.getUuid();
+        if (uuid!=null && uuid.isEmpty()) {
+            uuid = null;
+        }
+        if (Objects.equals(uuid, uuids.get(item))) {
+            return;
+        }
+        removeUuid(item);
+        if (uuid!=null) {
+            uuids.put(item, uuid);
+            List<HasUuid> items = uuidItems.computeIfAbsent(uuid, k -> new ArrayList<>(1));
+            items.add(item);
+            if (items.size() > 1) {
+                duplicateUuids.add(uuid);
+            }
+        }
+    }
+
+    private void removeUuid(HasUuid item) {
+        String uuid = uuids.remove(item);
+        if (uuid==null) {
+            return;
+        }
+        List<HasUuid> items = uuidItems.get(uuid);
+        items.remove(item);
+        if (items.isEmpty()) {
+            uuidItems.remove(uuid);
+        }
+        if (items.size() < 2) {
+            duplicateUuids.remove(uuid);
+        }
+    }
+
+    /** Finds the position of each item in its list in the catalogue. */
+    private Map<Object, Integer> findPositions() {
+        Map<Object, Integer> positions = new HashMap<>();
+        if (catalogue!=null) {
+            for (List<?> items : Arrays.asList(catalogue.getModules(), catalogue.getProcesses(), catalogue.getProducts())) {
+                for (int i = 0; i < items.size(); ++i) {
+                    positions.put(items.get(i), i);
+                }
+            }
+        }
+        return positions;
+    }
+
+    private int positionOf(Object item) {
+        return positions.getOrDefault(item, Integer.MAX_VALUE);
+    }
+
+    private <E extends HasName> List<E> inCatalogueOrder(Collection<E> items) {
+        List<E> list = new ArrayList<>(items);
+        list.sort(Comparator.comparing(this::positionOf));
+        return list;
+    }
+
+    private void addProblems(Problem problem, List<? extends HasName> items) {
+        List<ProblemItem> problemItems = new ArrayList<>(items.size());
+        for (HasName item : items) {
+            problemItems.add(new ProblemItem(item.getName(), Collections.emptyList(), Collections.singletonList(item)));
+        }
+        addItems(problem, problemItems);
+    }
+
+    private void addNames(Problem problem, NameCounter counter) {
+        List<List<HasName>> nameGroups = new ArrayList<>(counter.duplicates.size());
+        for (String name : counter.duplicates) {
+            nameGroups.add(inCatalogueOrder(counter.itemsNamed(name)));
+        }
+        nameGroups.sort(Comparator.comparing(items -> positionOf(items.get(0))));
+        List<ProblemItem> problemItems = new ArrayList<>(nameGroups.size());
+        for (List<HasName> items : nameGroups) {
+            problemItems.add(new ProblemItem(items.get(0).getName(), Collections.emptyList(), items));
+        }
+        addItems(problem, problemItems);
+    }
+
+    private void addItems(Problem problem, List<ProblemItem> items) {
+        problems.put(problem, items);
+        if (!items.isEmpty()) {
+            anyProblems = true;
+        }
+    }
+}
@@ -4,16 +4,29 @@ import javax.swing.SwingUtilities;
 
 /**
  * The entry point of the application.
+ * With no arguments, the editor is shown.
+ * With arguments, the {@link CatalogueTool command line tool} is run instead, without loading
+ * any AWT classes, and the process exits with its exit code.
  * @author dr6
  */
 public class Main {
     private Main() {}
 
+    /**
+     * Runs the command line tool if there are any arguments, or else starts the application.
+     */
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(new CatalogueTool(System.out, System.err).run(args));
+        }
+        startApp();
+    }
+
     /**
      * Sets the apple properties for the application.
      * Creates a new {@link CatalogueApp} to be executed by the AWT thread.
      */
-    public static void main(String[] args) {
+    private static void startApp() {
         System.setProperty("apple.laf.useScreenMenuBar", "true");
         System.setProperty("apple.awt.application.name", "Catalogue");
         SwingUtilities.invokeLater(new CatalogueApp());
@@ -0,0 +1,190 @@
+package uk.ac.sanger.aker.catalogue;
+
+import uk.ac.sanger.aker.catalogue.Validator.Problem;
+import uk.ac.sanger.aker.catalogue.Validator.ProblemItem;
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
+
+/**
+ * The formats in which the problems found by a {@link Validator} can be written.
+ * Each format writes the problems straight to a {@link Writer} as it goes,
+ * in the order of the {@link Problem problem types}, and does not close it.
+ * @author dr6
+ */
+public enum ProblemFormat {
+    /** The html shown in the application: a paragraph for each type of problem, listing its items */
+    HTML {
+        @Override
+        void write(Map<Problem, List<ProblemItem>> problems, Writer out) throws IOException {
+            for (Problem problem : Problem.values()) {
+                List<ProblemItem> items = problems.get(problem);
+                if (items.isEmpty()) {
+                    continue;
+                }
+                out.write("<p>");
+                out.write(problem.getText(items.size()));
+                out.write("<ul>");
+                for (ProblemItem item : items) {
+                    out.write("<li>");
+                    out.write(escapeHtml4(item.getName()));
+                    if (!item.getDetails().isEmpty()) {
+                        writeUL(item.getDetails(), out);
+                    }
+                }
+                out.write("</ul>");
+                out.write("</p>");
+            }
+        }
+    },
+    /**
+     * One line of JSON for each item with a problem, giving the type, severity and message of the problem,
+     * the name of the item, any details, and the items in the catalogue it refers to
+     */
+    JSON_LINES {
+        @Override
+        void write(Map<Problem, List<ProblemItem>> problems, Writer out) throws IOException {
+            for (Problem problem : Problem.values()) {
+                for (ProblemItem item : problems.get(problem)) {
+                    JsonObjectBuilder json = Json.createObjectBuilder()
+                            .add("type", problem.name())
+                            .add("severity", level(problem))
+                            .add("message", problem.getText(1))
+                            .add("name", item.getName());
+                    if (!item.getDetails().isEmpty()) {
+                        JsonArrayBuilder details = Json.createArrayBuilder();
+                        item.getDetails().forEach(details::add);
+                        json.add("details", details);
+                    }
+                    JsonArrayBuilder refs = Json.createArrayBuilder();
+                    for (Object ref : item.getRefs()) {
+                        JsonObjectBuilder refJson = Json.createObjectBuilder()
+                                .add("kind", kind(ref))
+                                .add("name", ((HasName) ref).getName());
+                        String uuid = (ref instanceof HasUuid ? ((HasUuid) ref).getUuid() : null);
+                        if (uuid!=null) {
+                            refJson.add("uuid", uuid);
+                        }
+                        refs.add(refJson);
+                    }
+                    json.add("refs", refs);
+                    out.write(json.build().toString());
+                    out.write('\n');
+                }
+            }
+        }
+    },
+    /**
+     * A single JSON document laid out like a SARIF log, as read by code analysis tools:
+     * each type of problem is a rule, and each item with a problem is a result whose
+     * logical locations are the items in the catalogue it refers to
+     */
+    SARIF {
+        @Override
+        void write(Map<Problem, List<ProblemItem>> problems, Writer out) throws IOException {
+            JsonGenerator gen = Json.createGenerator(out);
+            gen.writeStartObject()
+                    .write("version", "2.1.0")
+                    .writeStartArray("runs")
+                    .writeStartObject()
+                    .writeStartObject("tool")
+                    .writeStartObject("driver")
+                    .write("name", "aker-catalogue-creator")
+                    .writeStartArray("rules");
+            for (Problem problem : Problem.values()) {
+                gen.writeStartObject()
+                        .write("id", problem.name())
+                        .writeStartObject("shortDescription").write("text", problem.getText(1)).writeEnd()
+                        .writeStartObject("defaultConfiguration").write("level", level(problem)).writeEnd()
+                        .writeEnd();
+            }
+            gen.writeEnd() // rules
+                    .writeEnd() // driver
+                    .writeEnd() // tool
+                    .writeStartArray("results");
+            for (Problem problem : Problem.values()) {
+                for (ProblemItem item : problems.get(problem)) {
+                    gen.writeStartObject()
+                            .write("ruleId", problem.name())
+                            .write("level", level(problem))
+                            .writeStartObject("message")
+                            .write("text", problem.getText(1)+" "+item.getName())
+                            .writeEnd()
+                            .writeStartArray("locations")
+                            .writeStartObject()
+                            .writeStartArray("logicalLocations");
+                    for (Object ref : item.getRefs()) {
+                        gen.writeStartObject()
+                                .write("name", ((HasName) ref).getName())
+                                .write("kind", kind(ref))
+                                .writeEnd();
+                    }
+                    gen.writeEnd() // logicalLocations
+                            .writeEnd()
+                            .writeEnd(); // locations
+                    if (!item.getDetails().isEmpty()) {
+                        gen.writeStartObject("properties").writeStartArray("details");
+                        item.getDetails().forEach(gen::write);
+                        gen.writeEnd().writeEnd();
+                    }
+                    gen.writeEnd();
+                }
+            }
+            gen.writeEnd() // results
+                    .writeEnd() // run
+                    .writeEnd() // runs
+                    .writeEnd();
+            // Closing the generator would close the writer
+            gen.flush();
+        }
+    },
+    ;
+
+    /**
+     * Writes the given problems to the given writer in this format.
+     * @param problems the items found with each type of problem
+     * @param out the writer to write to (which is not closed)
+     * @exception IOException the problems could not be written
+     */
+    abstract void write(Map<Problem, List<ProblemItem>> problems, Writer out) throws IOException;
+
+    private static String level(Problem problem) {
+        return problem.getSeverity().name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String kind(Object item) {
+        if (item instanceof Module) {
+            return "module";
+        }
+        if (item instanceof AkerProcess) {
+            return "process";
+        }
+        if (item instanceof Product) {
+            return "product";
+        }
+        return item.getClass().getSimpleName();
+    }
+
+    /**
+     * Writes an html unordered list of the given strings.
+     * The strings are escaped.
+     */
+    private static void writeUL(List<String> lines, Writer out) throws IOException {
+        out.write("<ul>");
+        for (String line : lines) {
+            out.write("<li>");
+            out.write(escapeHtml4(line));
+        }
+        out.write("</ul>");
+    }
+}
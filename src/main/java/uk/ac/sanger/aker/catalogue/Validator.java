@@ -1,20 +1,24 @@
 package uk.ac.sanger.aker.catalogue;
 
+import uk.ac.sanger.aker.catalogue.graph.DefaultRouteAnalyser;
 import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+import uk.ac.sanger.aker.catalogue.graph.RouteReachability;
 import uk.ac.sanger.aker.catalogue.model.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
-
 /**
  * Validate various features of a catalogue.
  * Types of problem are enumerated by {@link Validator.Problem}.
  * <ul>
  *     <li>A module added to a process graph is not connected via any path.</li>
+ *     <li>A module in a process graph is not on any route from START to END
+ *     (it cannot be reached from START, or cannot lead on to END).</li>
  *     <li>A process graph contains no modules.</li>
  *     <li>A module is not part of any process.</li>
  *     <li>A process graph doesn't have a valid default route.</li>
@@ -22,37 +26,192 @@ import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
  *     <li>Multiple objects in the catalogue have the same UUID.</li>
  * </ul>
  * Call {@link #findProblems findProblems findProblems} to see if there are any problems, and
- * {@link #problemsHtml problemsHtml} to get an html description of the problems found.
+ * {@link #problemsHtml problemsHtml} to get an html description of the problems found,
+ * or {@link #writeProblems writeProblems} to write them in a {@link ProblemFormat format} for other tools.
+ * Each problem found records its type (with a {@link Severity severity}), the name of the item with the problem,
+ * any further details, and the items in the catalogue it refers to.
+ * <p>Each type of problem is found by a rule. {@link ProcessRule Process rules} check each process
+ * independently, so the processes are checked in parallel, each giving its own set of problems;
+ * {@link CatalogueRule catalogue rules} check the catalogue as a whole, and are run in parallel with each other.
+ * The problems found are then gathered in a fixed order (by type of problem, and then in the order
+ * of the items in the catalogue), so the results do not depend on how the work was divided.
+ * <p>This checks the whole catalogue each time; {@link IncrementalValidator} keeps the same checks
+ * up to date as the catalogue is edited.
  * @author dr6
  */
 public class Validator {
+    /** How serious a problem is */
+    enum Severity {
+        /** The catalogue is wrong, and will be rejected or misbehave */
+        ERROR,
+        /** The catalogue can be used, but something in it will be left out or is probably a mistake */
+        WARNING,
+    }
+
     enum Problem {
-        PROCESS_WITH_DISCONNECTED_MODULES("The following process{es} contain{s|} modules with no routes. " +
+        PROCESS_WITH_DISCONNECTED_MODULES(Severity.WARNING, "The following process{es} contain{s|} modules with no routes. " +
                 "Those modules will not be linked to the process{es} when the catalogue is saved:"),
-        PROCESS_WITH_NO_MODULES("The following process{es} contain{s|} no modules:"),
-        ORPHAN_MODULE("The following module{s} {is|are} not part of any process, and will not be " +
+        PROCESS_WITH_MODULES_OFF_ROUTE(Severity.WARNING, "The following process{es} contain{s|} modules " +
+                "that are not on any route from START to END:"),
+        PROCESS_WITH_NO_MODULES(Severity.WARNING, "The following process{es} contain{s|} no modules:"),
+        ORPHAN_MODULE(Severity.WARNING, "The following module{s} {is|are} not part of any process, and will not be " +
                 "included when the catalogue is saved:"),
-        INVALID_DEFAULT_ROUTE("The following process{es} {has|have} invalid or missing default routes:"),
-        DUPLICATE_MODULE_NAME("There are multiple modules with the following name{s}:"),
-        DUPLICATE_PROCESS_NAME("There are multiple processes with the following name{s}:"),
-        DUPLICATE_PRODUCT_NAME("There are multiple products with the following name{s}:"),
-        DUPLICATE_UUIDS("The following UUID{s} {is|are} duplicated:"),
+        INVALID_DEFAULT_ROUTE(Severity.ERROR, "The following process{es} {has|have} invalid or missing default routes:"),
+        DUPLICATE_MODULE_NAME(Severity.ERROR, "There are multiple modules with the following name{s}:"),
+        DUPLICATE_PROCESS_NAME(Severity.ERROR, "There are multiple processes with the following name{s}:"),
+        DUPLICATE_PRODUCT_NAME(Severity.ERROR, "There are multiple products with the following name{s}:"),
+        DUPLICATE_UUIDS(Severity.ERROR, "The following UUID{s} {is|are} duplicated:"),
         ;
 
+        private final Severity severity;
         private final String desc;
 
-        Problem(String desc) {
+        Problem(Severity severity, String desc) {
+            this.severity = severity;
             this.desc = desc;
         }
 
+        public Severity getSeverity() {
+            return this.severity;
+        }
+
         public String getText(int number) {
             return MessageVar.process(this.desc, number);
         }
     }
 
-    private Map<Problem, List<String>> problems;
+    /**
+     * An item found to have a problem, with any further details (such as the objects sharing a UUID),
+     * and the items in the catalogue that the problem refers to (modules, processes or products).
+     */
+    static class ProblemItem {
+        private final String name;
+        private final List<String> details;
+        private final List<?> refs;
+
+        ProblemItem(String name, List<String> details, List<?> refs) {
+            this.name = name;
+            this.details = details;
+            this.refs = refs;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        List<String> getDetails() {
+            return this.details;
+        }
+
+        /** The items in the catalogue that the problem refers to */
+        List<?> getRefs() {
+            return this.refs;
+        }
+    }
+
+    /** A rule checked for each process, independently of the other processes. */
+    @FunctionalInterface
+    interface ProcessRule {
+        /**
+         * Does the given process break this rule?
+         * @param pro the process
+         * @param proModules the modules reached by the process's paths (see {@link #processModules})
+         * @param layout the layout of the process, or null if it is not known
+         * @return true if the process has the problem checked by this rule
+         */
+        boolean isBroken(AkerProcess pro, Set<Module> proModules, ModuleLayout layout);
+
+        /**
+         * Gets further details of how the given process breaks this rule.
+         * This is only called for processes that break the rule.
+         * @param pro the process
+         * @return the details to list, if any
+         */
+        default List<String> details(AkerProcess pro) {
+            return Collections.emptyList();
+        }
+    }
+
+    /** The rule that a process must have a single valid default route, which describes what is wrong if not */
+    private static class DefaultRouteRule implements ProcessRule {
+        @Override
+        public boolean isBroken(AkerProcess pro, Set<Module> proModules, ModuleLayout layout) {
+            return !defaultRouteValid(pro.getModulePairs());
+        }
+
+        @Override
+        public List<String> details(AkerProcess pro) {
+            return Collections.singletonList(ROUTE_ANALYSERS.get().analyse(pro.getModulePairs()).describe());
+        }
+    }
+
+    /** The rule that every module in a process's paths must be on some route from START to END */
+    private static class ReachabilityRule implements ProcessRule {
+        @Override
+        public boolean isBroken(AkerProcess pro, Set<Module> proModules, ModuleLayout layout) {
+            return !RouteReachability.analyse(pro.getModulePairs()).allOnRoute();
+        }
+
+        @Override
+        public List<String> details(AkerProcess pro) {
+            return RouteReachability.analyse(pro.getModulePairs()).describe();
+        }
+    }
+
+    /** An analyser for each thread checking processes, since an analyser is reused from one check to the next */
+    private static final ThreadLocal<DefaultRouteAnalyser> ROUTE_ANALYSERS = ThreadLocal.withInitial(DefaultRouteAnalyser::new);
+
+    /** A rule checked on the catalogue as a whole. */
+    @FunctionalInterface
+    interface CatalogueRule {
+        /**
+         * Finds the items in the catalogue that break this rule.
+         * @param catalogue the catalogue
+         * @param usedModules the modules reached by the paths of any process in the catalogue
+         * @return the items found with the problem checked by this rule
+         */
+        List<ProblemItem> check(Catalogue catalogue, Set<Module> usedModules);
+    }
+
+    /** The checks made for each process, by the type of problem they find */
+    static final Map<Problem, ProcessRule> PROCESS_RULES;
+    /** The checks made on the catalogue as a whole, by the type of problem they find */
+    static final Map<Problem, CatalogueRule> CATALOGUE_RULES;
+    static {
+        Map<Problem, ProcessRule> processRules = new EnumMap<>(Problem.class);
+        processRules.put(Problem.PROCESS_WITH_DISCONNECTED_MODULES,
+                (pro, proModules, layout) -> hasDisconnectedModules(proModules, layout));
+        processRules.put(Problem.PROCESS_WITH_MODULES_OFF_ROUTE, new ReachabilityRule());
+        processRules.put(Problem.PROCESS_WITH_NO_MODULES, (pro, proModules, layout) -> proModules.isEmpty());
+        processRules.put(Problem.INVALID_DEFAULT_ROUTE, new DefaultRouteRule());
+        PROCESS_RULES = Collections.unmodifiableMap(processRules);
+
+        Map<Problem, CatalogueRule> catalogueRules = new EnumMap<>(Problem.class);
+        catalogueRules.put(Problem.ORPHAN_MODULE, Validator::findOrphanModules);
+        catalogueRules.put(Problem.DUPLICATE_MODULE_NAME, (cat, used) -> findDuplicateNames(cat.getModules()));
+        catalogueRules.put(Problem.DUPLICATE_PROCESS_NAME, (cat, used) -> findDuplicateNames(cat.getProcesses()));
+        catalogueRules.put(Problem.DUPLICATE_PRODUCT_NAME, (cat, used) -> findDuplicateNames(cat.getProducts()));
+        catalogueRules.put(Problem.DUPLICATE_UUIDS, (cat, used) ->
+                checkUuids(Stream.of(cat.getProducts(), cat.getProcesses()).flatMap(Collection::stream)));
+        CATALOGUE_RULES = Collections.unmodifiableMap(catalogueRules);
+    }
+
+    /** The result of checking one process: the modules it reaches, and the rules it breaks */
+    private static class ProcessResult {
+        private final Set<Module> modules;
+        private final Set<Problem> problems;
+
+        ProcessResult(Set<Module> modules, Set<Problem> problems) {
+            this.modules = modules;
+            this.problems = problems;
+        }
+    }
+
+    private Map<Problem, List<ProblemItem>> problems;
     private boolean anyProblems;
     private Function<AkerProcess, ModuleLayout> layoutProvider;
+    private final Map<Problem, ProcessRule> processRules;
+    private final Map<Problem, CatalogueRule> catalogueRules;
 
     /**
      * Constructs a new validator.
@@ -60,7 +219,21 @@ public class Validator {
      *                       given {@link AkerProcess process}.
      */
     public Validator(Function<AkerProcess, ModuleLayout> layoutProvider) {
+        this(layoutProvider, PROCESS_RULES, CATALOGUE_RULES);
+    }
+
+    /**
+     * Constructs a new validator that checks the given rules.
+     * @param layoutProvider the function that will give the {@link ModuleLayout} for a
+     *                       given {@link AkerProcess process}.
+     * @param processRules the rules to check for each process
+     * @param catalogueRules the rules to check on the catalogue
+     */
+    Validator(Function<AkerProcess, ModuleLayout> layoutProvider,
+              Map<Problem, ProcessRule> processRules, Map<Problem, CatalogueRule> catalogueRules) {
         this.layoutProvider = layoutProvider;
+        this.processRules = processRules;
+        this.catalogueRules = catalogueRules;
         problems = new EnumMap<>(Problem.class);
         for (Problem problem : Problem.values()) {
             problems.put(problem, new ArrayList<>());
@@ -75,36 +248,59 @@ public class Validator {
      */
     public boolean findProblems(Catalogue catalogue) {
         anyProblems = false;
+        for (List<ProblemItem> items : problems.values()) {
+            items.clear();
+        }
+        List<AkerProcess> processes = catalogue.getProcesses();
+        // The layout provider need not be safe to call from other threads
+        List<ModuleLayout> layouts = new ArrayList<>(processes.size());
+        for (AkerProcess pro : processes) {
+            layouts.add(layoutProvider.apply(pro));
+        }
+        List<ProcessResult> results = IntStream.range(0, processes.size()).parallel()
+                .mapToObj(i -> checkProcess(processes.get(i), layouts.get(i)))
+                .collect(Collectors.toList());
         Set<Module> usedModules = new HashSet<>(catalogue.getModules().size());
-        for (AkerProcess pro : catalogue.getProcesses()) {
-            Set<Module> proModules = pro.getModulePairs().stream()
-                    .map(ModulePair::getTo)
-                    .filter(mod -> mod!=Module.END)
-                    .collect(Collectors.toSet());
-            ModuleLayout layout = layoutProvider.apply(pro);
-            if (layout!=null && !layout.modules().stream().allMatch(mod -> mod.isEndpoint() || proModules.contains(mod))) {
-                addProblem(Problem.PROCESS_WITH_DISCONNECTED_MODULES, pro);
-            }
-            usedModules.addAll(proModules);
-            if (proModules.isEmpty()) {
-                addProblem(Problem.PROCESS_WITH_NO_MODULES, pro);
-            }
-            if (!defaultRouteValid(pro.getModulePairs())) {
-                addProblem(Problem.INVALID_DEFAULT_ROUTE, pro);
+        for (int i = 0; i < results.size(); ++i) {
+            ProcessResult result = results.get(i);
+            usedModules.addAll(result.modules);
+            for (Problem problem : result.problems) {
+                AkerProcess pro = processes.get(i);
+                addProblem(problem, new ProblemItem(pro.getName(), processRules.get(problem).details(pro),
+                        Collections.singletonList(pro)));
             }
         }
-        for (Module module : catalogue.getModules()) {
-            if (!usedModules.contains(module)) {
-                addProblem(Problem.ORPHAN_MODULE, module);
+        Set<Module> finalUsedModules = Collections.unmodifiableSet(usedModules);
+        List<Problem> ruleProblems = new ArrayList<>(catalogueRules.keySet());
+        List<List<ProblemItem>> found = ruleProblems.parallelStream()
+                .map(problem -> catalogueRules.get(problem).check(catalogue, finalUsedModules))
+                .collect(Collectors.toList());
+        for (int i = 0; i < ruleProblems.size(); ++i) {
+            for (ProblemItem item : found.get(i)) {
+                addProblem(ruleProblems.get(i), item);
             }
         }
-        findDuplicateNames(Problem.DUPLICATE_MODULE_NAME, catalogue.getModules());
-        findDuplicateNames(Problem.DUPLICATE_PROCESS_NAME, catalogue.getProcesses());
-        findDuplicateNames(Problem.DUPLICATE_PRODUCT_NAME, catalogue.getProducts());
-        checkUuids(Stream.of(catalogue.getProducts(), catalogue.getProcesses()).flatMap(Collection::stream));
         return anyProblems;
     }
 
+    /**
+     * Checks the process rules for the given process.
+     * This is called on any thread, so it only looks at the given process.
+     * @param pro the process to check
+     * @param layout the layout of the process, or null if it is not known
+     * @return the modules reached by the process, and the problems found with it
+     */
+    private ProcessResult checkProcess(AkerProcess pro, ModuleLayout layout) {
+        Set<Module> proModules = processModules(pro);
+        Set<Problem> found = EnumSet.noneOf(Problem.class);
+        for (Map.Entry<Problem, ProcessRule> entry : processRules.entrySet()) {
+            if (entry.getValue().isBroken(pro, proModules, layout)) {
+                found.add(entry.getKey());
+            }
+        }
+        return new ProcessResult(proModules, found);
+    }
+
     /**
      * Get an html description of the problems found.
      * This will comprise a series of paragraphs (the types of problem), each containing an unordered list
@@ -113,113 +309,143 @@ public class Validator {
      * @return a string describing the problems found in html
      */
     public String problemsHtml() {
-        StringBuilder sb = new StringBuilder();
-        for (Problem problem : Problem.values()) {
-            List<String> items = problems.get(problem);
-            if (items.isEmpty()) {
-                continue;
-            }
-            sb.append("<p>").append(problem.getText(items.size()));
-            sb.append("<ul>");
-            for (String item : items) {
-                sb.append("<li>").append(item);
-            }
-            sb.append("</ul>");
-            sb.append("</p>");
-        }
-        return sb.toString();
+        return problemsHtml(problems);
     }
 
-    private void addProblem(Problem problem, HasName named) {
-        addProblem(problem, named.getName());
+    /**
+     * Gets an html description of the given problems.
+     * @param problems a map from each type of problem to the items found with that problem
+     * @return a string describing the problems in html
+     * @see #problemsHtml()
+     */
+    static String problemsHtml(Map<Problem, List<ProblemItem>> problems) {
+        StringWriter sw = new StringWriter();
+        try {
+            ProblemFormat.HTML.write(problems, sw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not expected from a StringWriter
+        }
+        return sw.toString();
     }
 
-    private void addProblem(Problem problem, String name) {
-        addHtmlProblem(problem, escapeHtml4(name));
+    /**
+     * Writes the problems found in the given format.
+     * The problems are written as they are formatted, so a large number of problems is never held as one string.
+     * {@link #findProblems findProblems} should have been called before this method is called.
+     * @param format the format to write
+     * @param out the writer to write to (which is not closed)
+     * @exception IOException the problems could not be written
+     */
+    public void writeProblems(ProblemFormat format, Writer out) throws IOException {
+        format.write(problems, out);
     }
 
-    private void addHtmlProblem(Problem problem, String text) {
-        problems.get(problem).add(text);
+    private void addProblem(Problem problem, ProblemItem item) {
+        problems.get(problem).add(item);
         anyProblems = true;
     }
 
-    private void findDuplicateNames(Problem problem, List<? extends HasName> items) {
-        Map<String, Integer> nameCounter = new HashMap<>(items.size());
+    /**
+     * Gets the items found with each type of problem.
+     * {@link #findProblems findProblems} should have been called before this method is called.
+     * @return a map from each type of problem to the items found with that problem
+     */
+    Map<Problem, List<ProblemItem>> getProblems() {
+        return this.problems;
+    }
+
+    private static List<ProblemItem> findOrphanModules(Catalogue catalogue, Set<Module> usedModules) {
+        List<ProblemItem> found = new ArrayList<>();
+        for (Module module : catalogue.getModules()) {
+            if (!usedModules.contains(module)) {
+                found.add(new ProblemItem(module.getName(), Collections.emptyList(), Collections.singletonList(module)));
+            }
+        }
+        return found;
+    }
+
+    private static List<ProblemItem> findDuplicateNames(List<? extends HasName> items) {
+        Map<String, List<HasName>> nameItems = new LinkedHashMap<>(items.size());
         for (HasName item : items) {
-            String name = item.getName();
-            nameCounter.put(name, nameCounter.getOrDefault(name, 0) + 1);
+            nameItems.computeIfAbsent(item.getName(), k -> new ArrayList<>(1)).add(item);
         }
-        for (Map.Entry<String, Integer> entry : nameCounter.entrySet()) {
-            if (entry.getValue() > 1) {
-                addHtmlProblem(problem, escapeHtml4(entry.getKey()));
+        List<ProblemItem> found = new ArrayList<>();
+        for (Map.Entry<String, List<HasName>> entry : nameItems.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                found.add(new ProblemItem(entry.getKey(), Collections.emptyList(), entry.getValue()));
             }
         }
+        return found;
     }
 
-    private void checkUuids(Stream<HasUuid> itemStream) {
-        Map<String, List<HasUuid>> uuidMap = new HashMap<>();
+    private static List<ProblemItem> checkUuids(Stream<HasUuid> itemStream) {
+        Map<String, List<HasUuid>> uuidMap = new LinkedHashMap<>();
         itemStream.forEach(item -> {
             String uuid = item.getUuid();
             if (uuid!=null && !uuid.isEmpty()) {
                 uuidMap.computeIfAbsent(uuid, k -> new ArrayList<>()).add(item);
             }
         });
+        List<ProblemItem> found = new ArrayList<>();
         for (Map.Entry<String, List<HasUuid>> entry : uuidMap.entrySet()) {
             if (entry.getValue().size() > 1) {
-                addHtmlProblem(Problem.DUPLICATE_UUIDS, escapeHtml4(entry.getKey())+makeUL(entry.getValue()));
+                found.add(new ProblemItem(entry.getKey(), describeItems(entry.getValue()), entry.getValue()));
             }
         }
+        return found;
     }
 
     /**
-     * Constructs a string containing an unordered list ({@code <ul>...</ul>} in html).
-     * Each item will be listed as {@code "Product: <name>"} for a {@link Product product}, and
+     * Gets the modules that the paths of the given process lead to (apart from the END module).
+     * These are the modules that will be linked to the process when the catalogue is saved.
+     * @param pro the process
+     * @return the modules reached by the process's paths
+     */
+    static Set<Module> processModules(AkerProcess pro) {
+        return pro.getModulePairs().stream()
+                .map(ModulePair::getTo)
+                .filter(mod -> mod!=Module.END)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Does the given layout contain modules (other than the endpoints) that are not reached by any path?
+     * @param proModules the modules reached by the process's paths
+     * @param layout the layout of the process, or null if it is not known
+     * @return true if the layout contains disconnected modules
+     */
+    static boolean hasDisconnectedModules(Set<Module> proModules, ModuleLayout layout) {
+        return (layout!=null && !layout.modules().stream().allMatch(mod -> mod.isEndpoint() || proModules.contains(mod)));
+    }
+
+    /**
+     * Describes each of the given items.
+     * Each item will be described as {@code "Product: <name>"} for a {@link Product product}, and
      * {@code "Process: <name>"} for a {@link AkerProcess process}.
-     * The names of the items will be escaped using
-     * {@link org.apache.commons.lang3.StringEscapeUtils#escapeHtml4 StringEscapeUtils.escapeHtml4}.
-     * @param items the items to include in the list
-     * @return a string containing the html for an unordered list.
+     * @param items the items to describe
+     * @return a list of descriptions of the items
      */
-    private static String makeUL(List<?> items) {
-        StringBuilder sb = new StringBuilder("<ul>");
+    static List<String> describeItems(List<?> items) {
+        List<String> descs = new ArrayList<>(items.size());
         for (Object item : items) {
-            sb.append("<li>");
             if (item instanceof Product) {
-                sb.append("Product: ");
+                descs.add("Product: " + item);
             } else if (item instanceof AkerProcess) {
-                sb.append("Process: ");
+                descs.add("Process: " + item);
+            } else {
+                descs.add(item.toString());
             }
-            sb.append(escapeHtml4(item.toString()));
         }
-        sb.append("</ul>");
-        return sb.toString();
+        return descs;
     }
 
     /**
      * This method checks if there is a valid default path in the given list of paths.
      * @param pairs The pairs of modules representing paths between modules (each of which may be marked as "default")
      * @return true if there is a single default path through the graph, otherwise false
+     * @see DefaultRouteAnalyser
      */
     public static boolean defaultRouteValid(List<ModulePair> pairs) {
-        Map<Module, Module> defaultPath = new HashMap<>(pairs.size());
-        for (ModulePair pair : pairs) {
-            if (!pair.isDefaultPath()) {
-                continue;
-            }
-            if (defaultPath.containsKey(pair.getFrom())) {
-                return false;
-            }
-            defaultPath.put(pair.getFrom(), pair.getTo());
-        }
-        Module cur = Module.START;
-        int length = 0;
-        while (cur != Module.END) {
-            cur = defaultPath.get(cur);
-            length += 1;
-            if (cur==null || length > defaultPath.size()) {
-                return false;
-            }
-        }
-        return (length == defaultPath.size());
+        return ROUTE_ANALYSERS.get().analyse(pairs).isValid();
     }
 }
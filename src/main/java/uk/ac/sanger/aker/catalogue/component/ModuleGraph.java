@@ -1,10 +1,15 @@
 package uk.ac.sanger.aker.catalogue.component;
 
+import uk.ac.sanger.aker.catalogue.graph.IncrementalTopologicalOrder;
 import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
 import uk.ac.sanger.aker.catalogue.model.Module;
 import uk.ac.sanger.aker.catalogue.model.ModulePair;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -13,6 +18,16 @@ import java.util.Map;
  * Up to one module or path can be selected at a time (not both).
  * A projected path may be in progress from the selected module
  * to some point in the graph, while the user is part way through adding a new path.
+ * A topological order of the modules is kept up to date as paths are added and deleted,
+ * so that a path that would create a cycle is recognised as soon as it is projected.
+ * Paths that already form a cycle (in a process loaded with one) are kept in the order as back edges,
+ * so a path that would create another cycle is still recognised.
+ * A {@link ModuleGraphIndex spatial index} of the modules and paths is also kept up to date,
+ * so that finding the module or path under the mouse does not have to look at the whole graph.
+ * <p>The parts of the graph that are not being changed (the <i>static layer</i>: every module except the selected
+ * module, and every path not linked to it) are drawn into an off-screen image, which is kept until something in
+ * the static layer changes. Each time the graph is drawn, the image is copied, and only the selected module and
+ * its paths, and any projected path, are drawn on top of it; so dragging a module does not redraw the whole graph.
  * @author dr6
  */
 public class ModuleGraph {
@@ -27,12 +42,27 @@ public class ModuleGraph {
     private static final Color selectionColour = Color.magenta;
     /** The size that a module is drawn */
     public static final int MODULE_WIDTH = 120, MODULE_HEIGHT = 40;
+    /** How far arrows (with their stroke) may reach beyond the edges of the modules */
+    private static final int PATH_OVERHANG = 8;
+    /** How far beyond the area being drawn the cached image of the static layer extends, so it can be reused */
+    private static final int CACHE_MARGIN = 512;
+    /** The largest number of pixels in the cached image of the static layer */
+    private static final long MAX_CACHED_PIXELS = 1L<<24;
 
     private List<ModulePair> pairs;
     private ModuleLayout layout;
     private Module selected;
     private Point projectedTarget;
     private ModulePair selectedPair;
+    private final IncrementalTopologicalOrder<Module> order = new IncrementalTopologicalOrder<>();
+    private final ModuleGraphIndex index = new ModuleGraphIndex(MODULE_WIDTH, MODULE_HEIGHT);
+
+    private boolean staticValid;
+    private Rectangle staticContent;
+    private Rectangle staticBounds;
+    private BufferedImage staticImage;
+    private Font staticFont;
+    private double staticScaleX, staticScaleY;
 
     /**
      * Creates a {@code ModuleGraph} to draw the given layout (module positions) and paths between them.
@@ -42,6 +72,13 @@ public class ModuleGraph {
     public ModuleGraph(ModuleLayout layout, List<ModulePair> pairs) {
         this.layout = layout;
         this.pairs = pairs;
+        for (Map.Entry<Module, Point> entry : layout.entries()) {
+            order.addItem(entry.getKey());
+        }
+        for (ModulePair pair : pairs) {
+            order.addEdge(pair.getFrom(), pair.getTo());
+        }
+        index.rebuild(layout, pairs);
     }
 
     /**
@@ -70,11 +107,18 @@ public class ModuleGraph {
         g.setClip(oldClip);
     }
 
+    /** Gets the layout (module positions) being drawn */
+    public ModuleLayout getLayout() {
+        return this.layout;
+    }
+
     /**
      * Sets the layout (module positions) for future drawing
      */
     public void setLayout(ModuleLayout layout) {
         this.layout = layout;
+        index.rebuild(layout, pairs);
+        invalidate();
     }
 
     /**
@@ -89,27 +133,163 @@ public class ModuleGraph {
         return moduleFill;
     }
 
+    /**
+     * Discards the cached image of the static layer, so that it is drawn again.
+     * This must be called if something drawn in the static layer is changed other than through this graph
+     * (for instance, if a path is made a default path).
+     */
+    public void invalidate() {
+        staticValid = false;
+        staticImage = null;
+    }
+
     /**
      * Draws the graph.
-     * First all the modules.
-     * Then the indicator for the selected module (if any).
-     * Then the paths.
+     * First the static layer (all the modules except the selected module, and their paths).
+     * Then the selected module (if any) and its indicator.
+     * Then the selected module's paths.
      * @param g the graphics context
      */
     public void draw(Graphics2D g) {
+        drawStaticLayer(g);
+        if (selected!=null) {
+            FontMetrics fontMetrics = g.getFontMetrics();
+            int textY = (MODULE_HEIGHT - fontMetrics.getHeight())/2 + fontMetrics.getAscent();
+            drawModule(g, selected.getName(), position(selected), fontMetrics, textY, moduleColour(selected));
+            drawSelected(g, selected);
+        }
+        drawPaths(g);
+    }
+
+    /**
+     * Draws the static layer, using the cached image if it covers the area being drawn.
+     * Otherwise the image is drawn again, covering the area being drawn and a margin around it
+     * (within the bounds of the static layer). If that would be too big to hold, the static layer is drawn
+     * directly without being cached.
+     * @param g the graphics context
+     */
+    private void drawStaticLayer(Graphics2D g) {
+        if (!staticValid) {
+            staticContent = staticContentBounds();
+            staticValid = true;
+        }
+        Rectangle clip = g.getClipBounds();
+        Rectangle wanted = (clip==null ? staticContent : clip.intersection(staticContent));
+        if (wanted.isEmpty()) {
+            return;
+        }
+        AffineTransform transform = g.getTransform();
+        double scaleX = transform.getScaleX(), scaleY = transform.getScaleY();
+        if (staticImage==null || !staticBounds.contains(wanted) || !g.getFont().equals(staticFont)
+                || scaleX!=staticScaleX || scaleY!=staticScaleY) {
+            Rectangle region = wanted;
+            if (clip!=null) {
+                int margin = Math.max(CACHE_MARGIN, Math.max(clip.width, clip.height)/2);
+                region = new Rectangle(clip.x - margin, clip.y - margin, clip.width + 2*margin, clip.height + 2*margin)
+                        .intersection(staticContent);
+            }
+            if (pixels(region, scaleX, scaleY) > MAX_CACHED_PIXELS) {
+                region = wanted;
+            }
+            if (pixels(region, scaleX, scaleY) > MAX_CACHED_PIXELS) {
+                staticImage = null;
+                paintStaticLayer(g);
+                return;
+            }
+            renderStaticLayer(g, region, scaleX, scaleY);
+        }
+        g.drawImage(staticImage, staticBounds.x, staticBounds.y, staticBounds.width, staticBounds.height, null);
+    }
+
+    /** The number of pixels needed for an image of the given region at the given scale */
+    private static long pixels(Rectangle region, double scaleX, double scaleY) {
+        return (long) Math.ceil(region.width * scaleX) * (long) Math.ceil(region.height * scaleY);
+    }
+
+    /**
+     * Draws the static layer into a new cached image covering the given region.
+     * The image uses the same scale, font and rendering hints as the given graphics context.
+     */
+    private void renderStaticLayer(Graphics2D g, Rectangle region, double scaleX, double scaleY) {
+        BufferedImage image = new BufferedImage((int) Math.ceil(region.width * scaleX),
+                (int) Math.ceil(region.height * scaleY), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D ig = image.createGraphics();
+        try {
+            ig.setRenderingHints(g.getRenderingHints());
+            ig.setFont(g.getFont());
+            ig.scale(scaleX, scaleY);
+            ig.translate(-region.x, -region.y);
+            ig.clip(region);
+            paintStaticLayer(ig);
+        } finally {
+            ig.dispose();
+        }
+        staticImage = image;
+        staticBounds = region;
+        staticFont = g.getFont();
+        staticScaleX = scaleX;
+        staticScaleY = scaleY;
+    }
+
+    /**
+     * Gets the bounds of everything drawn in the static layer.
+     * Paths lie between the centres of modules, so they are within these bounds
+     * apart from their width.
+     */
+    private Rectangle staticContentBounds() {
+        Rectangle bounds = new Rectangle();
+        for (Map.Entry<Module, Point> e : layout.entries()) {
+            if (e.getKey()!=selected) {
+                Point pos = e.getValue();
+                Rectangle rect = new Rectangle(pos.x - MODULE_WIDTH/2, pos.y - MODULE_HEIGHT/2,
+                        MODULE_WIDTH, MODULE_HEIGHT);
+                if (bounds.isEmpty()) {
+                    bounds = rect;
+                } else {
+                    bounds.add(rect);
+                }
+            }
+        }
+        if (!bounds.isEmpty()) {
+            bounds.grow(PATH_OVERHANG, PATH_OVERHANG);
+        }
+        return bounds;
+    }
+
+    /**
+     * Draws the static layer directly: the modules other than the selected module, then the paths
+     * not linked to it. Modules and paths outside the clip bounds of the graphics context are skipped.
+     * @param g the graphics context
+     */
+    private void paintStaticLayer(Graphics2D g) {
+        Rectangle clip = g.getClipBounds();
         FontMetrics fontMetrics = g.getFontMetrics();
         int textY = (MODULE_HEIGHT - fontMetrics.getHeight())/2 + fontMetrics.getAscent();
-
         for (Map.Entry<Module, Point> e : layout.entries()) {
             Module module = e.getKey();
             Point pos = e.getValue();
-            drawModule(g, module.getName(), pos, fontMetrics, textY, moduleColour(module));
+            if (module!=selected && (clip==null || clip.intersects(pos.x - MODULE_WIDTH/2 - 1,
+                    pos.y - MODULE_HEIGHT/2 - 1, MODULE_WIDTH + 2, MODULE_HEIGHT + 2))) {
+                drawModule(g, module.getName(), pos, fontMetrics, textY, moduleColour(module));
+            }
         }
-
-        if (selected!=null) {
-            drawSelected(g, selected);
+        g = (Graphics2D) g.create();
+        try {
+            g.setStroke(new BasicStroke(4));
+            for (ModulePair pair : pairs) {
+                if (pair.getFrom()==selected || pair.getTo()==selected) {
+                    continue;
+                }
+                Point start = layout.getFrom(pair);
+                Point end = layout.getTo(pair);
+                if (clip==null || clip.intersects(pathBounds(start, end))) {
+                    g.setColor(pair.isDefaultPath() ? defaultPathColour : pathColour);
+                    drawArrow(g, start, end, false);
+                }
+            }
+        } finally {
+            g.dispose();
         }
-        drawPaths(g);
     }
 
     /**
@@ -128,7 +308,7 @@ public class ModuleGraph {
     }
 
     /**
-     * Draws the paths between modules.
+     * Draws the paths linked to the selected module (if any); the other paths are drawn in the static layer.
      * Also draws the projected path (when the user is dragging a new path),
      * and indicators for the selected path (if any).
      * The paths are thick, transparent arrows.
@@ -139,7 +319,7 @@ public class ModuleGraph {
         g = (Graphics2D) g.create();
         try {
             g.setStroke(new BasicStroke(4));
-            for (ModulePair pair : pairs) {
+            for (ModulePair pair : (selected==null ? Collections.<ModulePair>emptyList() : index.pairsOf(selected))) {
                 Point start = layout.getFrom(pair);
                 Point end = layout.getTo(pair);
                 g.setColor(pair.isDefaultPath() ? defaultPathColour : pathColour);
@@ -211,6 +391,43 @@ public class ModuleGraph {
         g.rotate(-theta, end.x, end.y);
     }
 
+    /**
+     * Gets the bounds of what is drawn on top of the static layer: the selected module and its indicator,
+     * the paths linked to it, the projected path, and the indicator for the selected path.
+     * When the graph is changed, only the area covered by these bounds before and after the change
+     * needs to be repainted (unless modules have been added or removed).
+     * @return the bounds in graph coordinates, or null if nothing is drawn on top of the static layer
+     */
+    public Rectangle activeBounds() {
+        Rectangle bounds = null;
+        if (selected!=null) {
+            Point pos = position(selected);
+            bounds = new Rectangle(pos.x - MODULE_WIDTH/2, pos.y - MODULE_HEIGHT/2, MODULE_WIDTH, MODULE_HEIGHT);
+            bounds.grow(PATH_OVERHANG, PATH_OVERHANG);
+            for (ModulePair pair : index.pairsOf(selected)) {
+                bounds.add(pathBounds(layout.getFrom(pair), layout.getTo(pair)));
+            }
+            if (projectedTarget!=null) {
+                bounds.add(pathBounds(pos, projectedTarget));
+            }
+        }
+        if (selectedPair!=null) {
+            Rectangle pairBounds = pathBounds(position(selectedPair.getFrom()), position(selectedPair.getTo()));
+            if (bounds==null) {
+                bounds = pairBounds;
+            } else {
+                bounds.add(pairBounds);
+            }
+        }
+        return bounds;
+    }
+
+    /** The bounds of an arrow drawn between the given points */
+    private static Rectangle pathBounds(Point start, Point end) {
+        return new Rectangle(Math.min(start.x, end.x) - PATH_OVERHANG, Math.min(start.y, end.y) - PATH_OVERHANG,
+                Math.abs(end.x - start.x) + 2*PATH_OVERHANG, Math.abs(end.y - start.y) + 2*PATH_OVERHANG);
+    }
+
     /**
      * Is there a projected path? The projected path is one that the user is mid-way through adding to the graph.
      */
@@ -227,13 +444,19 @@ public class ModuleGraph {
             Module target = moduleAt(projectedTarget.x, projectedTarget.y);
             selectedPair = new ModulePair(selected, target, defaultPath);
             pairs.add(selectedPair);
+            order.addEdge(selected, target);
+            index.addPair(selectedPair);
             selected = null;
+            invalidate();
         }
         projectedTarget = null;
     }
 
     /** Select the specified module. Deselect any other selected module or path. Drop any projected path. */
     public void select(Module mw) {
+        if (mw!=this.selected) {
+            invalidate();
+        }
         this.selected = mw;
         this.selectedPair = null;
         this.projectedTarget = null;
@@ -246,6 +469,9 @@ public class ModuleGraph {
 
     /** Select the specified path. Deselect any other selected module or path. Drop any projected path. */
     public void selectPair(ModulePair pair) {
+        if (this.selected!=null) {
+            invalidate();
+        }
         this.selectedPair = pair;
         this.selected = null;
         this.projectedTarget = null;
@@ -261,6 +487,7 @@ public class ModuleGraph {
      * from the current selected module (the source) and the target.
      * The target must be below the source in the graph.
      * The START module cannot be a target, and the END module cannot be a source.
+     * The new path must not create a cycle.
      * If source and target already have a path in the list of {@link ModulePair}s, then the
      * new path is not valid.
      */
@@ -278,7 +505,10 @@ public class ModuleGraph {
         if (position(target).y <= position(selected).y) {
             return false;
         }
-        return pairs.stream().noneMatch(pair -> pair.getFrom()==selected && pair.getTo()==target);
+        if (order.wouldCreateCycle(selected, target)) {
+            return false;
+        }
+        return !index.hasPair(selected, target);
     }
 
     /**
@@ -312,10 +542,17 @@ public class ModuleGraph {
         if (selected==null || selected.isEndpoint()) {
             return;
         }
+        for (ModulePair pair : new ArrayList<>(index.pairsOf(selected))) {
+            index.removePair(pair);
+        }
         pairs.removeIf(pair -> pair.getTo()==selected || pair.getFrom()==selected);
+        index.removeModule(selected);
         layout.remove(selected);
+        layout.setEdited(true);
+        order.removeItem(selected);
         selected = null;
         projectedTarget = null;
+        invalidate();
     }
 
     /**
@@ -324,7 +561,10 @@ public class ModuleGraph {
     public void deleteSelectedPair() {
         if (selectedPair!=null) {
             pairs.remove(selectedPair);
+            index.removePair(selectedPair);
+            order.removeEdge(selectedPair.getFrom(), selectedPair.getTo());
             selectedPair = null;
+            invalidate();
         }
     }
 
@@ -336,6 +576,7 @@ public class ModuleGraph {
      * Any module must be above any module that it has a path to, and below any module that has a path to it.
      * The new y position that the module is given is pushed into the acceptable range according to the constraints
      * described.
+     * The {@link ModuleGraphIndex index} is updated for the module's new position.
      * @param module the module to move
      * @param newx the new x position
      * @param newy the new y position
@@ -343,25 +584,29 @@ public class ModuleGraph {
     private void move(Module module, int newx, int newy) {
         Point pos = position(module);
         pos.x = newx;
-        if (module==Module.START) {
-            if (layout.entries().stream().anyMatch(e -> e.getKey()!=module && e.getValue().y <= newy)) {
-                return;
-            }
-        } else if (module==Module.END) {
-            if (layout.entries().stream().anyMatch(e -> e.getKey()!=module && e.getValue().y >= newy)) {
-                return;
-            }
-        } else {
-            if (position(Module.START).y >= newy || position(Module.END).y <= newy) {
-                return;
-            }
-            if (pairs.stream().anyMatch(pair -> (pair.getTo()==module && position(pair.getFrom()).y >= newy
-                    || (pair.getFrom()==module && position(pair.getTo()).y <= newy)))) {
-                return;
-            }
+        layout.setEdited(true);
+        if (canMoveTo(module, newy)) {
+            pos.y = newy;
         }
+        index.moveModule(module);
+    }
 
-        pos.y = newy;
+    /**
+     * Can the given module be given the specified y position?
+     * @see #move
+     */
+    private boolean canMoveTo(Module module, int newy) {
+        if (module==Module.START) {
+            return layout.entries().stream().noneMatch(e -> e.getKey()!=module && e.getValue().y <= newy);
+        }
+        if (module==Module.END) {
+            return layout.entries().stream().noneMatch(e -> e.getKey()!=module && e.getValue().y >= newy);
+        }
+        if (position(Module.START).y >= newy || position(Module.END).y <= newy) {
+            return false;
+        }
+        return index.pairsOf(module).stream().noneMatch(pair -> (pair.getTo()==module && position(pair.getFrom()).y >= newy
+                || (pair.getFrom()==module && position(pair.getTo()).y <= newy)));
     }
 
     /**
@@ -386,14 +631,15 @@ public class ModuleGraph {
     /**
      * Gets the module containing the specified position.
      * Returns the first matching module found, or null if none is found.
+     * Only the modules {@link ModuleGraphIndex indexed} near the position are checked.
      * @param x the x of the position
      * @param y the y of the position
      * @return a module containing the specified position, or null if none is found
      */
     public Module moduleAt(int x, int y) {
-        for (Map.Entry<Module, Point> entry : layout.entries()) {
-            if (inModuleRect(x, y, entry.getValue())) {
-                return entry.getKey();
+        for (Module module : index.modulesNear(x, y)) {
+            if (inModuleRect(x, y, position(module))) {
+                return module;
             }
         }
         return null;
@@ -404,6 +650,7 @@ public class ModuleGraph {
      * The indicated position must be within a short distance some point on the line to match.
      * If multiple paths match, the closest is returned.
      * If none match, null is returned.
+     * Only the paths {@link ModuleGraphIndex indexed} near the position are checked.
      * @param x x of the position
      * @param y the y of the position
      * @return the closest matched path
@@ -411,7 +658,7 @@ public class ModuleGraph {
     public ModulePair pathAt(int x, int y) {
         ModulePair best = null;
         double bestDist = 6;
-        for (ModulePair pair : pairs) {
+        for (ModulePair pair : index.pairsNear(x, y)) {
             Point source = position(pair.getFrom());
             Point target = position(pair.getTo());
             double dist = distToLine(x, y, source, target);
@@ -474,7 +721,11 @@ public class ModuleGraph {
         }
         y = Math.max(miny, Math.min(maxy, y));
         layout.put(module, new Point(x,y));
+        layout.setEdited(true);
+        index.addModule(module);
+        order.addItem(module);
         selected = module;
+        invalidate();
         return true;
     }
 
@@ -0,0 +1,249 @@
+package uk.ac.sanger.aker.catalogue.component;
+
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+import uk.ac.sanger.aker.catalogue.model.Module;
+import uk.ac.sanger.aker.catalogue.model.ModulePair;
+
+import java.awt.Point;
+import java.util.*;
+
+/**
+ * A spatial index of a module graph, so that the modules and paths near a point can be found
+ * without looking at every module and path in the graph.
+ * The plane is divided into a uniform grid of square cells. Each module is recorded in the cells
+ * that its rectangle overlaps, and each path is recorded in the cells that lie within a margin of its line.
+ * <p>The index must be told when modules are added, moved or removed, and when paths are added or removed.
+ * Moving a module updates the module and the paths linked to it.
+ * @author dr6
+ */
+class ModuleGraphIndex {
+    /** The width and height of each cell in the grid */
+    private static final int CELL_SIZE = 128;
+    /** How far from its line a path is indexed; this must be more than the distance at which a path can be picked */
+    private static final int PATH_MARGIN = 16;
+
+    private final int moduleWidth, moduleHeight;
+    private ModuleLayout layout;
+    private final Map<Long, List<Module>> moduleCells = new HashMap<>();
+    private final Map<Long, List<ModulePair>> pairCells = new HashMap<>();
+    private final Map<Module, long[]> moduleKeys = new HashMap<>();
+    private final Map<ModulePair, long[]> pairKeys = new IdentityHashMap<>();
+    private final Map<Module, List<ModulePair>> linkedPairs = new HashMap<>();
+
+    /**
+     * Creates an index of modules with the given size.
+     * @param moduleWidth the width of a module
+     * @param moduleHeight the height of a module
+     */
+    ModuleGraphIndex(int moduleWidth, int moduleHeight) {
+        this.moduleWidth = moduleWidth;
+        this.moduleHeight = moduleHeight;
+    }
+
+    /**
+     * Discards everything in the index and indexes the given layout and paths.
+     * @param layout the positions of the modules
+     * @param pairs the paths between modules
+     */
+    void rebuild(ModuleLayout layout, Collection<ModulePair> pairs) {
+        this.layout = layout;
+        moduleCells.clear();
+        pairCells.clear();
+        moduleKeys.clear();
+        pairKeys.clear();
+        linkedPairs.clear();
+        for (Map.Entry<Module, Point> entry : layout.entries()) {
+            indexModule(entry.getKey(), entry.getValue());
+        }
+        for (ModulePair pair : pairs) {
+            addPair(pair);
+        }
+    }
+
+    /** Indexes a module that has been added to the layout. */
+    void addModule(Module module) {
+        indexModule(module, layout.get(module));
+    }
+
+    /**
+     * Removes a module from the index.
+     * Any paths linked to it should be {@link #removePair removed} separately.
+     */
+    void removeModule(Module module) {
+        unindex(module, moduleKeys, moduleCells);
+        linkedPairs.remove(module);
+    }
+
+    /** Updates the index after a module has been moved, including the paths linked to it. */
+    void moveModule(Module module) {
+        unindex(module, moduleKeys, moduleCells);
+        indexModule(module, layout.get(module));
+        for (ModulePair pair : pairsOf(module)) {
+            unindex(pair, pairKeys, pairCells);
+            indexPair(pair);
+        }
+    }
+
+    /** Indexes a path that has been added. */
+    void addPair(ModulePair pair) {
+        linkedPairs.computeIfAbsent(pair.getFrom(), m -> new ArrayList<>()).add(pair);
+        linkedPairs.computeIfAbsent(pair.getTo(), m -> new ArrayList<>()).add(pair);
+        indexPair(pair);
+    }
+
+    /** Removes a path from the index. */
+    void removePair(ModulePair pair) {
+        unindex(pair, pairKeys, pairCells);
+        unlink(pair.getFrom(), pair);
+        unlink(pair.getTo(), pair);
+    }
+
+    /**
+     * Gets the paths to and from the given module.
+     * @param module a module
+     * @return the paths linked to the module (which should not be modified)
+     */
+    List<ModulePair> pairsOf(Module module) {
+        List<ModulePair> pairs = linkedPairs.get(module);
+        return (pairs==null ? Collections.emptyList() : pairs);
+    }
+
+    /**
+     * Is there a path from one module to another?
+     * @param from the source module
+     * @param to the target module
+     * @return true if the index contains such a path
+     */
+    boolean hasPair(Module from, Module to) {
+        for (ModulePair pair : pairsOf(from)) {
+            if (pair.getFrom()==from && pair.getTo()==to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the modules that might contain the given point: those whose rectangles overlap its cell.
+     * @return the candidate modules (which should not be modified)
+     */
+    List<Module> modulesNear(int x, int y) {
+        List<Module> modules = moduleCells.get(key(cell(x), cell(y)));
+        return (modules==null ? Collections.emptyList() : modules);
+    }
+
+    /**
+     * Gets the paths that might pass near the given point: those indexed in its cell.
+     * @return the candidate paths (which should not be modified)
+     */
+    List<ModulePair> pairsNear(int x, int y) {
+        List<ModulePair> pairs = pairCells.get(key(cell(x), cell(y)));
+        return (pairs==null ? Collections.emptyList() : pairs);
+    }
+
+    private void indexModule(Module module, Point pos) {
+        int left = pos.x - moduleWidth/2, top = pos.y - moduleHeight/2;
+        int x0 = cell(left), x1 = cell(left + moduleWidth - 1);
+        int y0 = cell(top), y1 = cell(top + moduleHeight - 1);
+        long[] keys = new long[(x1 - x0 + 1) * (y1 - y0 + 1)];
+        int i = 0;
+        for (int cy = y0; cy <= y1; ++cy) {
+            for (int cx = x0; cx <= x1; ++cx) {
+                keys[i++] = key(cx, cy);
+            }
+        }
+        index(module, keys, moduleKeys, moduleCells);
+    }
+
+    /**
+     * Indexes a path in the cells within {@link #PATH_MARGIN} of its line.
+     * For each row of cells, the part of the line within that row (widened by the margin) is found,
+     * so a long diagonal path is only indexed in the cells it passes near, rather than its whole bounding box.
+     */
+    private void indexPair(ModulePair pair) {
+        Point source = layout.get(pair.getFrom());
+        Point target = layout.get(pair.getTo());
+        if (source==null || target==null) {
+            return;
+        }
+        int dx = target.x - source.x, dy = target.y - source.y;
+        int y0 = cell(Math.min(source.y, target.y) - PATH_MARGIN);
+        int y1 = cell(Math.max(source.y, target.y) + PATH_MARGIN);
+        List<Long> keys = new ArrayList<>();
+        for (int cy = y0; cy <= y1; ++cy) {
+            double minx, maxx;
+            if (dy==0) {
+                minx = Math.min(source.x, target.x);
+                maxx = Math.max(source.x, target.x);
+            } else {
+                double t0 = (cy*CELL_SIZE - PATH_MARGIN - source.y) / (double) dy;
+                double t1 = ((cy+1)*CELL_SIZE + PATH_MARGIN - source.y) / (double) dy;
+                double tmin = Math.max(0, Math.min(t0, t1));
+                double tmax = Math.min(1, Math.max(t0, t1));
+                if (tmin > tmax) {
+                    continue;
+                }
+                minx = source.x + Math.min(tmin*dx, tmax*dx);
+                maxx = source.x + Math.max(tmin*dx, tmax*dx);
+            }
+            int x0 = cell((int) Math.floor(minx) - PATH_MARGIN);
+            int x1 = cell((int) Math.ceil(maxx) + PATH_MARGIN);
+            for (int cx = x0; cx <= x1; ++cx) {
+                keys.add(key(cx, cy));
+            }
+        }
+        long[] keyArray = new long[keys.size()];
+        for (int i = 0; i < keyArray.length; ++i) {
+            keyArray[i] = keys.get(i);
+        }
+        index(pair, keyArray, pairKeys, pairCells);
+    }
+
+    private static <E> void index(E item, long[] keys, Map<E, long[]> itemKeys, Map<Long, List<E>> cells) {
+        itemKeys.put(item, keys);
+        for (long key : keys) {
+            cells.computeIfAbsent(key, k -> new ArrayList<>(2)).add(item);
+        }
+    }
+
+    private static <E> void unindex(E item, Map<E, long[]> itemKeys, Map<Long, List<E>> cells) {
+        long[] keys = itemKeys.remove(item);
+        if (keys==null) {
+            return;
+        }
+        for (long key : keys) {
+            List<E> items = cells.get(key);
+            if (items!=null) {
+                removeIdentical(items, item);
+                if (items.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private void unlink(Module module, ModulePair pair) {
+        List<ModulePair> pairs = linkedPairs.get(module);
+        if (pairs!=null) {
+            removeIdentical(pairs, pair);
+        }
+    }
+
+    /** Removes the given object from the list, comparing by identity. */
+    private static <E> void removeIdentical(List<E> list, E item) {
+        for (int i = list.size() - 1; i >= 0; --i) {
+            if (list.get(i)==item) {
+                list.remove(i);
+                return;
+            }
+        }
+    }
+
+    private static int cell(int v) {
+        return Math.floorDiv(v, CELL_SIZE);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -4,6 +4,7 @@ import uk.ac.sanger.aker.catalogue.model.Module;
 import uk.ac.sanger.aker.catalogue.model.ModulePair;
 
 import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
@@ -18,6 +19,7 @@ import java.awt.event.MouseEvent;
  *     <li>Releasing right button to set the path endpoint</li>
  * </ul>
  * Ctrl-LMB is treated as an alternative to RMB.
+ * Only the parts of the panel changed by each action are {@link ProcessModulePanel#repaintChange repainted}.
  * @author dr6
  */
 public class ModuleMouseControl extends MouseAdapter {
@@ -60,6 +62,7 @@ public class ModuleMouseControl extends MouseAdapter {
         heldButton = button;
         lastX = e.getX() - x0;
         lastY = e.getY() - y0;
+        Rectangle before = graph.activeBounds();
         Module module = graph.moduleAt(lastX, lastY);
         graph.select(module);
         if (module==null) {
@@ -67,9 +70,11 @@ public class ModuleMouseControl extends MouseAdapter {
             graph.selectPair(pair);
             if (pair != null && e.isShiftDown()) {
                 pair.setDefaultPath(!pair.isDefaultPath());
+                graph.invalidate();
+                panel.graphChanged();
             }
         }
-        panel.repaint();
+        panel.repaintChange(before, true);
     }
 
     @Override
@@ -82,6 +87,8 @@ public class ModuleMouseControl extends MouseAdapter {
             Module moduleToAdd = panel.getModuleToAdd();
             if (moduleToAdd!=null && graph.addModule(moduleToAdd, lastX, lastY)) {
                 panel.clearModuleToAdd();
+                panel.layoutEdited();
+                panel.graphChanged();
                 panel.repaint();
             }
         }
@@ -98,14 +105,16 @@ public class ModuleMouseControl extends MouseAdapter {
         }
         int x = e.getX() - x0;
         int y = e.getY() - y0;
+        Rectangle before = graph.activeBounds();
         if (heldButton==Button.LEFT) {
             graph.moveSelected(x - lastX, y - lastY);
+            panel.layoutEdited();
         } else if (heldButton==Button.RIGHT) {
             graph.projectPath(x, y);
         }
         lastX = x;
         lastY = y;
-        panel.repaint();
+        panel.repaintChange(before, false);
     }
 
     @Override
@@ -113,8 +122,10 @@ public class ModuleMouseControl extends MouseAdapter {
         if (heldButton==Button.RIGHT) {
             ModuleGraph graph = getGraph();
             if (graph.hasProjectedPath()) {
+                Rectangle before = graph.activeBounds();
                 graph.releaseProjectedPath(e.isShiftDown());
-                panel.repaint();
+                panel.graphChanged();
+                panel.repaintChange(before, true);
             }
         }
         heldButton = null;
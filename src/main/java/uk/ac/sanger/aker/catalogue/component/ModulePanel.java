@@ -87,6 +87,7 @@ public class ModulePanel extends EditPanel {
         module.setMinValue(minField.getValue());
         module.setMaxValue(maxField.getValue());
         headlineLabel.setText("Module: "+module.getName());
+        app.itemChanged(module);
         app.modulesUpdated();
     }
 
@@ -1,6 +1,8 @@
 package uk.ac.sanger.aker.catalogue.component;
 
 import uk.ac.sanger.aker.catalogue.CatalogueApp;
+import uk.ac.sanger.aker.catalogue.graph.DefaultRoute;
+import uk.ac.sanger.aker.catalogue.graph.LayeredLayout;
 import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
 import uk.ac.sanger.aker.catalogue.graph.ModuleLayoutUtil;
 import uk.ac.sanger.aker.catalogue.model.AkerProcess;
@@ -16,7 +18,10 @@ import java.util.*;
 /**
  * A panel showing the modules in a process.
  * This panel shows a graph drawn by {@link ModuleGraph}.
- * It also shows some control hints based on what is happening in the graph.
+ * It also shows some control hints based on what is happening in the graph,
+ * and what is wrong with the process's {@link DefaultRoute default route}, if anything.
+ * <p>Where a change only affects part of the graph, such as moving a module or dragging a new route,
+ * only the changed area is repainted: see {@link #repaintChange}.
  * @author dr6
  */
 public class ProcessModulePanel extends JPanel {
@@ -49,6 +54,8 @@ public class ProcessModulePanel extends JPanel {
     private ModuleGraph graph;
     private ModuleMouseControl mouseControl;
     private Rectangle graphBounds;
+    private Point graphOrigin;
+    private int hintsHeight;
 
     public ProcessModulePanel(CatalogueApp app, AkerProcess process, ProcessPanel processPanel) {
         this.app = app;
@@ -64,42 +71,68 @@ public class ProcessModulePanel extends JPanel {
         addFocusListener(new FocusAdapter() {
             @Override
             public void focusGained(FocusEvent e) {
-                repaint();
+                repaintHints();
             }
 
             @Override
             public void focusLost(FocusEvent e) {
-                repaint();
+                repaintHints();
             }
         });
         setBorder(BorderFactory.createLineBorder(Color.lightGray));
     }
 
     private ModuleLayout getModuleLayout() {
-        Map<AkerProcess, ModuleLayout> layoutCache = app.getLayoutCache();
-        ModuleLayout layout = layoutCache.get(process);
-        if (layout==null) {
-            layout = ModuleLayoutUtil.layOut(process.getModulePairs());
-            layoutCache.put(process, layout);
-        }
-        return layout;
+        return app.getModuleLayout(process);
     }
 
     public void autoLayout() {
-        ModuleLayout layout = ModuleLayoutUtil.layOut(process.getModulePairs());
+        applyLayout(ModuleLayoutUtil.layOut(process.getModulePairs()));
+    }
+
+    /**
+     * Lays out the graph using {@link LayeredLayout}, which reduces the number of crossing paths.
+     */
+    public void layeredLayout() {
+        applyLayout(LayeredLayout.layOut(process.getModulePairs()));
+    }
+
+    private void applyLayout(ModuleLayout layout) {
+        layout.setEdited(true);
         app.getLayoutCache().put(process, layout);
         graph.setLayout(layout);
         updateBounds();
+        graphChanged();
+    }
+
+    /**
+     * Called when modules or paths have been added to or removed from the graph, or paths have been changed,
+     * so that the change to the process is reported to the app.
+     * Moving a module does not change the process.
+     */
+    public void graphChanged() {
+        app.itemChanged(process);
+    }
+
+    /**
+     * Called when the layout may have been edited, to make sure the edited layout is in the layout cache.
+     * The cache may have evicted the layout while it was unedited, but it keeps edited layouts until they are saved.
+     */
+    public void layoutEdited() {
+        ModuleLayout layout = graph.getLayout();
+        if (layout.isEdited()) {
+            app.getLayoutCache().put(process, layout);
+        }
     }
 
     public void updateBounds() {
-        ModuleLayout layout = getModuleLayout();
+        ModuleLayout layout = graph.getLayout();
         Point start = layout.get(Module.START);
         int minx = start.x;
         int miny = start.y;
         int maxx = start.x;
         int maxy = start.y;
-        for (Map.Entry<Module, Point> entry : getModuleLayout().entries()) {
+        for (Map.Entry<Module, Point> entry : layout.entries()) {
             Point pos = entry.getValue();
             minx = Math.min(pos.x, minx);
             maxx = Math.max(pos.x, maxx);
@@ -130,6 +163,7 @@ public class ProcessModulePanel extends JPanel {
             int x0 = (getWidth() - graphBounds.width)/2 - graphBounds.x;
             int y0 = (getHeight() - graphBounds.height)/2 - graphBounds.y + 8;
             mouseControl.setOrigin(x0, y0);
+            graphOrigin = new Point(x0, y0);
             g2.translate(x0, y0);
             graph.draw((Graphics2D) g2);
         } finally {
@@ -147,6 +181,56 @@ public class ProcessModulePanel extends JPanel {
             g.drawString(hint.toString(), 10, y);
             y += h;
         }
+        // The result is cached until the process's paths change, so this is cheap to check on every paint
+        DefaultRoute route = app.getDefaultRoute(process);
+        if (!route.isValid()) {
+            g.setColor(Color.red);
+            g.drawString(route.describe(), 10, y);
+            y += h;
+        }
+        hintsHeight = Math.max(hintsHeight, y - h + fm.getMaxDescent() + 1);
+    }
+
+    /**
+     * Repaints the area of the panel showing the control hints.
+     */
+    public void repaintHints() {
+        if (hintsHeight > 0) {
+            repaint(0, 0, getWidth(), hintsHeight);
+        } else {
+            repaint();
+        }
+    }
+
+    /**
+     * Repaints the given area of the graph.
+     * @param region the area to repaint, in graph coordinates; null for nothing
+     */
+    public void repaintGraph(Rectangle region) {
+        if (region==null) {
+            return;
+        }
+        if (graphOrigin==null) {
+            repaint();
+        } else {
+            repaint(region.x + graphOrigin.x, region.y + graphOrigin.y, region.width, region.height);
+        }
+    }
+
+    /**
+     * Repaints the part of the panel changed by an edit to the graph:
+     * the {@link ModuleGraph#activeBounds active bounds} of the graph before and after the change.
+     * Swing merges the areas to repaint into their bounding box, so the hints (at the top of the panel)
+     * are only repainted if they may have changed.
+     * @param before the active bounds of the graph before the change
+     * @param hintsChanged whether the change may have changed the hints shown
+     */
+    public void repaintChange(Rectangle before, boolean hintsChanged) {
+        repaintGraph(before);
+        repaintGraph(graph.activeBounds());
+        if (hintsChanged) {
+            repaintHints();
+        }
     }
 
     private Set<Hint> getHints() {
@@ -178,12 +262,16 @@ public class ProcessModulePanel extends JPanel {
 
     private void fireDelete() {
         ModuleGraph graph = getGraph();
+        Rectangle before = graph.activeBounds();
         if (graph.anySelected()) {
             graph.deleteSelected();
-            repaint();
+            layoutEdited();
+            graphChanged();
+            repaintChange(before, true);
         } else if (graph.anyPairSelected()) {
             graph.deleteSelectedPair();
-            repaint();
+            graphChanged();
+            repaintChange(before, true);
         }
     }
 }
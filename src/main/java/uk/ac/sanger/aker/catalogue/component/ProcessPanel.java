@@ -28,6 +28,7 @@ public class ProcessPanel extends EditPanel {
     private ProcessModulePanel graphPanel;
     private JButton resizeButton;
     private JButton layoutButton;
+    private JButton layeredLayoutButton;
     private JButton helpButton;
 
     private boolean loading;
@@ -48,6 +49,7 @@ public class ProcessPanel extends EditPanel {
         headlineLabel = makeHeadline("Process");
         nameField = makeTextField();
         uuidField = new UuidField(process);
+        uuidField.setChangeListener(() -> app.itemChanged(process));
         tatField = makeSpinner(0, 0);
         classField = makeTextField();
         graphPanel = new ProcessModulePanel(app, process, this);
@@ -55,6 +57,7 @@ public class ProcessPanel extends EditPanel {
         helpButton.setEnabled(!Help.MODULE_GRAPH_HELP.equals(Help.MISSING_TEXT));
         resizeButton = makeButton("Resize graph window", e -> resizeGraphWindow());
         layoutButton = makeButton("Auto layout", e -> autoLayoutGraph());
+        layeredLayoutButton = makeButton("Layered layout", e -> layeredLayoutGraph());
         load();
         nameField.getDocument().addDocumentListener(getDocumentListener());
         tatField.addChangeListener(getChangeListener());
@@ -87,6 +90,7 @@ public class ProcessPanel extends EditPanel {
         headlineLabel.setText("Process: "+process.getName());
         process.setTat((int) tatField.getValue());
         process.setProcessClass(classField.getText());
+        app.itemChanged(process);
         app.processesUpdated();
     }
 
@@ -123,6 +127,8 @@ public class ProcessPanel extends EditPanel {
         box = Box.createHorizontalBox();
         box.add(layoutButton);
         box.add(Box.createHorizontalStrut(10));
+        box.add(layeredLayoutButton);
+        box.add(Box.createHorizontalStrut(10));
         box.add(resizeButton);
         add(box, constraints.incy().right());
 
@@ -161,4 +167,10 @@ public class ProcessPanel extends EditPanel {
         graphPanel.repaint();
     }
 
+    private void layeredLayoutGraph() {
+        graphPanel.layeredLayout();
+        revalidate();
+        graphPanel.repaint();
+    }
+
 }
@@ -42,6 +42,7 @@ public class ProductPanel extends EditPanel {
         headlineLabel = makeHeadline("Product");
         nameField = makeTextField();
         uuidField = new UuidField(product);
+        uuidField.setChangeListener(() -> app.itemChanged(product));
         descField = makeTextField();
         bioTypeField = makeTextField();
         versionField = makeSpinner(0, 0);
@@ -105,6 +106,7 @@ public class ProductPanel extends EditPanel {
         product.setProductVersion((int) versionField.getValue());
         product.setAvailability(availableCheckbox.isSelected() ? 1 : 0);
         product.setBioType(bioTypeField.getText());
+        app.itemChanged(product);
         app.productsUpdated();
     }
 
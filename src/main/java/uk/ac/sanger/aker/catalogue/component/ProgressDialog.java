@@ -0,0 +1,79 @@
+package uk.ac.sanger.aker.catalogue.component;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * A modal dialog showing the progress of a {@link ProgressWorker}, with a button to cancel it
+ * if the worker can be cancelled.
+ * While the dialog is showing, the user cannot interact with the main frame,
+ * so the worker can safely read the model in the background.
+ * @author dr6
+ */
+public class ProgressDialog extends JDialog {
+    private final JLabel messageLabel;
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+
+    /**
+     * Creates a progress dialog.
+     * @param owner the frame that the dialog blocks
+     * @param title the title of the dialog
+     * @param cancelAction the function to call when the user asks to cancel,
+     *                     or null if the worker cannot be cancelled
+     */
+    public ProgressDialog(Frame owner, String title, Runnable cancelAction) {
+        super(owner, title, true);
+        messageLabel = new JLabel(title);
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setIndeterminate(true);
+        if (cancelAction==null) {
+            cancelButton = null;
+        } else {
+            cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> {
+                cancelButton.setEnabled(false);
+                setMessage("Cancelling...");
+                cancelAction.run();
+            });
+        }
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+        layOut();
+    }
+
+    private void layOut() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(messageLabel, BorderLayout.NORTH);
+        panel.add(progressBar, BorderLayout.CENTER);
+        if (cancelButton!=null) {
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.TRAILING, 0, 0));
+            buttonPanel.add(cancelButton);
+            panel.add(buttonPanel, BorderLayout.SOUTH);
+        }
+        setContentPane(panel);
+        setResizable(false);
+        pack();
+        setSize(Math.max(getWidth(), 360), getHeight());
+        setLocationRelativeTo(getOwner());
+    }
+
+    /**
+     * Sets the message describing what is going on.
+     * @param message the message to show
+     */
+    public void setMessage(String message) {
+        messageLabel.setText(message);
+    }
+
+    /**
+     * Sets the progress shown in the bar.
+     * @param percent the progress as a percentage, or a negative number if the progress is unknown
+     */
+    public void setProgress(int percent) {
+        progressBar.setIndeterminate(percent < 0);
+        if (percent >= 0) {
+            progressBar.setValue(percent);
+        }
+    }
+}
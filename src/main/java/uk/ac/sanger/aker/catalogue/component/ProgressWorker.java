@@ -0,0 +1,145 @@
+package uk.ac.sanger.aker.catalogue.component;
+
+import javax.swing.*;
+import java.awt.Frame;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A task that runs in the background while a modal {@link ProgressDialog} is shown.
+ * The {@link #work} method is called on a background thread. It should not change any state
+ * that the event dispatch thread can see; instead it returns a result, which is passed to
+ * {@link #succeeded} on the event dispatch thread, where it can be published all at once.
+ * <p>If the user cancels the task, the background thread is interrupted, and the dialog stays
+ * open until the background thread has stopped. Neither {@code succeeded} nor {@link #failed}
+ * is called for a cancelled task. A task whose results must be published once it has changed
+ * something outside the application (such as a file) should be created as not cancellable.
+ * @param <T> the type of result produced by the task
+ * @author dr6
+ */
+public abstract class ProgressWorker<T> extends SwingWorker<T, String> {
+    private final ProgressDialog dialog;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * Creates a cancellable worker whose progress will be shown in a dialog.
+     * @param owner the frame that the dialog blocks
+     * @param title the title of the dialog
+     */
+    protected ProgressWorker(Frame owner, String title) {
+        this(owner, title, true);
+    }
+
+    /**
+     * Creates a worker whose progress will be shown in a dialog.
+     * @param owner the frame that the dialog blocks
+     * @param title the title of the dialog
+     * @param cancellable whether the dialog lets the user cancel the task
+     */
+    protected ProgressWorker(Frame owner, String title, boolean cancellable) {
+        dialog = new ProgressDialog(owner, title, cancellable ? this::cancelTask : null);
+        addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                dialog.setProgress((Integer) e.getNewValue());
+            }
+        });
+    }
+
+    /**
+     * Runs the task in the background, showing the progress dialog until the background thread has finished.
+     * This must be called on the event dispatch thread.
+     */
+    public void start() {
+        execute();
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Performs the task. This is called on a background thread.
+     * Long tasks should regularly check whether the thread has been interrupted.
+     * @return the result of the task
+     * @exception Exception the task failed
+     */
+    protected abstract T work() throws Exception;
+
+    /**
+     * Called on the event dispatch thread with the result of the task, if it completed successfully.
+     * @param result the result of the task
+     */
+    protected void succeeded(T result) {}
+
+    /**
+     * Called on the event dispatch thread if the task failed with an exception.
+     * @param exception the exception thrown by the task
+     */
+    protected void failed(Exception exception) {}
+
+    /**
+     * Updates the message in the progress dialog. This may be called from the background thread.
+     * @param message the message describing what the task is doing
+     */
+    public void showMessage(String message) {
+        publish(message);
+    }
+
+    /**
+     * Updates the progress in the progress dialog. This may be called from the background thread.
+     * @param done the amount of work done
+     * @param total the total amount of work to do
+     */
+    public void showProgress(long done, long total) {
+        if (total > 0) {
+            setProgress((int) Math.max(0, Math.min(100, (100 * done) / total)));
+        }
+    }
+
+    /**
+     * Cancels the task. If the background thread never started, the dialog is closed at once;
+     * otherwise it is closed when the background thread stops.
+     */
+    private void cancelTask() {
+        if (cancel(true) && !started.get()) {
+            dialog.dispose();
+        }
+    }
+
+    @Override
+    protected final T doInBackground() throws Exception {
+        started.set(true);
+        try {
+            return work();
+        } finally {
+            SwingUtilities.invokeLater(dialog::dispose);
+        }
+    }
+
+    @Override
+    protected void process(List<String> messages) {
+        if (!messages.isEmpty()) {
+            dialog.setMessage(messages.get(messages.size()-1));
+        }
+    }
+
+    @Override
+    protected final void done() {
+        if (isCancelled()) {
+            return;
+        }
+        T result;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            failed(cause instanceof Exception ? (Exception) cause : e);
+            return;
+        } catch (InterruptedException | CancellationException e) {
+            return;
+        }
+        succeeded(result);
+    }
+}
@@ -27,6 +27,7 @@ public class UuidField extends JPanel {
 
     private JTextField textField;
     private HasUuid model;
+    private Runnable changeListener;
 
     public UuidField(HasUuid model) {
         this.model = model;
@@ -52,6 +53,14 @@ public class UuidField extends JPanel {
         });
     }
 
+    /**
+     * Sets a listener to be run whenever a valid UUID from this field is saved in the model.
+     * @param changeListener the listener, or null for none
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
     private void reloadUuid() {
         setText(model.getUuid());
     }
@@ -91,6 +100,9 @@ public class UuidField extends JPanel {
         textField.setBackground(bg);
         if (uuid!=null) {
             model.setUuid(uuid.toString());
+            if (changeListener!=null) {
+                changeListener.run();
+            }
         }
     }
 }
@@ -25,6 +25,7 @@ public class ModuleListActor implements ListActor<Module> {
     public Module getNew() {
         Module mod = new Module("New module");
         app.getCatalogue().getModules().add(mod);
+        app.itemsAdded(Collections.singletonList(mod));
         return mod;
     }
 
@@ -34,16 +35,26 @@ public class ModuleListActor implements ListActor<Module> {
             items = new HashSet<>(items);
         }
         Catalogue catalogue = app.getCatalogue();
+        List<AkerProcess> changedProcesses = new ArrayList<>();
         for (AkerProcess process : catalogue.getProcesses()) {
             Iterator<ModulePair> pairIter = process.getModulePairs().iterator();
+            boolean changed = false;
             while (pairIter.hasNext()) {
                 ModulePair pair = pairIter.next();
                 if (items.contains(pair.getFrom()) || items.contains(pair.getTo())) {
                     pairIter.remove();
+                    changed = true;
                 }
             }
+            if (changed) {
+                changedProcesses.add(process);
+            }
         }
         catalogue.getModules().removeAll(items);
+        app.itemsRemoved(items);
+        for (AkerProcess process : changedProcesses) {
+            app.itemChanged(process);
+        }
         app.clearEditPanel();
         return catalogue.getModules();
     }
@@ -26,6 +26,7 @@ public class ProcessListActor implements ListActor<AkerProcess> {
         AkerProcess pro = new AkerProcess("New process");
         pro.setModulePairs(new ArrayList<>());
         app.getCatalogue().getProcesses().add(pro);
+        app.itemsAdded(Collections.singletonList(pro));
         return pro;
     }
 
@@ -40,6 +41,8 @@ public class ProcessListActor implements ListActor<AkerProcess> {
             product.getProcesses().removeAll(items);
         }
         processes.removeAll(items);
+        app.getLayoutCache().removeAll(items);
+        app.itemsRemoved(items);
         app.clearEditPanel();
         return processes;
     }
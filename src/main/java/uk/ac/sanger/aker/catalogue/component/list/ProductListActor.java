@@ -26,6 +26,7 @@ public class ProductListActor implements ListActor<Product> {
         Product prod = new Product("New product");
         prod.setProcesses(new ArrayList<>());
         app.getCatalogue().getProducts().add(prod);
+        app.itemsAdded(Collections.singletonList(prod));
         return prod;
     }
 
@@ -33,6 +34,7 @@ public class ProductListActor implements ListActor<Product> {
     public List<Product> delete(Collection<? extends Product> items) {
         List<Product> products = app.getCatalogue().getProducts();
         products.removeAll(items);
+        app.itemsRemoved(items);
         app.clearEditPanel();
         return products;
     }
@@ -0,0 +1,412 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary snapshot of a catalogue, which can be reloaded much faster than JSON.
+ * <p>The snapshot holds a table of all the strings in the catalogue (names, UUIDs, etc.),
+ * followed by the modules, processes and products. Everything else refers to strings by their
+ * index in the table; module pairs refer to modules by their index in the catalogue's module list,
+ * and products refer to processes by their index in its process list.
+ * <p>A snapshot holds what the JSON written by {@link JsonExporter} holds, so reading a snapshot gives
+ * the same catalogue as importing the JSON file it was written alongside. In particular, only the modules
+ * used in module pairs are kept, in the order an import would first see them, and modules with the same
+ * name are merged.
+ * <p>A snapshot written for a catalogue file records the size and modification time of that file
+ * in its header, so it can tell whether the file has since been replaced.
+ * @author dr6
+ */
+public class CatalogueSnapshot {
+    /** The extension added to the catalogue file name to give the name of its snapshot. */
+    public static final String EXTENSION = ".snapshot";
+
+    private static final int MAGIC = 0x414b4353; // "AKCS"
+    private static final int VERSION = 3;
+    private static final int NONE = -1;
+    /** The length of the header: magic, version, source size and source modification time */
+    private static final int HEADER_SIZE = 24;
+    private static final int BUFFER_SIZE = 1<<16;
+
+    /**
+     * Gets the path of the snapshot for the catalogue file at the given path.
+     * @param path the path of a catalogue file
+     * @return the path for its snapshot
+     */
+    public static Path snapshotPath(Path path) {
+        return path.resolveSibling(path.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Is there a snapshot for the given catalogue file, that was written for the file as it is now?
+     * The snapshot must record the same size and modification time as the file has.
+     * @param path the path of a catalogue file
+     * @return true if there is an up-to-date snapshot for the file; false if either file is missing
+     * @exception IOException the snapshot header or the attributes of the file could not be read
+     */
+    public static boolean hasCurrentSnapshot(Path path) throws IOException {
+        Path snapshotPath = snapshotPath(path);
+        if (!Files.isRegularFile(path) || !Files.isRegularFile(snapshotPath)) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt()!=MAGIC || header.getInt()!=VERSION) {
+            return false;
+        }
+        long sourceSize = header.getLong();
+        long sourceModified = header.getLong();
+        return (sourceSize==Files.size(path) && sourceModified==Files.getLastModifiedTime(path).toMillis());
+    }
+
+    /**
+     * Writes a snapshot of the given catalogue to the given path, not associated with any catalogue file.
+     * @param catalogue the catalogue to write
+     * @param path the path to write to
+     * @exception IOException the file could not be written, or a product refers to processes
+     *            that are not listed in the catalogue
+     */
+    public void write(Catalogue catalogue, Path path) throws IOException {
+        write(catalogue, path, NONE, NONE);
+    }
+
+    /**
+     * Writes a snapshot of the given catalogue, recording the size and modification time of the
+     * catalogue file it was saved to, so that {@link #hasCurrentSnapshot hasCurrentSnapshot} can
+     * tell whether that file has changed since.
+     * @param catalogue the catalogue to write
+     * @param path the path to write to
+     * @param source the catalogue file that the catalogue has been saved to
+     * @exception IOException the file could not be written, the attributes of the source could not be read,
+     *            or a product refers to processes that are not listed in the catalogue
+     */
+    public void write(Catalogue catalogue, Path path, Path source) throws IOException {
+        write(catalogue, path, Files.size(source), Files.getLastModifiedTime(source).toMillis());
+    }
+
+    private void write(Catalogue catalogue, Path path, long sourceSize, long sourceModified) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        List<Module> modules = exportedModules(catalogue);
+        Map<String, Integer> moduleIndex = new HashMap<>(modules.size());
+        for (Module module : modules) {
+            moduleIndex.put(module.getName(), moduleIndex.size());
+        }
+        Map<AkerProcess, Integer> processIndex = indexMap(catalogue.getProcesses());
+        collectStrings(catalogue, modules, strings);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(sourceSize);
+            out.putLong(sourceModified);
+            out.putInt(strings.size());
+            for (String string : strings.keySet()) {
+                out.putBytes(string.getBytes(StandardCharsets.UTF_8));
+            }
+            out.putInt(index(strings, catalogue.getPipeline()));
+            out.putInt(index(strings, catalogue.getUrl()));
+            out.putInt(index(strings, catalogue.getLimsId()));
+
+            out.putInt(modules.size());
+            for (Module module : modules) {
+                out.putInt(index(strings, module.getName()));
+                out.putInteger(module.getMinValue());
+                out.putInteger(module.getMaxValue());
+            }
+
+            out.putInt(catalogue.getProcesses().size());
+            for (AkerProcess pro : catalogue.getProcesses()) {
+                out.putInt(index(strings, pro.getName()));
+                out.putInt(index(strings, pro.getUuid()));
+                out.putInt(pro.getTat());
+                out.putInt(index(strings, pro.getProcessClass()));
+                out.putInt(pro.getModulePairs().size());
+                for (ModulePair pair : pro.getModulePairs()) {
+                    out.putInt(moduleIndex(moduleIndex, pair.getFrom()));
+                    out.putInt(moduleIndex(moduleIndex, pair.getTo()));
+                    out.putByte(pair.isDefaultPath() ? 1 : 0);
+                }
+            }
+
+            out.putInt(catalogue.getProducts().size());
+            for (Product prod : catalogue.getProducts()) {
+                out.putInt(index(strings, prod.getName()));
+                out.putInt(index(strings, prod.getDescription()));
+                out.putInt(index(strings, prod.getUuid()));
+                out.putInt(prod.getProductVersion());
+                out.putInt(prod.getAvailability());
+                out.putInt(index(strings, prod.getBioType()));
+                out.putInt(prod.getProcesses().size());
+                for (AkerProcess pro : prod.getProcesses()) {
+                    Integer index = processIndex.get(pro);
+                    if (index==null) {
+                        throw new IOException("Process not listed in catalogue: "+pro.getName());
+                    }
+                    out.putInt(index);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads a catalogue from the snapshot at the given path.
+     * @param path the path of the snapshot
+     * @return the catalogue read from the snapshot
+     * @exception IOException the file could not be read, or is not a valid snapshot
+     */
+    public Catalogue read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large: "+path);
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+        }
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException | NullPointerException e) {
+            throw new IOException("Invalid snapshot: "+path, e);
+        }
+    }
+
+    private Catalogue read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt()!=MAGIC) {
+            throw new IOException("Not a catalogue snapshot");
+        }
+        int version = buffer.getInt();
+        if (version!=VERSION) {
+            throw new IOException("Unsupported snapshot version: "+version);
+        }
+        buffer.getLong(); // source size
+        buffer.getLong(); // source modification time
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; ++i) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        Catalogue catalogue = new Catalogue();
+        catalogue.setPipeline(string(strings, buffer));
+        catalogue.setUrl(string(strings, buffer));
+        catalogue.setLimsId(string(strings, buffer));
+
+        int numModules = buffer.getInt();
+        List<Module> modules = new ArrayList<>(numModules);
+        for (int i = 0; i < numModules; ++i) {
+            Module module = new Module(string(strings, buffer));
+            module.setMinValue(integer(buffer));
+            module.setMaxValue(integer(buffer));
+            modules.add(module);
+        }
+
+        int numProcesses = buffer.getInt();
+        List<AkerProcess> processes = new ArrayList<>(numProcesses);
+        for (int i = 0; i < numProcesses; ++i) {
+            AkerProcess pro = new AkerProcess(string(strings, buffer));
+            pro.setUuid(string(strings, buffer));
+            pro.setTat(buffer.getInt());
+            pro.setProcessClass(string(strings, buffer));
+            int numPairs = buffer.getInt();
+            List<ModulePair> pairs = new ArrayList<>(numPairs);
+            for (int j = 0; j < numPairs; ++j) {
+                int from = buffer.getInt();
+                int to = buffer.getInt();
+                boolean defaultPath = (buffer.get()!=0);
+                pairs.add(new ModulePair(from==NONE ? Module.START : modules.get(from),
+                        to==NONE ? Module.END : modules.get(to), defaultPath));
+            }
+            pro.setModulePairs(pairs);
+            processes.add(pro);
+        }
+
+        int numProducts = buffer.getInt();
+        List<Product> products = new ArrayList<>(numProducts);
+        for (int i = 0; i < numProducts; ++i) {
+            Product prod = new Product(string(strings, buffer));
+            prod.setDescription(string(strings, buffer));
+            prod.setUuid(string(strings, buffer));
+            prod.setProductVersion(buffer.getInt());
+            prod.setAvailability(buffer.getInt());
+            prod.setBioType(string(strings, buffer));
+            int numProductProcesses = buffer.getInt();
+            List<AkerProcess> productProcesses = new ArrayList<>(numProductProcesses);
+            for (int j = 0; j < numProductProcesses; ++j) {
+                productProcesses.add(processes.get(buffer.getInt()));
+            }
+            prod.setProcesses(productProcesses);
+            products.add(prod);
+        }
+
+        catalogue.setModules(modules);
+        catalogue.setProcesses(processes);
+        catalogue.setProducts(products);
+        return catalogue;
+    }
+
+    /**
+     * Lists the modules that importing the catalogue's exported JSON would give.
+     * The modules are those named in module pairs, in the order they are first seen with the
+     * {@code to} module of each pair before its {@code from} module. Each has the parameters last
+     * exported for its name, since the export only writes the parameters of modules that are the
+     * {@code to} end of a pair, and only for the first such module of each name in each process.
+     * @param catalogue the catalogue being written
+     * @return new modules standing for the modules in the exported JSON
+     */
+    private static List<Module> exportedModules(Catalogue catalogue) {
+        Map<String, Module> modules = new LinkedHashMap<>();
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            Set<String> parameterNames = new HashSet<>();
+            for (ModulePair pair : pro.getModulePairs()) {
+                Module toMod = pair.getTo();
+                if (!toMod.isEndpoint()) {
+                    Module module = modules.computeIfAbsent(toMod.getName(), Module::new);
+                    if (parameterNames.add(toMod.getName()) && toMod.hasParameter()) {
+                        module.setMinValue(toMod.getMinValue());
+                        module.setMaxValue(toMod.getMaxValue());
+                    }
+                }
+                Module fromMod = pair.getFrom();
+                if (!fromMod.isEndpoint()) {
+                    modules.computeIfAbsent(fromMod.getName(), Module::new);
+                }
+            }
+        }
+        return new ArrayList<>(modules.values());
+    }
+
+    private static void collectStrings(Catalogue catalogue, List<Module> modules, Map<String, Integer> strings) {
+        addString(strings, catalogue.getPipeline());
+        addString(strings, catalogue.getUrl());
+        addString(strings, catalogue.getLimsId());
+        for (Module module : modules) {
+            addString(strings, module.getName());
+        }
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            addString(strings, pro.getName());
+            addString(strings, pro.getUuid());
+            addString(strings, pro.getProcessClass());
+        }
+        for (Product prod : catalogue.getProducts()) {
+            addString(strings, prod.getName());
+            addString(strings, prod.getDescription());
+            addString(strings, prod.getUuid());
+            addString(strings, prod.getBioType());
+        }
+    }
+
+    private static void addString(Map<String, Integer> strings, String string) {
+        if (string!=null) {
+            strings.putIfAbsent(string, strings.size());
+        }
+    }
+
+    private static int index(Map<String, Integer> strings, String string) {
+        return (string==null ? NONE : strings.get(string));
+    }
+
+    private static <E> Map<E, Integer> indexMap(List<? extends E> items) {
+        Map<E, Integer> map = new IdentityHashMap<>(items.size());
+        for (int i = 0; i < items.size(); ++i) {
+            map.putIfAbsent(items.get(i), i);
+        }
+        return map;
+    }
+
+    private static int moduleIndex(Map<String, Integer> moduleIndex, Module module) {
+        return (module.isEndpoint() ? NONE : moduleIndex.get(module.getName()));
+    }
+
+    private static String string(String[] strings, ByteBuffer buffer) {
+        int index = buffer.getInt();
+        return (index==NONE ? null : strings[index]);
+    }
+
+    private static Integer integer(ByteBuffer buffer) {
+        return (buffer.get()==0 ? null : buffer.getInt());
+    }
+
+    /** Buffers output and writes it to a channel whenever the buffer fills. */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putInteger(Integer value) throws IOException {
+            if (value==null) {
+                putByte(0);
+            } else {
+                putByte(1);
+                putInt(value);
+            }
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+                return;
+            }
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
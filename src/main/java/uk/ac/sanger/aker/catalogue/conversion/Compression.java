@@ -0,0 +1,175 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression formats supported for catalogue files.
+ * Files being read are recognised by their leading magic bytes, so a compressed file is read correctly
+ * whatever its name; files being written are compressed according to their extension. Data is compressed and decompressed incrementally as it is streamed.
+ * @author dr6
+ */
+public enum Compression {
+    /** Uncompressed data */
+    NONE(null, new byte[0]),
+    /** GZIP compressed data */
+    GZIP(".gz", new byte[] { (byte) 0x1f, (byte) 0x8b }),
+    ;
+
+    private static final int BUFFER_SIZE = 1<<16;
+    private static final int HEADER_SIZE = 2;
+
+    private final String extension;
+    private final byte[] magic;
+
+    Compression(String extension, byte[] magic) {
+        this.extension = extension;
+        this.magic = magic;
+    }
+
+    /** The file extension for this format (e.g. {@code ".gz"}), or null if it has none. */
+    public String getExtension() {
+        return this.extension;
+    }
+
+    /**
+     * Gets the compression format indicated by the extension of the given path.
+     * @param path the path of a file
+     * @return the format matching the extension of the file, or {@link #NONE} if none matches
+     */
+    public static Compression forPath(Path path) {
+        String filename = path.getFileName().toString().toLowerCase();
+        for (Compression compression : values()) {
+            if (compression.extension!=null && filename.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Gets the compression format of the data in the given file, by reading its first few bytes.
+     * @param path the path of a file
+     * @return the format of the file's data
+     * @exception IOException the file could not be read
+     */
+    public static Compression detect(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return detect(in);
+        }
+    }
+
+    /**
+     * Reads the header from the given stream and identifies the format it indicates.
+     */
+    private static Compression detect(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        int n;
+        while (length < header.length && (n = in.read(header, length, header.length-length)) > 0) {
+            length += n;
+        }
+        for (Compression compression : values()) {
+            if (compression.magic.length > 0 && compression.magic.length <= length && startsWith(header, compression.magic)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; ++i) {
+            if (data[i]!=prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens a stream reading the given file, decompressing it if its leading bytes show that it is compressed.
+     * @param path the path of the file
+     * @return a stream of the (decompressed) contents of the file
+     * @exception IOException the file could not be opened
+     */
+    public static InputStream openInput(Path path) throws IOException {
+        return openInput(path, null);
+    }
+
+    /**
+     * Opens a stream reading the given file, decompressing it if its leading bytes show that it is compressed.
+     * If a listener is given, it is told how many bytes of the file (before decompression) have been read,
+     * and reading stops with an {@link InterruptedIOException} if the reading thread is interrupted.
+     * @param path the path of the file
+     * @param progressListener the listener to receive progress, or null
+     * @return a stream of the (decompressed) contents of the file
+     * @exception IOException the file could not be opened
+     */
+    public static InputStream openInput(Path path, LongConsumer progressListener) throws IOException {
+        InputStream fileIn = Files.newInputStream(path);
+        if (progressListener!=null) {
+            fileIn = new ProgressInputStream(fileIn, progressListener);
+        }
+        BufferedInputStream in = new BufferedInputStream(fileIn, BUFFER_SIZE);
+        try {
+            in.mark(HEADER_SIZE);
+            Compression compression = detect(in);
+            in.reset();
+            return compression.wrap(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a writer for the given file, compressing the data if the file's extension calls for it.
+     * The file is created if it does not exist, and truncated if it does.
+     * @param path the path of the file
+     * @return a writer of UTF-8 text to the file
+     * @exception IOException the file could not be opened
+     */
+    public static Writer openWriter(Path path) throws IOException {
+        Compression compression = forPath(path);
+        if (compression==NONE) {
+            return Files.newBufferedWriter(path);
+        }
+        OutputStream out = Files.newOutputStream(path);
+        try {
+            return new BufferedWriter(new OutputStreamWriter(compression.wrap(out), StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a reader for the given file, decompressing it if necessary.
+     * @param path the path of the file
+     * @param progressListener the listener to receive progress (see {@link #openInput(Path, LongConsumer)}), or null
+     * @return a reader of the file's contents as UTF-8 text
+     * @exception IOException the file could not be opened
+     */
+    public static Reader openReader(Path path, LongConsumer progressListener) throws IOException {
+        return new BufferedReader(new InputStreamReader(openInput(path, progressListener), StandardCharsets.UTF_8));
+    }
+
+    private InputStream wrap(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP: return new GZIPInputStream(in, BUFFER_SIZE);
+            default: return in;
+        }
+    }
+
+    private OutputStream wrap(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP: return new GZIPOutputStream(out, BUFFER_SIZE);
+            default: return out;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * An exporter that remembers where it wrote each process and product in the last file it saved,
+ * so that saving the catalogue to the same file again only has to render the records that have changed.
+ * <p>After a save, the exporter keeps the byte range of each record in the file, along with the
+ * state of the object it was rendered from: the values of all the fields that appear in its JSON.
+ * On the next save to the same path, if the file has not been touched since, each record whose state
+ * is unchanged is copied straight from the old file, and only the others are rendered.
+ * Comparing states, rather than tracking calls to setters, means that edits made through a
+ * process's module pairs, or to a module shared by several processes, are never missed.
+ * <p>The new file is written alongside the old one and then moved over it.
+ * If the path is a symbolic link, the file it links to is the one replaced, and the new file is
+ * given the POSIX permissions, owner and group of the old one where the file system allows.
+ * Its contents are always the same as those written by {@link JsonStreamExporter}.
+ * Compressed files are always written in full.
+ * @author dr6
+ */
+public class IncrementalJsonExporter extends JsonStreamExporter {
+    private static final int BUFFER_SIZE = 1<<16;
+
+    /** Where a record was written in the last saved file, and the state it was rendered from. */
+    private static class Record {
+        private final Object state;
+        private final long start, end;
+        private final int index;
+
+        Record(Object state, long start, long end, int index) {
+            this.state = state;
+            this.start = start;
+            this.end = end;
+            this.index = index;
+        }
+    }
+
+    /**
+     * The parts of the JSON around the records.
+     * The document is the head, then the processes, then the middle, then the products, then the tail.
+     * Each record in an array is preceded by the element prefix, and a comma if it is not the first.
+     */
+    private static class Frame {
+        private final byte[] head, middle, tail, prefix, separator;
+
+        Frame(String head, String middle, String tail, String prefix) {
+            this.head = bytes(head);
+            this.middle = bytes(middle);
+            this.tail = bytes(tail);
+            this.prefix = bytes(prefix);
+            this.separator = bytes(","+prefix);
+        }
+    }
+
+    private Path savedPath;
+    private long savedSize;
+    private FileTime savedTime;
+    private Map<Object, Record> records = new IdentityHashMap<>();
+    private int recordsRendered;
+
+    /**
+     * Writes the catalogue as JSON to the file at the given path.
+     * If the catalogue was last saved to the same path by this exporter, and the file is unchanged since,
+     * only the processes and products that have changed are rendered; the rest are copied from the old file.
+     * @param catalogue the catalogue to export
+     * @param path the path to write to
+     * @exception IOException the file could not be written
+     * @exception javax.json.JsonException the JSON could not be serialised
+     */
+    @Override
+    public void write(Catalogue catalogue, Path path) throws IOException {
+        Map<Object, Record> oldRecords = (hasCurrentIndex(path) ? records : Collections.emptyMap());
+        reset();
+        if (Compression.forPath(path)!=Compression.NONE) {
+            super.write(catalogue, path);
+            recordsRendered = catalogue.getProcesses().size() + catalogue.getProducts().size();
+            return;
+        }
+        Path absPath = targetPath(path);
+        Path tempPath = absPath.resolveSibling("."+absPath.getFileName()+".tmp");
+        Map<Object, Record> newRecords = new IdentityHashMap<>();
+        int rendered;
+        try {
+            try (FileChannel in = (oldRecords.isEmpty() ? null : FileChannel.open(absPath, StandardOpenOption.READ));
+                 FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                Splice splice = new Splice(in, out, frame(catalogue), oldRecords, newRecords);
+                splice.write(splice.frame.head);
+                splice.writeRecords(catalogue.getProcesses(), "processes", this::writeProcess,
+                        IncrementalJsonExporter::processState);
+                splice.write(splice.frame.middle);
+                splice.writeRecords(catalogue.getProducts(), "products", this::writeProduct,
+                        IncrementalJsonExporter::productState);
+                splice.write(splice.frame.tail);
+                splice.finish();
+                rendered = splice.rendered;
+            }
+            copyAttributes(absPath, tempPath);
+            try {
+                Files.move(tempPath, absPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, absPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        this.records = newRecords;
+        this.recordsRendered = rendered;
+        this.savedPath = absPath;
+        this.savedSize = Files.size(absPath);
+        this.savedTime = Files.getLastModifiedTime(absPath);
+    }
+
+    /**
+     * Forgets the last saved file, so that the next save renders every record.
+     */
+    public void reset() {
+        savedPath = null;
+        savedSize = 0;
+        savedTime = null;
+        records = new IdentityHashMap<>();
+        recordsRendered = 0;
+    }
+
+    /**
+     * The number of processes and products rendered by the last save.
+     * The others were copied from the previously saved file.
+     */
+    public int getRecordsRendered() {
+        return this.recordsRendered;
+    }
+
+    /**
+     * Gets the file that writing to the given path will replace.
+     * If the path exists, symbolic links are resolved, so that a link is not replaced by a regular file.
+     */
+    private static Path targetPath(Path path) throws IOException {
+        Path absPath = path.toAbsolutePath().normalize();
+        return (Files.exists(absPath) ? absPath.toRealPath() : absPath);
+    }
+
+    /**
+     * Gives the new file the POSIX permissions of the file it will replace, along with its owner and group
+     * if the user is allowed to set them.
+     * Nothing is copied if the old file does not exist or the file system does not support POSIX attributes.
+     * @param oldPath the file to be replaced
+     * @param newPath the new file
+     * @exception IOException the permissions could not be copied
+     */
+    private static void copyAttributes(Path oldPath, Path newPath) throws IOException {
+        PosixFileAttributeView oldView = Files.getFileAttributeView(oldPath, PosixFileAttributeView.class);
+        PosixFileAttributeView newView = Files.getFileAttributeView(newPath, PosixFileAttributeView.class);
+        if (oldView==null || newView==null || !Files.exists(oldPath)) {
+            return;
+        }
+        PosixFileAttributes attributes = oldView.readAttributes();
+        newView.setPermissions(attributes.permissions());
+        try {
+            newView.setGroup(attributes.group());
+            newView.setOwner(attributes.owner());
+        } catch (IOException e) {
+            // Only a privileged user can give away a file; the new file stays owned by the user saving it
+        }
+    }
+
+    /**
+     * Is the index of records from the last save valid for writing to the given path?
+     * It is valid if it was saved to the same path, and the file has not been changed since.
+     */
+    private boolean hasCurrentIndex(Path path) {
+        try {
+            if (savedPath==null || !savedPath.equals(targetPath(path))) {
+                return false;
+            }
+            return (Files.size(savedPath)==savedSize && Files.getLastModifiedTime(savedPath).equals(savedTime));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Works out the parts of the JSON for the given catalogue that lie around the processes and products.
+     * This is done by exporting the catalogue's details with a single placeholder process and product,
+     * and finding where those records lie in the output.
+     */
+    private Frame frame(Catalogue catalogue) {
+        AkerProcess pro = new AkerProcess();
+        pro.setUuid("");
+        Product prod = new Product();
+        prod.setUuid("");
+        Catalogue skeleton = new Catalogue();
+        skeleton.setPipeline(catalogue.getPipeline());
+        skeleton.setUrl(catalogue.getUrl());
+        skeleton.setLimsId(catalogue.getLimsId());
+        skeleton.setProcesses(Collections.singletonList(pro));
+        skeleton.setProducts(Collections.singletonList(prod));
+        StringWriter sw = new StringWriter();
+        try (JsonGenerator gen = createGenerator(sw)) {
+            write(skeleton, gen);
+        }
+        String text = sw.toString();
+        String proText = renderText("processes", gen -> writeProcess(pro, gen));
+        String prodText = renderText("products", gen -> writeProduct(prod, gen));
+        int proStart = text.indexOf(proText);
+        int proEnd = proStart + proText.length();
+        int prodStart = text.indexOf(prodText, proEnd);
+        int prodEnd = prodStart + prodText.length();
+        int arrayStart = text.lastIndexOf('[', proStart) + 1;
+        String prefix = text.substring(arrayStart, proStart);
+        return new Frame(text.substring(0, arrayStart), text.substring(proEnd, prodStart - prefix.length()),
+                text.substring(prodEnd), prefix);
+    }
+
+    /**
+     * Renders a single record as it would appear as an element of the given array in the catalogue.
+     * The record is written inside the same enclosing objects and array as in a full export,
+     * so that it is indented identically, and then cut out of the result.
+     * @param arrayKey the key of the array containing the record
+     * @param recordWriter a function to write the record to a generator
+     * @return the text of the record
+     */
+    private String renderText(String arrayKey, Consumer<JsonGenerator> recordWriter) {
+        StringWriter sw = new StringWriter();
+        try (JsonGenerator gen = createGenerator(sw)) {
+            gen.writeStartObject();
+            gen.writeStartObject("catalogue");
+            gen.writeStartArray(arrayKey);
+            recordWriter.accept(gen);
+            gen.writeEnd();
+            gen.writeEnd();
+            gen.writeEnd();
+        }
+        String text = sw.toString();
+        int start = text.indexOf('{', text.indexOf('['));
+        int end = text.lastIndexOf('}', text.lastIndexOf(']')) + 1;
+        return text.substring(start, end);
+    }
+
+    /**
+     * The values of all the fields written for a process.
+     * If two states are equal, then the process would be written the same way.
+     */
+    private static Object processState(AkerProcess pro) {
+        List<Object> state = new ArrayList<>(4 + 5*pro.getModulePairs().size());
+        Collections.addAll(state, pro.getName(), pro.getUuid(), pro.getTat(), pro.getProcessClass());
+        for (ModulePair pair : pro.getModulePairs()) {
+            Module toMod = pair.getTo();
+            Collections.addAll(state, pair.getFrom().serialisationName(), toMod.serialisationName(),
+                    pair.isDefaultPath(), toMod.getMinValue(), toMod.getMaxValue());
+        }
+        return state;
+    }
+
+    /**
+     * The values of all the fields written for a product.
+     * If two states are equal, then the product would be written the same way.
+     */
+    private static Object productState(Product prod) {
+        List<Object> state = new ArrayList<>(6 + prod.getProcesses().size());
+        Collections.addAll(state, prod.getName(), prod.getDescription(), prod.getUuid(),
+                prod.getProductVersion(), prod.getAvailability(), prod.getBioType());
+        for (AkerProcess pro : prod.getProcesses()) {
+            state.add(pro.getUuid());
+        }
+        return state;
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The writing of one new file, made of new bytes and ranges copied from the old file.
+     * Consecutive unchanged records are copied from the old file together, along with the separators between them.
+     */
+    private class Splice {
+        private final FileChannel in, out;
+        private final Frame frame;
+        private final Map<Object, Record> oldRecords, newRecords;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream(BUFFER_SIZE);
+        /** The length of the new file so far, including anything pending */
+        private long position;
+        /** The range of the old file waiting to be copied, if runEnd is greater than runStart */
+        private long runStart, runEnd;
+        private int rendered;
+
+        Splice(FileChannel in, FileChannel out, Frame frame,
+               Map<Object, Record> oldRecords, Map<Object, Record> newRecords) {
+            this.in = in;
+            this.out = out;
+            this.frame = frame;
+            this.oldRecords = oldRecords;
+            this.newRecords = newRecords;
+        }
+
+        <E> void writeRecords(List<E> items, String arrayKey, BiConsumer<E, JsonGenerator> recordWriter,
+                              Function<E, Object> stateFunction) throws IOException {
+            Record previousOld = null;
+            for (int i = 0; i < items.size(); ++i) {
+                E item = items.get(i);
+                Object state = stateFunction.apply(item);
+                Record old = oldRecords.get(item);
+                long start;
+                if (old!=null && old.state.equals(state)) {
+                    if (previousOld!=null && old.index==previousOld.index+1) {
+                        // The old separator is the same as the new one
+                        copy(previousOld.end, old.end);
+                    } else {
+                        write(i==0 ? frame.prefix : frame.separator);
+                        copy(old.start, old.end);
+                    }
+                    start = position - (old.end - old.start);
+                    previousOld = old;
+                } else {
+                    write(i==0 ? frame.prefix : frame.separator);
+                    start = position;
+                    write(bytes(renderText(arrayKey, gen -> recordWriter.accept(item, gen))));
+                    ++rendered;
+                    previousOld = null;
+                }
+                newRecords.put(item, new Record(state, start, position, i));
+            }
+        }
+
+        void write(byte[] bytes) throws IOException {
+            flushRun();
+            pending.write(bytes, 0, bytes.length);
+            position += bytes.length;
+            if (pending.size() >= BUFFER_SIZE) {
+                flushPending();
+            }
+        }
+
+        void copy(long start, long end) throws IOException {
+            if (runEnd > runStart && start==runEnd) {
+                runEnd = end;
+            } else {
+                flushRun();
+                flushPending();
+                runStart = start;
+                runEnd = end;
+            }
+            position += end - start;
+        }
+
+        void finish() throws IOException {
+            flushRun();
+            flushPending();
+        }
+
+        private void flushPending() throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            pending.reset();
+        }
+
+        private void flushRun() throws IOException {
+            long pos = runStart;
+            while (pos < runEnd) {
+                long n = in.transferTo(pos, runEnd - pos, out);
+                if (n <= 0) {
+                    throw new IOException("Could not copy from the previously saved file");
+                }
+                pos += n;
+            }
+            runStart = runEnd = 0;
+        }
+    }
+}
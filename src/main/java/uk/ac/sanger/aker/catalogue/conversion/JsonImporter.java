@@ -2,10 +2,16 @@ package uk.ac.sanger.aker.catalogue.conversion;
 
 import uk.ac.sanger.aker.catalogue.model.*;
 
+import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -13,7 +19,97 @@ import java.util.stream.Collectors;
  * @author dr6
  */
 public class JsonImporter extends JsonInput {
-    private enum PairPosition { FROM, TO }
+    /**
+     * Uncompressed files at least this size are worth reading whole and decoding in parallel,
+     * rather than streaming with a {@link JsonStreamImporter}.
+     */
+    public static final long PARALLEL_FILE_SIZE = 4L << 20;
+    /** The number of processes decoded by each task when a large file is imported in parallel. */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    /** The result of decoding one process in parallel: either the process or the error that occurred. */
+    private static class DecodedProcess {
+        private AkerProcess process;
+        private Exception error;
+    }
+
+    /** Decodes a range of the processes array, splitting it into chunks for the fork-join pool. */
+    private class DecodeTask extends RecursiveAction {
+        private final JsonArray proArray;
+        private final DecodedProcess[] decoded;
+        private final int start, end;
+        private final BiFunction<String, Boolean, Module> moduleLookup;
+
+        DecodeTask(JsonArray proArray, DecodedProcess[] decoded, int start, int end,
+                   BiFunction<String, Boolean, Module> moduleLookup) {
+            this.proArray = proArray;
+            this.decoded = decoded;
+            this.start = start;
+            this.end = end;
+            this.moduleLookup = moduleLookup;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > parallelChunkSize) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new DecodeTask(proArray, decoded, start, mid, moduleLookup),
+                        new DecodeTask(proArray, decoded, mid, end, moduleLookup));
+                return;
+            }
+            for (int i = start; i < end; ++i) {
+                DecodedProcess dp = new DecodedProcess();
+                try {
+                    dp.process = readProcess(toObject(proArray.get(i), "processes"), moduleLookup);
+                } catch (IOException | RuntimeException e) {
+                    dp.error = e;
+                }
+                decoded[i] = dp;
+            }
+        }
+    }
+
+    private int parallelChunkSize;
+
+    /**
+     * Sets the number of processes decoded by each task when processes are imported in parallel.
+     * If the catalogue contains more processes than this, they are decoded on the common {@link ForkJoinPool}.
+     * The result is the same as a sequential import.
+     * @param parallelChunkSize the number of processes per task, or zero (the default) to import sequentially
+     */
+    public void setParallelChunkSize(int parallelChunkSize) {
+        this.parallelChunkSize = parallelChunkSize;
+    }
+
+    /**
+     * Gets the number of processes decoded by each task when processes are imported in parallel.
+     * @return the number of processes per task, or zero if processes are imported sequentially
+     */
+    public int getParallelChunkSize() {
+        return this.parallelChunkSize;
+    }
+
+    /**
+     * Reads a catalogue from the JSON file at the given path.
+     * If the file is compressed, it is decompressed as it is read.
+     * If no {@link #setStringPool string pool} has been set and the file is at least
+     * {@link StringPool#DEFAULT_FILE_SIZE} in size, a new pool is used for this import only.
+     * @param path the path of the file
+     * @return the reconstructed catalogue
+     * @exception IOException there was a problem reading or reconstructing the catalogue
+     * @exception javax.json.JsonException the file did not contain valid JSON
+     */
+    public Catalogue importCatalogue(Path path) throws IOException {
+        StringPool callerPool = getStringPool();
+        if (callerPool==null && Files.size(path) >= StringPool.DEFAULT_FILE_SIZE) {
+            setStringPool(new StringPool());
+        }
+        try {
+            return importCatalogue(readPath(path));
+        } finally {
+            setStringPool(callerPool);
+        }
+    }
 
     /**
      * Reconstructs the catalogue from JSON.
@@ -24,12 +120,21 @@ public class JsonImporter extends JsonInput {
      */
     public Catalogue importCatalogue(JsonValue jsonValue) throws IOException {
         Objects.requireNonNull(jsonValue, "jsonValue is null");
+        try {
+            return readCatalogue(jsonValue);
+        } catch (UncheckedIOException e) {
+            // Thrown while iterating over an array whose elements are the wrong type
+            throw e.getCause();
+        }
+    }
+
+    private Catalogue readCatalogue(JsonValue jsonValue) throws IOException {
         if (!(jsonValue instanceof JsonObject)) {
             throw exception("Expected a JSON object, but got "+jsonValue.getValueType());
         }
 
         Catalogue catalogue = new Catalogue();
-        List<Module> modules = new ArrayList<>();
+        ModuleTable modules = new ModuleTable();
         List<AkerProcess> processes = new ArrayList<>();
         List<Product> products = new ArrayList<>();
 
@@ -41,61 +146,94 @@ public class JsonImporter extends JsonInput {
         readProcesses(catData, processes, modules);
         readProducts(catData, products, processes);
 
-        catalogue.setModules(modules);
+        catalogue.setModules(modules.getModules());
         catalogue.setProcesses(processes);
         catalogue.setProducts(products);
 
         return catalogue;
     }
 
-    private Module getModule(String name, List<Module> modules, Map<String, Module> moduleNames, PairPosition pos) {
-        if (name==null) {
-            return (pos==PairPosition.FROM ? Module.START : Module.END);
+    private void readProcesses(JsonObject catData, List<AkerProcess> processes, ModuleTable modules) throws IOException {
+        if (parallelChunkSize > 0) {
+            JsonArray proArray = arrayFrom(catData, "processes");
+            if (proArray.size() > parallelChunkSize) {
+                readProcessesParallel(proArray, processes, modules);
+                return;
+            }
         }
-        Module mod = moduleNames.get(name);
-        if (mod!=null) {
-            return mod;
+        for (JsonObject proData : iterObjects(catData, "processes")) {
+            AkerProcess pro = readProcess(proData, modules::get);
+            readParams(proData, modules);
+            processes.add(pro);
         }
-        mod = new Module(name);
-        modules.add(mod);
-        moduleNames.put(name, mod);
-        return mod;
     }
 
-    private void readProcesses(JsonObject catData, List<AkerProcess> processes, List<Module> modules) throws IOException {
-        Map<String, Module> moduleNames = new HashMap<>();
-        for (JsonObject proData : iterObjects(catData, "processes")) {
-            AkerProcess pro = new AkerProcess();
-            pro.setName(stringFrom(proData, "name"));
-            pro.setUuid(stringFrom(proData, "uuid"));
-            pro.setTat(intFrom(proData, "TAT"));
-            pro.setProcessClass(stringFrom(proData, "process_class"));
-            List<ModulePair> modulePairs = new ArrayList<>();
-            for (JsonObject pairData : iterObjects(proData, "process_module_pairings")) {
-                String toName = pairData.getString("to_step", null);
-                String fromName = pairData.getString("from_step", null);
-                boolean defaultPath = pairData.getBoolean("default_path", false);
-                Module toMod = getModule(toName, modules, moduleNames, PairPosition.TO);
-                Module fromMod = getModule(fromName, modules, moduleNames, PairPosition.FROM);
-                modulePairs.add(new ModulePair(fromMod, toMod, defaultPath));
+    /**
+     * Decodes the processes in chunks on the common {@link ForkJoinPool}, resolving modules through
+     * a concurrent intern table.
+     * The decoded processes are then visited in their original order to list their modules,
+     * apply module parameters, and report any error, so the result is the same as a sequential import.
+     */
+    private void readProcessesParallel(JsonArray proArray, List<AkerProcess> processes, ModuleTable modules)
+            throws IOException {
+        ConcurrentMap<String, Module> internTable = new ConcurrentHashMap<>();
+        BiFunction<String, Boolean, Module> moduleLookup = (name, from) ->
+                (name==null ? (from ? Module.START : Module.END) : internTable.computeIfAbsent(name, Module::new));
+        DecodedProcess[] decoded = new DecodedProcess[proArray.size()];
+        ForkJoinPool.commonPool().invoke(new DecodeTask(proArray, decoded, 0, decoded.length, moduleLookup));
+        for (int i = 0; i < decoded.length; ++i) {
+            DecodedProcess dp = decoded[i];
+            if (dp.error instanceof IOException) {
+                throw (IOException) dp.error;
+            }
+            if (dp.error!=null) {
+                throw (RuntimeException) dp.error;
             }
-            if (proData.containsKey("module_parameters")) {
-                for (JsonObject paramData : iterObjects(proData, "module_parameters")) {
-                    String name = stringFrom(paramData, "name");
-                    Integer minValue = integerFrom(paramData, "min_value");
-                    Integer maxValue = integerFrom(paramData, "max_value");
-                    if (minValue != null || maxValue != null) {
-                        Module module = moduleNames.get(name);
-                        if (module == null) {
-                            throw exception("Param given for unlisted module: " + name);
-                        }
-                        module.setMinValue(minValue);
-                        module.setMaxValue(maxValue);
-                    }
+            for (ModulePair pair : dp.process.getModulePairs()) {
+                modules.add(pair.getTo());
+                modules.add(pair.getFrom());
+            }
+            readParams(proArray.getJsonObject(i), modules);
+            processes.add(dp.process);
+        }
+    }
+
+    private AkerProcess readProcess(JsonObject proData, BiFunction<String, Boolean, Module> moduleLookup)
+            throws IOException {
+        AkerProcess pro = new AkerProcess();
+        pro.setName(stringFrom(proData, "name"));
+        pro.setUuid(stringFrom(proData, "uuid"));
+        pro.setTat(intFrom(proData, "TAT"));
+        pro.setProcessClass(pooled(stringFrom(proData, "process_class")));
+        List<ModulePair> modulePairs = new ArrayList<>();
+        for (JsonObject pairData : iterObjects(proData, "process_module_pairings")) {
+            String toName = pairData.getString("to_step", null);
+            String fromName = pairData.getString("from_step", null);
+            boolean defaultPath = pairData.getBoolean("default_path", false);
+            Module toMod = moduleLookup.apply(toName, false);
+            Module fromMod = moduleLookup.apply(fromName, true);
+            modulePairs.add(new ModulePair(fromMod, toMod, defaultPath));
+        }
+        pro.setModulePairs(modulePairs);
+        return pro;
+    }
+
+    private void readParams(JsonObject proData, ModuleTable modules) throws IOException {
+        if (!proData.containsKey("module_parameters")) {
+            return;
+        }
+        for (JsonObject paramData : iterObjects(proData, "module_parameters")) {
+            String name = stringFrom(paramData, "name");
+            Integer minValue = integerFrom(paramData, "min_value");
+            Integer maxValue = integerFrom(paramData, "max_value");
+            if (minValue != null || maxValue != null) {
+                Module module = modules.find(name);
+                if (module == null) {
+                    throw exception("Param given for unlisted module: " + name);
                 }
+                module.setMinValue(minValue);
+                module.setMaxValue(maxValue);
             }
-            pro.setModulePairs(modulePairs);
-            processes.add(pro);
         }
     }
 
@@ -108,7 +246,7 @@ public class JsonImporter extends JsonInput {
             prod.setUuid(stringFrom(prodData, "uuid"));
             prod.setProductVersion(intFrom(prodData, "product_version"));
             prod.setAvailability(intFrom(prodData, "availability"));
-            prod.setBioType(stringFrom(prodData, "requested_biomaterial_type"));
+            prod.setBioType(pooled(stringFrom(prodData, "requested_biomaterial_type")));
             List<AkerProcess> productProcesses = new ArrayList<>();
             for (String uuid : asIter(streamStrings(prodData, "process_uuids"))) {
                 AkerProcess pro = processUuids.get(uuid);
@@ -3,9 +3,10 @@ package uk.ac.sanger.aker.catalogue.conversion;
 import javax.json.*;
 import javax.json.JsonValue.ValueType;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.UncheckedIOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.LongConsumer;
 import java.util.stream.Stream;
 
 /**
@@ -15,6 +16,8 @@ import java.util.stream.Stream;
  */
 public class JsonInput {
     private JsonReaderFactory readerFactory;
+    private StringPool stringPool;
+    private LongConsumer progressListener;
 
     /**
      * Constructs a JsonInput object that will use a given {@code readerFactory}
@@ -31,15 +34,71 @@ public class JsonInput {
         this(Json.createReaderFactory(null));
     }
 
+    /**
+     * Sets the pool used to share copies of strings that are likely to be repeated many times.
+     * @param stringPool the pool to use, or null to use no pool
+     */
+    public void setStringPool(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Gets the pool used to share copies of strings.
+     * @return the string pool, or null if there is none
+     */
+    public StringPool getStringPool() {
+        return this.stringPool;
+    }
+
+    /**
+     * Sets a listener to be told how many bytes of a file have been read so far.
+     * While a listener is set, reading a file also stops with an {@link java.io.InterruptedIOException}
+     * if the reading thread is interrupted, so a long import can be cancelled.
+     * @param progressListener the listener to receive progress, or null for none
+     */
+    public void setProgressListener(LongConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Gets the listener told how many bytes of a file have been read.
+     * @return the progress listener, or null if there is none
+     */
+    public LongConsumer getProgressListener() {
+        return this.progressListener;
+    }
+
+    /**
+     * Opens a reader for the file at the given path, decompressing it if necessary,
+     * and reporting to the {@link #setProgressListener progress listener} if there is one.
+     * @param path the path of the file
+     * @return a reader of the file's contents
+     * @exception IOException the file could not be opened
+     */
+    protected Reader openReader(Path path) throws IOException {
+        return Compression.openReader(path, progressListener);
+    }
+
+    /**
+     * Gets the pooled copy of the given string, if there is a {@link #setStringPool string pool}.
+     * This should be used for fields with few distinct values.
+     * @param string the string to pool
+     * @return the pooled copy of the string, or the given string if there is no pool
+     */
+    protected String pooled(String string) {
+        return (stringPool==null ? string : stringPool.intern(string));
+    }
+
     /**
      * Reads the given path and parses the file contents as JSON.
+     * If the file is compressed, it is decompressed as it is read.
      * @param path the path of the file
      * @return the parsed JSON data of the file
      * @exception IOException the file could not be read
      * @exception JsonException the JSON data could not be constructed from the file
      */
     public JsonValue readPath(Path path) throws IOException {
-        try (JsonReader reader = readerFactory.createReader(Files.newBufferedReader(path))) {
+        try (JsonReader reader = readerFactory.createReader(openReader(path))) {
             return reader.readValue();
         }
     }
@@ -167,16 +226,31 @@ public class JsonInput {
         JsonArray jsonArray = arrayFrom(jsonObject, fieldName);
         return jsonArray.stream()
                 .map(obj -> {
-                    if (obj == null) {
-                        throw unchecked(exception("null in " + fieldName));
-                    }
-                    if (obj.getValueType() != ValueType.OBJECT) {
-                        throw unchecked(exception("expected object in " + fieldName + " but got " + obj.getValueType()));
+                    try {
+                        return toObject(obj, fieldName);
+                    } catch (IOException e) {
+                        throw unchecked(e);
                     }
-                    return obj.asJsonObject();
                 });
     }
 
+    /**
+     * Checks that an element of an array is a JSON object.
+     * @param obj the element of the array
+     * @param fieldName the key whose array contains the element
+     * @return the element as a JSON object
+     * @exception IOException if the element is null or is not a JSON object
+     */
+    protected JsonObject toObject(JsonValue obj, String fieldName) throws IOException {
+        if (obj == null) {
+            throw exception("null in " + fieldName);
+        }
+        if (obj.getValueType() != ValueType.OBJECT) {
+            throw exception("expected object in " + fieldName + " but got " + obj.getValueType());
+        }
+        return obj.asJsonObject();
+    }
+
     /**
      * Stream the strings from an array in the given object.
      * Using the stream may produce {@link UncheckedIOException} if any element of the array is not a string.
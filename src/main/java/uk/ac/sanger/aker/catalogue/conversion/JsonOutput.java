@@ -3,7 +3,6 @@ package uk.ac.sanger.aker.catalogue.conversion;
 import javax.json.*;
 import javax.json.stream.JsonGenerator;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 
@@ -48,14 +47,15 @@ public class JsonOutput {
     }
 
     /**
-     * Write the given JSON to a file at the given path
+     * Write the given JSON to a file at the given path.
+     * If the path has the extension of a {@link Compression compression format}, the file is compressed.
      * @param value the value to write
      * @param path the path to write to
      * @exception IOException the file could not be written
      * @exception JsonException the JSON could not be serialised
      */
     public void write(JsonValue value, Path path) throws IOException {
-        try (JsonWriter out = writerFactory.createWriter(Files.newBufferedWriter(path))) {
+        try (JsonWriter out = writerFactory.createWriter(Compression.openWriter(path))) {
             out.write(value);
         }
     }
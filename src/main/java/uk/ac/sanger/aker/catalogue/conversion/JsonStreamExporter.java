@@ -0,0 +1,116 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import javax.json.stream.JsonGenerator;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This tool writes a catalogue as JSON, sending each process and product straight to a {@link JsonGenerator}.
+ * Unlike {@link JsonExporter}, it never builds a JSON representation of the whole catalogue in memory.
+ * The output is the same as writing {@link JsonExporter#toExportData JsonExporter.toExportData}
+ * with {@link JsonOutput#write JsonOutput.write}.
+ * @author dr6
+ */
+public class JsonStreamExporter extends JsonStreamOutput {
+    /**
+     * Writes the catalogue as JSON to the file at the given path.
+     * @param catalogue the catalogue to export
+     * @param path the path to write to
+     * @exception IOException the file could not be written
+     * @exception javax.json.JsonException the JSON could not be serialised
+     */
+    public void write(Catalogue catalogue, Path path) throws IOException {
+        try (JsonGenerator gen = openPath(path)) {
+            write(catalogue, gen);
+        }
+    }
+
+    /**
+     * Writes the catalogue as JSON using the given generator.
+     * At the top level this is an object with one key, {@code "catalogue"},
+     * whose value contains the details of the catalogue.
+     * @param catalogue the catalogue to export
+     * @param gen the generator to write to
+     */
+    public void write(Catalogue catalogue, JsonGenerator gen) {
+        gen.writeStartObject();
+        gen.writeStartObject("catalogue")
+                .write("pipeline", catalogue.getPipeline())
+                .write("url", catalogue.getUrl())
+                .write("lims_id", catalogue.getLimsId());
+        gen.writeStartArray("processes");
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            writeProcess(pro, gen);
+        }
+        gen.writeEnd();
+        gen.writeStartArray("products");
+        for (Product prod : catalogue.getProducts()) {
+            writeProduct(prod, gen);
+        }
+        gen.writeEnd();
+        gen.writeEnd();
+        gen.writeEnd();
+    }
+
+    /**
+     * Writes a process as an element of the current array.
+     * The process data includes details of its modules and parameters.
+     * @param process the process to write
+     * @param gen the generator to write to
+     */
+    protected void writeProcess(AkerProcess process, JsonGenerator gen) {
+        gen.writeStartObject()
+                .write("name", process.getName())
+                .write("uuid", process.getUuid())
+                .write("TAT", process.getTat())
+                .write("process_class", process.getProcessClass());
+        gen.writeStartArray("module_parameters");
+        Set<String> moduleNames = new HashSet<>();
+        for (ModulePair pair : process.getModulePairs()) {
+            Module toMod = pair.getTo();
+            if (toMod!=Module.END && moduleNames.add(toMod.getName()) && toMod.hasParameter()) {
+                gen.writeStartObject().write("name", toMod.getName());
+                writeNullable(gen, "min_value", toMod.getMinValue());
+                writeNullable(gen, "max_value", toMod.getMaxValue());
+                gen.writeEnd();
+            }
+        }
+        gen.writeEnd();
+        gen.writeStartArray("process_module_pairings");
+        for (ModulePair pair : process.getModulePairs()) {
+            gen.writeStartObject();
+            writeNullable(gen, "from_step", pair.getFrom().serialisationName());
+            writeNullable(gen, "to_step", pair.getTo().serialisationName());
+            gen.write("default_path", pair.isDefaultPath());
+            gen.writeEnd();
+        }
+        gen.writeEnd();
+        gen.writeEnd();
+    }
+
+    /**
+     * Writes a product as an element of the current array.
+     * The product data includes uuids of processes.
+     * @param product the product to write
+     * @param gen the generator to write to
+     */
+    protected void writeProduct(Product product, JsonGenerator gen) {
+        gen.writeStartObject()
+                .write("name", product.getName())
+                .write("description", product.getDescription())
+                .write("uuid", product.getUuid())
+                .write("product_version", product.getProductVersion())
+                .write("availability", product.getAvailability())
+                .write("requested_biomaterial_type", product.getBioType());
+        gen.writeStartArray("process_uuids");
+        for (AkerProcess pro : product.getProcesses()) {
+            gen.write(pro.getUuid());
+        }
+        gen.writeEnd();
+        gen.writeEnd();
+    }
+}
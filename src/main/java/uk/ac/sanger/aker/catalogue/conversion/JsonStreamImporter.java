@@ -0,0 +1,342 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * This tool converts JSON to a catalogue, building the model objects directly from parser events.
+ * Unlike {@link JsonImporter}, it never holds a tree of the whole JSON document in memory.
+ * The resulting catalogue, and the messages of any exceptions, are the same as those from {@code JsonImporter}.
+ * @author dr6
+ */
+public class JsonStreamImporter extends JsonStreamInput {
+    /** A product whose process uuids are held until all the processes have been read. */
+    static class ProductEntry {
+        private final Product product;
+        private final List<String> processUuids;
+
+        ProductEntry(Product product, List<String> processUuids) {
+            this.product = product;
+            this.processUuids = processUuids;
+        }
+
+        /** The product read, without its processes. */
+        public Product getProduct() {
+            return this.product;
+        }
+
+        /** The uuids of the product's processes, in the order they were listed. */
+        public List<String> getProcessUuids() {
+            return this.processUuids;
+        }
+    }
+
+    /**
+     * Reads a catalogue from the JSON file at the given path.
+     * If no {@link #setStringPool string pool} has been set and the file is at least
+     * {@link StringPool#DEFAULT_FILE_SIZE} in size, a new pool is used for this import only.
+     * @param path the path of the file
+     * @return the reconstructed catalogue
+     * @exception IOException there was a problem reading or reconstructing the catalogue
+     * @exception javax.json.JsonException the file did not contain valid JSON
+     */
+    public Catalogue importCatalogue(Path path) throws IOException {
+        StringPool callerPool = getStringPool();
+        if (callerPool==null && Files.size(path) >= StringPool.DEFAULT_FILE_SIZE) {
+            setStringPool(new StringPool());
+        }
+        try (JsonParser parser = openPath(path)) {
+            return importCatalogue(parser);
+        } finally {
+            setStringPool(callerPool);
+        }
+    }
+
+    /**
+     * Reads a catalogue from the given parser.
+     * The JSON should be an object with the key "catalogue", whose value contains the details of the catalogue.
+     * @param parser a parser positioned at the start of the JSON data
+     * @return the reconstructed catalogue
+     * @exception IOException there was a problem reading or reconstructing the catalogue
+     */
+    public Catalogue importCatalogue(JsonParser parser) throws IOException {
+        Objects.requireNonNull(parser, "parser is null");
+        Event event = next(parser);
+        if (event!=Event.START_OBJECT) {
+            throw exception("Expected a JSON object, but got "+valueType(event));
+        }
+        Catalogue catalogue = null;
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            event = next(parser);
+            if (key.equals("catalogue")) {
+                expect(event, Event.START_OBJECT, key);
+                catalogue = readCatalogue(parser);
+            } else {
+                skipValue(parser, event);
+            }
+        }
+        return required(catalogue, "catalogue");
+    }
+
+    private Catalogue readCatalogue(JsonParser parser) throws IOException {
+        String limsId = null, pipeline = null, url = null;
+        List<AkerProcess> processes = null;
+        List<ProductEntry> products = null;
+        ModuleTable modules = new ModuleTable();
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "lims_id":
+                    limsId = readString(parser, key);
+                    break;
+                case "pipeline":
+                    pipeline = readString(parser, key);
+                    break;
+                case "url":
+                    url = readString(parser, key);
+                    break;
+                case "processes":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    processes = readProcesses(parser, modules);
+                    break;
+                case "products":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    products = readProducts(parser);
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        Catalogue catalogue = new Catalogue();
+        catalogue.setLimsId(required(limsId, "lims_id"));
+        catalogue.setPipeline(required(pipeline, "pipeline"));
+        catalogue.setUrl(required(url, "url"));
+        catalogue.setModules(modules.getModules());
+        catalogue.setProcesses(required(processes, "processes"));
+        catalogue.setProducts(linkProducts(required(products, "products"), processes));
+        return catalogue;
+    }
+
+    private List<AkerProcess> readProcesses(JsonParser parser, ModuleTable modules) throws IOException {
+        List<AkerProcess> processes = new ArrayList<>();
+        while (nextObject(parser, "processes")) {
+            processes.add(readProcess(parser, modules));
+        }
+        return processes;
+    }
+
+    private AkerProcess readProcess(JsonParser parser, ModuleTable modules) throws IOException {
+        String name = null, uuid = null, processClass = null;
+        Integer tat = null;
+        List<ModulePair> modulePairs = null;
+        List<ModuleParam> params = null;
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "name":
+                    name = readString(parser, key);
+                    break;
+                case "uuid":
+                    uuid = readString(parser, key);
+                    break;
+                case "TAT":
+                    tat = readInt(parser, key);
+                    break;
+                case "process_class":
+                    processClass = pooled(readString(parser, key));
+                    break;
+                case "process_module_pairings":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    modulePairs = new ArrayList<>();
+                    while (nextObject(parser, key)) {
+                        modulePairs.add(readPair(parser, modules));
+                    }
+                    break;
+                case "module_parameters":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    params = new ArrayList<>();
+                    while (nextObject(parser, key)) {
+                        params.add(readParam(parser));
+                    }
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        AkerProcess pro = new AkerProcess();
+        pro.setName(required(name, "name"));
+        pro.setUuid(required(uuid, "uuid"));
+        pro.setTat(required(tat, "TAT"));
+        pro.setProcessClass(required(processClass, "process_class"));
+        required(modulePairs, "process_module_pairings");
+        if (params!=null) {
+            for (ModuleParam param : params) {
+                if (!param.applyTo(modules)) {
+                    throw exception("Param given for unlisted module: " + param.getName());
+                }
+            }
+        }
+        pro.setModulePairs(modulePairs);
+        return pro;
+    }
+
+    /**
+     * Reads a module pair, looking up or recording its modules in the given table.
+     * @param parser the parser, positioned just after the start of the pair object
+     * @param modules the modules found so far
+     * @return the module pair
+     * @exception IOException if the JSON ends unexpectedly
+     */
+    ModulePair readPair(JsonParser parser, ModuleTable modules) throws IOException {
+        String toName = null, fromName = null;
+        boolean defaultPath = false;
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "to_step":
+                    toName = readOptionalString(parser, null);
+                    break;
+                case "from_step":
+                    fromName = readOptionalString(parser, null);
+                    break;
+                case "default_path":
+                    defaultPath = readOptionalBoolean(parser, false);
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        Module toMod = modules.get(toName, false);
+        Module fromMod = modules.get(fromName, true);
+        return new ModulePair(fromMod, toMod, defaultPath);
+    }
+
+    /**
+     * Reads the parameters given for a module.
+     * @param parser the parser, positioned just after the start of the parameter object
+     * @return the module parameters
+     * @exception IOException if the data is invalid
+     */
+    ModuleParam readParam(JsonParser parser) throws IOException {
+        String name = null;
+        Integer minValue = null, maxValue = null;
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "name":
+                    name = readString(parser, key);
+                    break;
+                case "min_value":
+                    minValue = readInteger(parser, key);
+                    break;
+                case "max_value":
+                    maxValue = readInteger(parser, key);
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        return new ModuleParam(required(name, "name"), minValue, maxValue);
+    }
+
+    private List<ProductEntry> readProducts(JsonParser parser) throws IOException {
+        List<ProductEntry> products = new ArrayList<>();
+        while (nextObject(parser, "products")) {
+            products.add(readProduct(parser));
+        }
+        return products;
+    }
+
+    /**
+     * Reads a product, along with the uuids of its processes.
+     * @param parser the parser, positioned just after the start of the product object
+     * @return the product and its process uuids
+     * @exception IOException if the data is invalid
+     */
+    ProductEntry readProduct(JsonParser parser) throws IOException {
+        String name = null, description = null, uuid = null, bioType = null;
+        Integer productVersion = null, availability = null;
+        List<String> processUuids = null;
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "name":
+                    name = readString(parser, key);
+                    break;
+                case "description":
+                    description = readString(parser, key);
+                    break;
+                case "uuid":
+                    uuid = readString(parser, key);
+                    break;
+                case "product_version":
+                    productVersion = readInt(parser, key);
+                    break;
+                case "availability":
+                    availability = readInt(parser, key);
+                    break;
+                case "requested_biomaterial_type":
+                    bioType = pooled(readString(parser, key));
+                    break;
+                case "process_uuids":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    processUuids = new ArrayList<>();
+                    String processUuid;
+                    while ((processUuid = nextString(parser, key))!=null) {
+                        processUuids.add(processUuid);
+                    }
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        Product prod = new Product();
+        prod.setName(required(name, "name"));
+        prod.setDescription(required(description, "description"));
+        prod.setUuid(required(uuid, "uuid"));
+        prod.setProductVersion(required(productVersion, "product_version"));
+        prod.setAvailability(required(availability, "availability"));
+        prod.setBioType(required(bioType, "requested_biomaterial_type"));
+        return new ProductEntry(prod, required(processUuids, "process_uuids"));
+    }
+
+    /**
+     * Links each product to its processes, once all the processes have been read.
+     * Products may appear before processes in the JSON, so this cannot happen while the products are being read.
+     */
+    private List<Product> linkProducts(List<ProductEntry> entries, List<AkerProcess> processes) throws IOException {
+        Map<String, AkerProcess> processUuids = indexProcesses(processes);
+        List<Product> products = new ArrayList<>(entries.size());
+        for (ProductEntry entry : entries) {
+            List<AkerProcess> productProcesses = new ArrayList<>(entry.processUuids.size());
+            for (String uuid : entry.processUuids) {
+                AkerProcess pro = processUuids.get(uuid);
+                if (pro==null) {
+                    throw exception("Unknown process uuid: "+uuid);
+                }
+                productProcesses.add(pro);
+            }
+            entry.product.setProcesses(productProcesses);
+            products.add(entry.product);
+        }
+        return products;
+    }
+
+    /**
+     * Indexes the given processes by their uuids.
+     * @param processes the processes read
+     * @return a map of uuid to process
+     * @exception IllegalStateException if two processes have the same uuid
+     */
+    static Map<String, AkerProcess> indexProcesses(List<AkerProcess> processes) {
+        return processes.stream().collect(Collectors.toMap(AkerProcess::getUuid, p->p));
+    }
+}
@@ -0,0 +1,282 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import javax.json.Json;
+import javax.json.JsonValue.ValueType;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+/**
+ * A tool with a set of general methods for reading JSON incrementally from a {@link JsonParser}.
+ * This is a base class for a custom JSON importing class that does not want to hold
+ * the whole JSON document in memory at once.
+ * The methods here produce the same error messages as their tree-based equivalents in {@link JsonInput}.
+ * @author dr6
+ */
+public class JsonStreamInput extends JsonInput {
+    private JsonParserFactory parserFactory;
+
+    /**
+     * Constructs a JsonStreamInput object that will use a given {@code parserFactory}
+     * @param parserFactory the factory to use to create {@link JsonParser}s
+     */
+    public JsonStreamInput(JsonParserFactory parserFactory) {
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * Constructs a JsonStreamInput object using a default {@code parserFactory}
+     */
+    public JsonStreamInput() {
+        this(Json.createParserFactory(null));
+    }
+
+    /**
+     * Opens a parser reading JSON from the given path.
+     * If the file is compressed, it is decompressed as it is parsed.
+     * The caller is responsible for closing the parser.
+     * @param path the path of the file
+     * @return a parser positioned at the start of the file
+     * @exception IOException the file could not be opened
+     */
+    public JsonParser openPath(Path path) throws IOException {
+        return createParser(openReader(path));
+    }
+
+    /**
+     * Creates a parser reading JSON from the given reader.
+     * @param reader the source of the JSON
+     * @return a parser positioned at the start of the data
+     */
+    protected JsonParser createParser(Reader reader) {
+        return parserFactory.createParser(reader);
+    }
+
+    /**
+     * Advances the parser to its next event.
+     * @param parser the parser
+     * @return the next event
+     * @exception IOException if there are no more events
+     */
+    protected Event next(JsonParser parser) throws IOException {
+        try {
+            return parser.next();
+        } catch (NoSuchElementException e) {
+            throw exception("Unexpected end of JSON data", e);
+        }
+    }
+
+    /**
+     * Advances the parser to the next key in the current object.
+     * @param parser the parser, positioned inside an object
+     * @return the next key, or null if the end of the object has been reached
+     * @exception IOException if the JSON ends unexpectedly
+     */
+    protected String nextKey(JsonParser parser) throws IOException {
+        Event event = next(parser);
+        return (event==Event.KEY_NAME ? parser.getString() : null);
+    }
+
+    /**
+     * Gets the type of value that begins with the given event.
+     * @param event an event that begins a value
+     * @return the type of the value
+     */
+    protected static ValueType valueType(Event event) {
+        switch (event) {
+            case START_OBJECT: return ValueType.OBJECT;
+            case START_ARRAY: return ValueType.ARRAY;
+            case VALUE_STRING: return ValueType.STRING;
+            case VALUE_NUMBER: return ValueType.NUMBER;
+            case VALUE_TRUE: return ValueType.TRUE;
+            case VALUE_FALSE: return ValueType.FALSE;
+            case VALUE_NULL: return ValueType.NULL;
+        }
+        throw new IllegalArgumentException("Event does not start a value: "+event);
+    }
+
+    /**
+     * Skips the value that begins with the given event, including its contents if it is an object or array.
+     * @param parser the parser
+     * @param event the event that began the value
+     */
+    protected void skipValue(JsonParser parser, Event event) {
+        if (event==Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (event==Event.START_ARRAY) {
+            parser.skipArray();
+        }
+    }
+
+    /**
+     * Reads the string value for the given key.
+     * The value must be a string.
+     * @param parser the parser, positioned just after the key
+     * @param key the key whose value is being read
+     * @return the string value
+     * @exception IOException if the value is not a string
+     */
+    protected String readString(JsonParser parser, String key) throws IOException {
+        Event event = next(parser);
+        if (event!=Event.VALUE_STRING) {
+            skipValue(parser, event);
+            throw exception("Expected string for key "+key+" but got "+valueType(event));
+        }
+        return parser.getString();
+    }
+
+    /**
+     * Reads the value for a key, returning it if it is a string, or the given default otherwise.
+     * This is the streaming equivalent of {@link javax.json.JsonObject#getString(String, String)}.
+     * @param parser the parser, positioned just after the key
+     * @param defaultValue the value to return if the value is not a string
+     * @return the string value, or the default
+     * @exception IOException if the JSON ends unexpectedly
+     */
+    protected String readOptionalString(JsonParser parser, String defaultValue) throws IOException {
+        Event event = next(parser);
+        if (event==Event.VALUE_STRING) {
+            return parser.getString();
+        }
+        skipValue(parser, event);
+        return defaultValue;
+    }
+
+    /**
+     * Reads the value for a key, returning it if it is a boolean, or the given default otherwise.
+     * This is the streaming equivalent of {@link javax.json.JsonObject#getBoolean(String, boolean)}.
+     * @param parser the parser, positioned just after the key
+     * @param defaultValue the value to return if the value is not a boolean
+     * @return the boolean value, or the default
+     * @exception IOException if the JSON ends unexpectedly
+     */
+    protected boolean readOptionalBoolean(JsonParser parser, boolean defaultValue) throws IOException {
+        Event event = next(parser);
+        if (event==Event.VALUE_TRUE) {
+            return true;
+        }
+        if (event==Event.VALUE_FALSE) {
+            return false;
+        }
+        skipValue(parser, event);
+        return defaultValue;
+    }
+
+    /**
+     * Reads the int value for the given key.
+     * If the value is a string that can be parsed as an int, the parsed int will be returned.
+     * @param parser the parser, positioned just after the key
+     * @param key the key whose value is being read
+     * @return the int value
+     * @exception IOException if the value is not an int
+     */
+    protected int readInt(JsonParser parser, String key) throws IOException {
+        return toInt(parser, next(parser), key);
+    }
+
+    /**
+     * Reads the Integer value for the given key.
+     * If the value is a string that can be parsed as an int, the parsed int will be returned.
+     * If the value is null, this method will return null.
+     * @param parser the parser, positioned just after the key
+     * @param key the key whose value is being read
+     * @return the Integer value, or null
+     * @exception IOException if the value is not null and cannot be read as an integer
+     */
+    protected Integer readInteger(JsonParser parser, String key) throws IOException {
+        Event event = next(parser);
+        if (event==Event.VALUE_NULL) {
+            return null;
+        }
+        return toInt(parser, event, key);
+    }
+
+    private int toInt(JsonParser parser, Event event, String key) throws IOException {
+        if (event==Event.VALUE_STRING) {
+            try {
+                return Integer.parseInt(parser.getString());
+            } catch (NumberFormatException e) {
+                throw exception("Expected an integer for key "+key+" but got non-integer string.", e);
+            }
+        }
+        if (event!=Event.VALUE_NUMBER) {
+            skipValue(parser, event);
+            throw exception("Expected an integer from key "+key+" but got "+valueType(event));
+        }
+        BigDecimal number = parser.getBigDecimal();
+        if (!parser.isIntegralNumber()) {
+            throw exception("Expected an integer from key "+key+" but got "+number);
+        }
+        return number.intValue();
+    }
+
+    /**
+     * Checks that the value for the given key begins with the given event.
+     * @param event the event that began the value
+     * @param expected the event that should begin the value: either
+     *        {@link Event#START_OBJECT START_OBJECT} or {@link Event#START_ARRAY START_ARRAY}
+     * @param key the key whose value is being read
+     * @exception IOException if the value is not of the expected type
+     */
+    protected void expect(Event event, Event expected, String key) throws IOException {
+        if (event!=expected) {
+            String desc = (expected==Event.START_OBJECT ? "JSON object" : "JSON array");
+            throw exception("Expected "+desc+" from key "+key+" but got "+valueType(event));
+        }
+    }
+
+    /**
+     * Advances to the next element of an array of objects.
+     * @param parser the parser, positioned inside the array
+     * @param fieldName the key whose array is being read
+     * @return true if the parser is now at the start of an object; false if the array has ended
+     * @exception IOException if the element is not an object
+     */
+    protected boolean nextObject(JsonParser parser, String fieldName) throws IOException {
+        Event event = next(parser);
+        if (event==Event.END_ARRAY) {
+            return false;
+        }
+        if (event!=Event.START_OBJECT) {
+            throw exception("expected object in "+fieldName+" but got "+valueType(event));
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next element of an array of strings.
+     * @param parser the parser, positioned inside the array
+     * @param fieldName the key whose array is being read
+     * @return the next string, or null if the array has ended
+     * @exception IOException if the element is not a string
+     */
+    protected String nextString(JsonParser parser, String fieldName) throws IOException {
+        Event event = next(parser);
+        if (event==Event.END_ARRAY) {
+            return null;
+        }
+        if (event!=Event.VALUE_STRING) {
+            throw exception("expected string in "+fieldName+" but got "+valueType(event));
+        }
+        return parser.getString();
+    }
+
+    /**
+     * Checks that a required value was found.
+     * @param value the value read, or null if the key was not found
+     * @param key the key for the value
+     * @return the given value
+     * @exception IOException if the value is null
+     */
+    protected <T> T required(T value, String key) throws IOException {
+        if (value==null) {
+            throw exception("Missing key: \""+key+"\"");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,88 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+/**
+ * A tool with a set of general methods for writing JSON incrementally to a {@link JsonGenerator}.
+ * This is a base class for a custom JSON exporting class that does not want to build
+ * the whole JSON document in memory before writing it.
+ * Its default generators produce the same pretty-printed format as {@link JsonOutput}.
+ * @author dr6
+ */
+public class JsonStreamOutput {
+    private JsonGeneratorFactory generatorFactory;
+
+    /**
+     * Constructs a JsonStreamOutput object using the given factory to create generators.
+     */
+    public JsonStreamOutput(JsonGeneratorFactory generatorFactory) {
+        this.generatorFactory = generatorFactory;
+    }
+
+    /**
+     * Constructs a JsonStreamOutput object using a default (pretty-printing) factory
+     */
+    public JsonStreamOutput() {
+        this(Json.createGeneratorFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true)));
+    }
+
+    /**
+     * Opens a generator writing to a buffered channel on the file at the given path.
+     * The file is created if it does not exist, and truncated if it does.
+     * If the path has the extension of a {@link Compression compression format}, the output is compressed.
+     * The caller is responsible for closing the generator.
+     * @param path the path to write to
+     * @return a generator writing to the given path
+     * @exception IOException the file could not be opened
+     */
+    public JsonGenerator openPath(Path path) throws IOException {
+        if (Compression.forPath(path)!=Compression.NONE) {
+            return createGenerator(Compression.openWriter(path));
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return createGenerator(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1)));
+    }
+
+    /**
+     * Creates a generator writing JSON to the given writer.
+     * @param writer the destination for the JSON
+     * @return a generator writing to the given writer
+     */
+    protected JsonGenerator createGenerator(Writer writer) {
+        return generatorFactory.createGenerator(writer);
+    }
+
+    /**
+     * Writes a string that might be null as a member of the current object.
+     * @param gen the generator
+     * @param key the key for the value
+     * @param string the string to write, or null to write a JSON null
+     * @return the generator
+     */
+    public static JsonGenerator writeNullable(JsonGenerator gen, String key, String string) {
+        return (string==null ? gen.writeNull(key) : gen.write(key, string));
+    }
+
+    /**
+     * Writes an Integer that might be null as a member of the current object.
+     * @param gen the generator
+     * @param key the key for the value
+     * @param number the number to write, or null to write a JSON null
+     * @return the generator
+     */
+    public static JsonGenerator writeNullable(JsonGenerator gen, String key, Integer number) {
+        return (number==null ? gen.writeNull(key) : gen.write(key, number));
+    }
+}
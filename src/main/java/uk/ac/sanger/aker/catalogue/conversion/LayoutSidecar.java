@@ -0,0 +1,221 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+import uk.ac.sanger.aker.catalogue.model.AkerProcess;
+import uk.ac.sanger.aker.catalogue.model.Module;
+import uk.ac.sanger.aker.catalogue.model.ModulePair;
+
+import java.awt.Point;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The module layouts of the processes in a catalogue, stored in a compact binary file alongside the catalogue,
+ * so that they do not have to be worked out again when the catalogue is reopened, and positions chosen by the
+ * user are kept.
+ * <p>Layouts are keyed by process UUID, and modules are recorded by name.
+ * Strings are written as their length in bytes followed by their UTF-8 encoding, so there is no limit on their length.
+ * The file is written alongside the old one and then moved over it, so an interrupted write leaves the old file intact.
+ * A stored layout is only given for a process if it positions every module in the process's paths;
+ * otherwise the catalogue has been changed since the layout was stored, and the layout should be worked out again.
+ * @author dr6
+ */
+public class LayoutSidecar {
+    /** The extension added to the catalogue file name to give the name of its layout file. */
+    public static final String EXTENSION = ".layout";
+
+    private static final int MAGIC = 0x414b4d4c; // "AKML"
+    private static final int VERSION = 2;
+    private static final byte MODULE = 0, START = 1, END = 2;
+    private static final int BUFFER_SIZE = 1<<16;
+
+    /** The stored position of a module */
+    private static class Position {
+        private final byte kind;
+        private final String name;
+        private final int x, y;
+
+        Position(byte kind, String name, int x, int y) {
+            this.kind = kind;
+            this.name = name;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final Map<String, List<Position>> layouts;
+
+    /** Creates an empty set of layouts. */
+    public LayoutSidecar() {
+        this(new HashMap<>());
+    }
+
+    private LayoutSidecar(Map<String, List<Position>> layouts) {
+        this.layouts = layouts;
+    }
+
+    /**
+     * Gets the path of the layout file for the catalogue file at the given path.
+     * @param path the path of a catalogue file
+     * @return the path for its layout file
+     */
+    public static Path sidecarPath(Path path) {
+        return path.resolveSibling(path.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Reads layouts from the given file.
+     * @param path the path of a layout file
+     * @return the layouts read
+     * @exception IOException the file could not be read, or is not a layout file
+     */
+    public static LayoutSidecar read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (in.readInt()!=MAGIC) {
+                throw new IOException("Not a layout file: "+path);
+            }
+            int version = in.readInt();
+            if (version!=VERSION) {
+                throw new IOException("Unsupported layout file version: "+version);
+            }
+            int numLayouts = in.readInt();
+            Map<String, List<Position>> layouts = new HashMap<>(2*numLayouts);
+            for (int i = 0; i < numLayouts; ++i) {
+                String uuid = readString(in);
+                int numPositions = in.readInt();
+                List<Position> positions = new ArrayList<>(numPositions);
+                for (int j = 0; j < numPositions; ++j) {
+                    byte kind = in.readByte();
+                    String name = (kind==MODULE ? readString(in) : null);
+                    positions.add(new Position(kind, name, in.readInt(), in.readInt()));
+                }
+                layouts.put(uuid, positions);
+            }
+            return new LayoutSidecar(layouts);
+        }
+    }
+
+    /**
+     * Writes these layouts to the given file.
+     * @param path the path to write to
+     * @exception IOException the file could not be written
+     */
+    public void write(Path path) throws IOException {
+        Path absPath = path.toAbsolutePath().normalize();
+        Path tempPath = absPath.resolveSibling("."+absPath.getFileName()+".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath),
+                    BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(layouts.size());
+                for (Map.Entry<String, List<Position>> entry : layouts.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (Position pos : entry.getValue()) {
+                        out.writeByte(pos.kind);
+                        if (pos.kind==MODULE) {
+                            writeString(out, pos.name);
+                        }
+                        out.writeInt(pos.x);
+                        out.writeInt(pos.y);
+                    }
+                }
+            }
+            try {
+                Files.move(tempPath, absPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, absPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: "+length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the stored layout for the given process, if there is a valid one.
+     * Stored modules that are no longer in the catalogue are left out.
+     * @param pro the process
+     * @param modules the catalogue's modules, by name
+     * @return a new layout for the process, or null if there is no stored layout that positions all the
+     *         modules in the process's paths
+     */
+    public ModuleLayout getLayout(AkerProcess pro, Map<String, Module> modules) {
+        List<Position> positions = (pro.getUuid()==null ? null : layouts.get(pro.getUuid()));
+        if (positions==null) {
+            return null;
+        }
+        Map<Module, Point> points = new HashMap<>(2*positions.size());
+        for (Position pos : positions) {
+            Module module = (pos.kind==START ? Module.START : pos.kind==END ? Module.END : modules.get(pos.name));
+            if (module!=null) {
+                points.put(module, new Point(pos.x, pos.y));
+            }
+        }
+        for (ModulePair pair : pro.getModulePairs()) {
+            if (!points.containsKey(pair.getFrom()) || !points.containsKey(pair.getTo())) {
+                return null;
+            }
+        }
+        if (!points.containsKey(Module.START) || !points.containsKey(Module.END)) {
+            return null;
+        }
+        return new ModuleLayout(points);
+    }
+
+    /**
+     * Stores a copy of the given layout for the process with the given UUID.
+     * @param uuid the UUID of the process
+     * @param layout the layout of the process's modules
+     */
+    public void putLayout(String uuid, ModuleLayout layout) {
+        List<Position> positions = new ArrayList<>(layout.modules().size());
+        for (Map.Entry<Module, Point> entry : layout.entries()) {
+            Module module = entry.getKey();
+            byte kind = (module==Module.START ? START : module==Module.END ? END : MODULE);
+            Point point = entry.getValue();
+            positions.add(new Position(kind, module.getName(), point.x, point.y));
+        }
+        layouts.put(uuid, positions);
+    }
+
+    /**
+     * Discards the layouts of any processes other than those given.
+     * @param processes the processes whose layouts should be kept
+     */
+    public void retainProcesses(Collection<? extends AkerProcess> processes) {
+        Set<String> uuids = new HashSet<>(2*processes.size());
+        for (AkerProcess pro : processes) {
+            uuids.add(pro.getUuid());
+        }
+        layouts.keySet().retainAll(uuids);
+    }
+
+    /** Creates a copy of these layouts, which can be changed independently. */
+    public LayoutSidecar copy() {
+        return new LayoutSidecar(new HashMap<>(layouts));
+    }
+
+    /** The number of process layouts stored. */
+    public int size() {
+        return layouts.size();
+    }
+}
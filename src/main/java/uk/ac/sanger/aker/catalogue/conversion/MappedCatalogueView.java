@@ -0,0 +1,586 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.*;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * A lazily decoded view of a catalogue file, for opening very large catalogues quickly.
+ * <p>The file is memory-mapped and scanned once when it is {@link #open opened}. The scan records where
+ * each process and product sits in the file, along with its name and UUID, and it reads the modules and
+ * their parameters. The other fields of each process (including its {@link ModulePair}s) and of each product
+ * are only decoded from the mapped file when they are first accessed.
+ * <p>The scan checks every field that will later be decoded, so errors in the JSON are thrown when the view is
+ * opened. If the file is changed after that, an error decoding a process or product is thrown as
+ * an {@link UncheckedIOException} from the accessor that triggered the decoding.
+ * <p>The fields are read with the same methods as {@link JsonStreamImporter} uses, so the view and the
+ * importer accept the same files and report the same errors.
+ * <p>Since the view is meant for large files, each file it opens gets a new {@link StringPool},
+ * unless the caller has set one.
+ * <p>Once a process or product has been decoded it no longer refers to the view.
+ * The file must not be changed while the view is in use. Call {@link #loadAll loadAll} before overwriting it;
+ * after that the view releases the mapped file.
+ * @author dr6
+ */
+public class MappedCatalogueView extends JsonStreamImporter {
+    /** Where an object sits in the file: first recorded as character offsets, then converted to byte offsets. */
+    private static class Extent {
+        private long start, end;
+    }
+
+    private ByteBuffer data;
+    private ModuleTable modules;
+    private Catalogue catalogue;
+    private Map<String, AkerProcess> processUuids;
+    /** Whether the string pool in use was created by the view, rather than set by the caller */
+    private boolean ownStringPool;
+
+    @Override
+    public void setStringPool(StringPool stringPool) {
+        super.setStringPool(stringPool);
+        ownStringPool = false;
+    }
+
+    /**
+     * Opens a view of the catalogue file at the given path.
+     * The returned catalogue contains all its modules, and stubs for each process and product
+     * that will decode the rest of their details when required.
+     * Compressed files cannot be mapped; they should be imported with {@link JsonStreamImporter} instead.
+     * @param path the path of the file
+     * @return the catalogue viewed from the file
+     * @exception IOException there was a problem reading the file, or a problem in the data found by the initial scan
+     */
+    public Catalogue open(Path path) throws IOException {
+        if (Compression.detect(path)!=Compression.NONE) {
+            throw exception("Cannot map a compressed file: "+path);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw exception("File is too large to map: "+path);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.data = mapped;
+        }
+        if (getStringPool()==null || ownStringPool) {
+            // The pool stays in use while the view decodes, so it is replaced on the next open
+            setStringPool(new StringPool());
+            ownStringPool = true;
+        }
+        modules = new ModuleTable();
+        processUuids = null;
+        List<Extent> extents = new ArrayList<>();
+        try (JsonParser parser = openParser(0, data.limit(), getProgressListener())) {
+            catalogue = scan(parser, extents);
+        }
+        toByteOffsets(extents);
+        return catalogue;
+    }
+
+    /**
+     * Decodes every process and product in the catalogue that has not yet been decoded,
+     * along with any process used by its products, and then releases the mapped file.
+     * @exception IOException if a process or product cannot be decoded
+     */
+    public void loadAll() throws IOException {
+        if (data==null) {
+            return;
+        }
+        for (AkerProcess pro : catalogue.getProcesses()) {
+            loadProcess(pro);
+        }
+        for (Product prod : catalogue.getProducts()) {
+            if (prod instanceof LazyProduct) {
+                ((LazyProduct) prod).decodeIfNeeded();
+            }
+            for (AkerProcess pro : prod.getProcesses()) {
+                loadProcess(pro);
+            }
+        }
+        data = null;
+        processUuids = null;
+    }
+
+    private static void loadProcess(AkerProcess pro) throws IOException {
+        if (pro instanceof LazyProcess) {
+            ((LazyProcess) pro).decodeIfNeeded();
+        }
+    }
+
+    private JsonParser openParser(int start, int end) {
+        return openParser(start, end, null);
+    }
+
+    private JsonParser openParser(int start, int end, LongConsumer progressListener) {
+        ByteBuffer slice = data.duplicate();
+        slice.limit(end).position(start);
+        InputStream in = new BufferInputStream(slice.slice());
+        if (progressListener!=null) {
+            in = new ProgressInputStream(in, progressListener);
+        }
+        return createParser(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+
+    private Catalogue scan(JsonParser parser, List<Extent> extents) throws IOException {
+        Event event = next(parser);
+        if (event!=Event.START_OBJECT) {
+            throw exception("Expected a JSON object, but got "+valueType(event));
+        }
+        Catalogue catalogue = null;
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            event = next(parser);
+            if (key.equals("catalogue")) {
+                expect(event, Event.START_OBJECT, key);
+                catalogue = scanCatalogue(parser, extents);
+            } else {
+                skipValue(parser, event);
+            }
+        }
+        return required(catalogue, "catalogue");
+    }
+
+    private Catalogue scanCatalogue(JsonParser parser, List<Extent> extents) throws IOException {
+        Catalogue catalogue = new Catalogue();
+        String limsId = null, pipeline = null, url = null;
+        List<AkerProcess> processes = null;
+        List<Product> products = null;
+        List<String> pendingUuids = new ArrayList<>();
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "lims_id":
+                    limsId = readString(parser, key);
+                    break;
+                case "pipeline":
+                    pipeline = readString(parser, key);
+                    break;
+                case "url":
+                    url = readString(parser, key);
+                    break;
+                case "processes":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    processes = new ArrayList<>();
+                    while (nextObject(parser, key)) {
+                        processes.add(scanProcess(parser, startExtent(parser, extents)));
+                    }
+                    processUuids = indexProcesses(processes);
+                    break;
+                case "products":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    products = new ArrayList<>();
+                    while (nextObject(parser, key)) {
+                        products.add(scanProduct(parser, startExtent(parser, extents),
+                                processes==null ? pendingUuids : null));
+                    }
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        catalogue.setLimsId(required(limsId, "lims_id"));
+        catalogue.setPipeline(required(pipeline, "pipeline"));
+        catalogue.setUrl(required(url, "url"));
+        catalogue.setModules(modules.getModules());
+        catalogue.setProcesses(required(processes, "processes"));
+        catalogue.setProducts(required(products, "products"));
+        for (String uuid : pendingUuids) {
+            findProcess(uuid);
+        }
+        return catalogue;
+    }
+
+    /** Records the start of the object whose {@code START_OBJECT} event has just been read. */
+    private static Extent startExtent(JsonParser parser, List<Extent> extents) {
+        Extent extent = new Extent();
+        extent.start = parser.getLocation().getStreamOffset() - 1;
+        extents.add(extent);
+        return extent;
+    }
+
+    /**
+     * Scans a process, reading its name and UUID and the modules it uses,
+     * and checking the fields that will be decoded later.
+     */
+    private AkerProcess scanProcess(JsonParser parser, Extent extent) throws IOException {
+        String name = null, uuid = null, processClass = null;
+        Integer tat = null;
+        Boolean hasPairs = null;
+        List<ModuleParam> params = new ArrayList<>();
+        String key;
+        while ((key = nextKey(parser))!=null) {
+            switch (key) {
+                case "name":
+                    name = readString(parser, key);
+                    break;
+                case "uuid":
+                    uuid = readString(parser, key);
+                    break;
+                case "TAT":
+                    tat = readInt(parser, key);
+                    break;
+                case "process_class":
+                    processClass = readString(parser, key);
+                    break;
+                case "process_module_pairings":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    while (nextObject(parser, key)) {
+                        readPair(parser, modules);
+                    }
+                    hasPairs = true;
+                    break;
+                case "module_parameters":
+                    expect(next(parser), Event.START_ARRAY, key);
+                    while (nextObject(parser, key)) {
+                        params.add(readParam(parser));
+                    }
+                    break;
+                default:
+                    skipValue(parser, next(parser));
+            }
+        }
+        extent.end = parser.getLocation().getStreamOffset();
+        required(tat, "TAT");
+        required(processClass, "process_class");
+        required(hasPairs, "process_module_pairings");
+        for (ModuleParam param : params) {
+            if (!param.applyTo(modules)) {
+                throw exception("Param given for unlisted module: " + param.getName());
+            }
+        }
+        return new LazyProcess(this, required(name, "name"), required(uuid, "uuid"), extent);
+    }
+
+    /**
+     * Scans a product, reading its name and UUID, and checking the fields that will be decoded later.
+     * The process UUIDs it lists are looked up at once, unless they are to be added to the given list
+     * because the processes have not been scanned yet.
+     */
+    private Product scanProduct(JsonParser parser, Extent extent, List<String> pendingUuids) throws IOException {
+        ProductEntry entry = readProduct(parser);
+        extent.end = parser.getLocation().getStreamOffset();
+        for (String processUuid : entry.getProcessUuids()) {
+            if (pendingUuids!=null) {
+                pendingUuids.add(processUuid);
+            } else {
+                findProcess(processUuid);
+            }
+        }
+        Product prod = entry.getProduct();
+        return new LazyProduct(this, prod.getName(), prod.getUuid(), extent);
+    }
+
+    /**
+     * Converts the recorded character offsets to byte offsets in the UTF-8 data, in a single pass.
+     * The extents are listed in the order they occur in the file.
+     */
+    private void toByteOffsets(List<Extent> extents) {
+        long charPos = 0;
+        int bytePos = 0;
+        for (Extent extent : extents) {
+            for (int i = 0; i < 2; ++i) {
+                long target = (i==0 ? extent.start : extent.end);
+                while (charPos < target) {
+                    int b = data.get(bytePos) & 0xff;
+                    if (b < 0x80) {
+                        bytePos += 1;
+                        charPos += 1;
+                    } else if (b < 0xe0) {
+                        bytePos += 2;
+                        charPos += 1;
+                    } else if (b < 0xf0) {
+                        bytePos += 3;
+                        charPos += 1;
+                    } else {
+                        bytePos += 4;
+                        charPos += 2; // a surrogate pair
+                    }
+                }
+                if (i==0) {
+                    extent.start = bytePos;
+                } else {
+                    extent.end = bytePos;
+                }
+            }
+        }
+    }
+
+    private JsonParser openExtent(Extent extent) throws IOException {
+        JsonParser parser = openParser((int) extent.start, (int) extent.end);
+        if (next(parser)!=Event.START_OBJECT) {
+            parser.close();
+            throw exception("Expected object at offset "+extent.start);
+        }
+        return parser;
+    }
+
+    private void decode(LazyProcess pro) throws IOException {
+        Integer tat = null;
+        String processClass = null;
+        List<ModulePair> modulePairs = null;
+        try (JsonParser parser = openExtent(pro.extent)) {
+            String key;
+            while ((key = nextKey(parser))!=null) {
+                switch (key) {
+                    case "TAT":
+                        tat = readInt(parser, key);
+                        break;
+                    case "process_class":
+                        processClass = pooled(readString(parser, key));
+                        break;
+                    case "process_module_pairings":
+                        expect(next(parser), Event.START_ARRAY, key);
+                        modulePairs = new ArrayList<>();
+                        while (nextObject(parser, key)) {
+                            modulePairs.add(readPair(parser, modules));
+                        }
+                        break;
+                    default:
+                        skipValue(parser, next(parser));
+                }
+            }
+        }
+        pro.loaded(required(tat, "TAT"), required(processClass, "process_class"),
+                required(modulePairs, "process_module_pairings"));
+    }
+
+    private void decode(LazyProduct prod) throws IOException {
+        ProductEntry entry;
+        try (JsonParser parser = openExtent(prod.extent)) {
+            entry = readProduct(parser);
+        }
+        List<AkerProcess> processes = new ArrayList<>(entry.getProcessUuids().size());
+        for (String uuid : entry.getProcessUuids()) {
+            processes.add(findProcess(uuid));
+        }
+        Product read = entry.getProduct();
+        prod.loaded(read.getDescription(), read.getProductVersion(), read.getAvailability(), read.getBioType(),
+                processes);
+    }
+
+    /** Finds a process by the UUID it has in the file. */
+    private AkerProcess findProcess(String uuid) throws IOException {
+        AkerProcess pro = processUuids.get(uuid);
+        if (pro==null) {
+            throw exception("Unknown process uuid: "+uuid);
+        }
+        return pro;
+    }
+
+    /**
+     * A process whose details apart from its name and UUID are decoded when first accessed.
+     * Until then it refers to the view it came from.
+     */
+    private static class LazyProcess extends AkerProcess {
+        private MappedCatalogueView view;
+        private Extent extent;
+
+        LazyProcess(MappedCatalogueView view, String name, String uuid, Extent extent) {
+            super(name);
+            setUuid(uuid);
+            this.view = view;
+            this.extent = extent;
+        }
+
+        private synchronized void decodeIfNeeded() throws IOException {
+            if (view!=null) {
+                view.decode(this);
+            }
+        }
+
+        private void load() {
+            try {
+                decodeIfNeeded();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void loaded(int tat, String processClass, List<ModulePair> modulePairs) {
+            super.setTat(tat);
+            super.setProcessClass(processClass);
+            super.setModulePairs(modulePairs);
+            view = null;
+            extent = null;
+        }
+
+        @Override
+        public int getTat() {
+            load();
+            return super.getTat();
+        }
+
+        @Override
+        public void setTat(int tat) {
+            load();
+            super.setTat(tat);
+        }
+
+        @Override
+        public String getProcessClass() {
+            load();
+            return super.getProcessClass();
+        }
+
+        @Override
+        public void setProcessClass(String processClass) {
+            load();
+            super.setProcessClass(processClass);
+        }
+
+        @Override
+        public List<ModulePair> getModulePairs() {
+            load();
+            return super.getModulePairs();
+        }
+
+        @Override
+        public void setModulePairs(List<ModulePair> modulePairs) {
+            load();
+            super.setModulePairs(modulePairs);
+        }
+    }
+
+    /**
+     * A product whose details apart from its name and UUID are decoded when first accessed.
+     * Until then it refers to the view it came from.
+     */
+    private static class LazyProduct extends Product {
+        private MappedCatalogueView view;
+        private Extent extent;
+
+        LazyProduct(MappedCatalogueView view, String name, String uuid, Extent extent) {
+            super(name);
+            setUuid(uuid);
+            this.view = view;
+            this.extent = extent;
+        }
+
+        private synchronized void decodeIfNeeded() throws IOException {
+            if (view!=null) {
+                view.decode(this);
+            }
+        }
+
+        private void load() {
+            try {
+                decodeIfNeeded();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void loaded(String description, int productVersion, int availability, String bioType,
+                            List<AkerProcess> processes) {
+            super.setDescription(description);
+            super.setProductVersion(productVersion);
+            super.setAvailability(availability);
+            super.setBioType(bioType);
+            super.setProcesses(processes);
+            view = null;
+            extent = null;
+        }
+
+        @Override
+        public String getDescription() {
+            load();
+            return super.getDescription();
+        }
+
+        @Override
+        public void setDescription(String description) {
+            load();
+            super.setDescription(description);
+        }
+
+        @Override
+        public int getProductVersion() {
+            load();
+            return super.getProductVersion();
+        }
+
+        @Override
+        public void setProductVersion(int productVersion) {
+            load();
+            super.setProductVersion(productVersion);
+        }
+
+        @Override
+        public int getAvailability() {
+            load();
+            return super.getAvailability();
+        }
+
+        @Override
+        public void setAvailability(int availability) {
+            load();
+            super.setAvailability(availability);
+        }
+
+        @Override
+        public String getBioType() {
+            load();
+            return super.getBioType();
+        }
+
+        @Override
+        public void setBioType(String bioType) {
+            load();
+            super.setBioType(bioType);
+        }
+
+        @Override
+        public List<AkerProcess> getProcesses() {
+            load();
+            return super.getProcesses();
+        }
+
+        @Override
+        public void setProcesses(List<AkerProcess> processes) {
+            load();
+            super.setProcesses(processes);
+        }
+    }
+
+    /** An input stream reading the remaining bytes of a buffer. */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return (buffer.hasRemaining() ? buffer.get() & 0xff : -1);
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len==0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.Module;
+
+/**
+ * A module parameter read from a process, which is held until the process has been fully read.
+ * @author dr6
+ */
+class ModuleParam {
+    private final String name;
+    private final Integer minValue, maxValue;
+
+    ModuleParam(String name, Integer minValue, Integer maxValue) {
+        this.name = name;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /** The name of the module this parameter is for. */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Applies this parameter to its module, if the parameter has a min or max value.
+     * @param modules the modules seen so far
+     * @return false if the parameter has a value but its module has not been seen; otherwise true
+     */
+    public boolean applyTo(ModuleTable modules) {
+        if (minValue==null && maxValue==null) {
+            return true;
+        }
+        Module module = modules.find(name);
+        if (module==null) {
+            return false;
+        }
+        module.setMinValue(minValue);
+        module.setMaxValue(maxValue);
+        return true;
+    }
+}
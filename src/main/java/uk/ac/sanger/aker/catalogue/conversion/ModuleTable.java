@@ -0,0 +1,61 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import uk.ac.sanger.aker.catalogue.model.Module;
+
+import java.util.*;
+
+/**
+ * The modules found so far while importing a catalogue, listed in the order they were first seen
+ * and indexed by name.
+ * @author dr6
+ */
+class ModuleTable {
+    private final List<Module> modules = new ArrayList<>();
+    private final Map<String, Module> moduleNames = new HashMap<>();
+
+    /**
+     * Gets the module with the given name, creating and recording it if it has not been seen before.
+     * A null name means the {@link Module#START START} module in the {@code from} position of a pair,
+     * and the {@link Module#END END} module in the {@code to} position.
+     * @param name the name of the module, or null
+     * @param from true if the module is the {@code from} end of a pair
+     * @return the module for the given name
+     */
+    public Module get(String name, boolean from) {
+        if (name==null) {
+            return (from ? Module.START : Module.END);
+        }
+        Module mod = moduleNames.get(name);
+        if (mod==null) {
+            mod = new Module(name);
+            modules.add(mod);
+            moduleNames.put(name, mod);
+        }
+        return mod;
+    }
+
+    /**
+     * Records an existing module, if no module with its name has been seen before.
+     * The {@link Module#isEndpoint endpoint} modules are ignored.
+     * @param module the module to record
+     */
+    public void add(Module module) {
+        if (!module.isEndpoint() && moduleNames.putIfAbsent(module.getName(), module)==null) {
+            modules.add(module);
+        }
+    }
+
+    /**
+     * Gets the existing module with the given name.
+     * @param name the name of the module
+     * @return the module with the given name, or null if no such module has been seen
+     */
+    public Module find(String name) {
+        return moduleNames.get(name);
+    }
+
+    /** The modules recorded, in the order they were first seen. */
+    public List<Module> getModules() {
+        return this.modules;
+    }
+}
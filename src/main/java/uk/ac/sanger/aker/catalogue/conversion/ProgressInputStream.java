@@ -0,0 +1,75 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.function.LongConsumer;
+
+/**
+ * An input stream that tells a listener how many bytes have been read through it.
+ * It also checks whether the reading thread has been interrupted, and if so stops with
+ * an {@link InterruptedIOException}, so that a long read can be cancelled.
+ * @author dr6
+ */
+class ProgressInputStream extends FilterInputStream {
+    /** The listener is told of progress each time at least this many more bytes have been read. */
+    private static final long REPORT_INTERVAL = 1<<16;
+
+    private final LongConsumer listener;
+    private long count, reported;
+
+    ProgressInputStream(InputStream in, LongConsumer listener) {
+        super(in);
+        this.listener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkInterrupted();
+        int b = super.read();
+        if (b >= 0) {
+            advance(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkInterrupted();
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            advance(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkInterrupted();
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            advance(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Reading was interrupted");
+        }
+    }
+
+    private void advance(long n) {
+        count += n;
+        if (count - reported >= REPORT_INTERVAL) {
+            reported = count;
+            listener.accept(count);
+        }
+    }
+}
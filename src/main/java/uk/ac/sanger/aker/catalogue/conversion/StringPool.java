@@ -0,0 +1,74 @@
+package uk.ac.sanger.aker.catalogue.conversion;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of canonical strings used while importing a catalogue.
+ * Fields with few distinct values (such as a process's class or a product's biomaterial type)
+ * are passed through the pool so that all the imported objects share one copy of each value.
+ * The pool keeps count of how many copies it has eliminated, and roughly how much heap it has saved.
+ * <p>A pool is safe to use from multiple threads at once.
+ * @author dr6
+ */
+public class StringPool {
+    /** Files at least this size are imported with a string pool by default. */
+    public static final long DEFAULT_FILE_SIZE = 1L << 20;
+
+    /** Approximate size in bytes of a string object and its backing array, apart from the characters. */
+    private static final int STRING_OVERHEAD = 40;
+
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * Gets the canonical copy of the given string.
+     * @param string the string to intern (may be null)
+     * @return the pooled string equal to the given string; or null if the given string is null
+     */
+    public String intern(String string) {
+        if (string==null) {
+            return null;
+        }
+        lookups.increment();
+        String existing = strings.putIfAbsent(string, string);
+        if (existing==null) {
+            return string;
+        }
+        if (existing!=string) {
+            hits.increment();
+            savedBytes.add(estimateSize(string));
+        }
+        return existing;
+    }
+
+    /**
+     * Estimates the heap used by a string of the given length, assuming two bytes per character.
+     */
+    private static long estimateSize(String string) {
+        return STRING_OVERHEAD + 2L * string.length();
+    }
+
+    /** The number of strings passed to {@link #intern intern}. */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /** The number of distinct strings held in the pool. */
+    public int size() {
+        return strings.size();
+    }
+
+    /** The number of duplicate copies replaced by a pooled string. */
+    public long getDuplicates() {
+        return hits.sum();
+    }
+
+    /** The estimated number of bytes of heap no longer used by duplicate copies. */
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+}
@@ -0,0 +1,395 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A directed graph over a fixed collection of items, stored compactly for fast traversal.
+ * Each item is given an int id (its position in the collection) once, when the graph is built.
+ * The edges are held in compressed sparse row form: the followers of the item with id {@code i} are
+ * {@code followers[followerOffsets[i]]} up to (but not including) {@code followers[followerOffsets[i+1]]},
+ * and the preceders are held the same way.
+ * Nothing is boxed or hashed once the graph has been built.
+ * <p>Repeated edges are stored once. The followers of each item are kept in the order their edges were given.
+ * @param <E> the type of item in the graph
+ * @author dr6
+ */
+public class CompactGraph<E> {
+    private final List<E> items;
+    private final Map<E, Integer> ids;
+    private final int[] followerOffsets, followers;
+    private final int[] precederOffsets, preceders;
+
+    /**
+     * Builds a graph of the given items, with an edge for each of the given relations.
+     * The {@code relations} sequence will only be iterated once.
+     * @param items the distinct items in the graph
+     * @param relations a sequence of some kind of object representing an edge {@code X -> Y}
+     * @param firstExtractor the function that will extract {@code X}, the preceder, from the relation
+     * @param secondExtractor the function that will extract {@code Y}, the follower, from the relation
+     * @param <P> the type of object used to represent the relation
+     * @exception IllegalArgumentException if the items are not distinct, or a relation refers to
+     *            an item that is not in the graph
+     */
+    public <P> CompactGraph(Collection<? extends E> items, Iterable<? extends P> relations,
+                            Function<? super P, ? extends E> firstExtractor,
+                            Function<? super P, ? extends E> secondExtractor) {
+        this.items = new ArrayList<>(items);
+        final int n = this.items.size();
+        this.ids = new HashMap<>(2*n);
+        for (int i = 0; i < n; ++i) {
+            if (ids.put(this.items.get(i), i)!=null) {
+                throw new IllegalArgumentException("Duplicate item: "+this.items.get(i));
+            }
+        }
+        int[] sources = new int[Math.max(n, 4)];
+        int[] targets = new int[sources.length];
+        int m = 0;
+        for (P relation : relations) {
+            if (m==sources.length) {
+                sources = Arrays.copyOf(sources, 2*m);
+                targets = Arrays.copyOf(targets, 2*m);
+            }
+            sources[m] = requireId(firstExtractor.apply(relation));
+            targets[m] = requireId(secondExtractor.apply(relation));
+            ++m;
+        }
+        int[][] forward = compress(n, sources, targets, m);
+        int[][] backward = compress(n, targets, sources, m);
+        this.followerOffsets = forward[0];
+        this.followers = forward[1];
+        this.precederOffsets = backward[0];
+        this.preceders = backward[1];
+    }
+
+    private int requireId(E item) {
+        Integer id = ids.get(item);
+        if (id==null) {
+            throw new IllegalArgumentException("Relation refers to an item not in the graph: "+item);
+        }
+        return id;
+    }
+
+    /**
+     * Groups edges by their source, dropping repeated edges.
+     * @return an array containing the offsets array and the targets array
+     */
+    private static int[][] compress(int n, int[] sources, int[] targets, int m) {
+        int[] offsets = new int[n+1];
+        for (int k = 0; k < m; ++k) {
+            ++offsets[sources[k]+1];
+        }
+        for (int i = 0; i < n; ++i) {
+            offsets[i+1] += offsets[i];
+        }
+        int[] next = Arrays.copyOf(offsets, n);
+        int[] grouped = new int[m];
+        for (int k = 0; k < m; ++k) {
+            grouped[next[sources[k]]++] = targets[k];
+        }
+        // Remove repeated edges, keeping the first of each
+        int[] seen = new int[n];
+        Arrays.fill(seen, -1);
+        int length = 0;
+        int start = 0;
+        for (int i = 0; i < n; ++i) {
+            int end = offsets[i+1];
+            offsets[i] = length;
+            for (int k = start; k < end; ++k) {
+                int target = grouped[k];
+                if (seen[target]!=i) {
+                    seen[target] = i;
+                    grouped[length++] = target;
+                }
+            }
+            start = end;
+        }
+        offsets[n] = length;
+        return new int[][] { offsets, (length==m ? grouped : Arrays.copyOf(grouped, length)) };
+    }
+
+    /** The number of items in the graph. */
+    public int size() {
+        return items.size();
+    }
+
+    /** The item with the given id. */
+    public E item(int id) {
+        return items.get(id);
+    }
+
+    /**
+     * Gets the id of the given item.
+     * @param item an item
+     * @return the id of the item, or -1 if it is not in the graph
+     */
+    public int id(E item) {
+        Integer id = ids.get(item);
+        return (id==null ? -1 : id);
+    }
+
+    /** The number of items that the item with the given id directly leads to. */
+    public int followerCount(int id) {
+        return followerOffsets[id+1] - followerOffsets[id];
+    }
+
+    /** The id of the {@code k}th item that the item with the given id directly leads to. */
+    public int follower(int id, int k) {
+        return followers[followerOffsets[id] + k];
+    }
+
+    /** The number of items that directly lead to the item with the given id. */
+    public int precederCount(int id) {
+        return precederOffsets[id+1] - precederOffsets[id];
+    }
+
+    /** The id of the {@code k}th item that directly leads to the item with the given id. */
+    public int preceder(int id, int k) {
+        return preceders[precederOffsets[id] + k];
+    }
+
+    /**
+     * Finds the items that can be reached from the item with the given id by following edges forwards,
+     * or, if {@code forwards} is false, the items that can reach it by following edges.
+     * Each item is visited at most once, so this takes time linear in the size of the graph, whether or not
+     * the graph contains cycles.
+     * @param id the id of the item to search from
+     * @param forwards whether to follow edges forwards (to followers) or backwards (to preceders)
+     * @return the set of ids of the items found, including the given item
+     */
+    public BitSet reachable(int id, boolean forwards) {
+        final int[] offsets = (forwards ? followerOffsets : precederOffsets);
+        final int[] targets = (forwards ? followers : preceders);
+        BitSet found = new BitSet(size());
+        int[] stack = new int[size()];
+        int depth = 0;
+        found.set(id);
+        stack[depth++] = id;
+        while (depth > 0) {
+            int v = stack[--depth];
+            for (int k = offsets[v]; k < offsets[v+1]; ++k) {
+                int w = targets[k];
+                if (!found.get(w)) {
+                    found.set(w);
+                    stack[depth++] = w;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Sorts the items topologically, using Kahn's algorithm with a counter of unsorted preceders for each item.
+     * Items with no preceders come first, in their original order; then each item's followers are
+     * added once all their preceders have been added.
+     * @return the ids of the items in sorted order
+     * @exception CycleException if the graph contains a cycle
+     */
+    public int[] topologicalOrder() {
+        int[] order = kahn(false);
+        if (order==null) {
+            throw new CycleException(cycleItems());
+        }
+        return order;
+    }
+
+    /**
+     * Orders the items as {@link #topologicalOrder} does, but without failing if the graph contains cycles.
+     * Whenever no item is left without unsorted preceders, the unsorted item with the lowest id is taken next,
+     * as if the edges leading to it had been removed.
+     * @return the ids of all the items, in sorted order if the graph has no cycles
+     */
+    public int[] orderBreakingCycles() {
+        return kahn(true);
+    }
+
+    /**
+     * Kahn's algorithm.
+     * @param breakCycles whether to break cycles by taking the lowest unsorted item when none is ready
+     * @return the ids of the items in order, or null if there was a cycle and {@code breakCycles} was false
+     */
+    private int[] kahn(boolean breakCycles) {
+        final int n = size();
+        int[] remaining = new int[n];
+        int[] order = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; ++i) {
+            remaining[i] = precederCount(i);
+            if (remaining[i]==0) {
+                order[length++] = i;
+            }
+        }
+        int lowest = 0;
+        for (int j = 0; j < n; ++j) {
+            if (j==length) {
+                if (!breakCycles) {
+                    return null;
+                }
+                while (remaining[lowest] <= 0) {
+                    ++lowest;
+                }
+                remaining[lowest] = 0;
+                order[length++] = lowest;
+            }
+            int id = order[j];
+            for (int k = followerOffsets[id]; k < followerOffsets[id+1]; ++k) {
+                int fol = followers[k];
+                if (--remaining[fol]==0) {
+                    order[length++] = fol;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Finds the strongly connected components of the graph, using an iterative version of Tarjan's algorithm,
+     * so that deep graphs cannot overflow the stack.
+     * Each item is in exactly one component. Any cycle in the graph lies entirely within one component.
+     * The components are listed in reverse topological order: no edge leads from a component to an earlier one.
+     * @return the ids of the items in each component
+     */
+    public List<int[]> stronglyConnectedComponents() {
+        final int n = size();
+        int[] index = new int[n];
+        Arrays.fill(index, -1);
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] calls = new int[n];
+        int[] cursors = new int[n];
+        int callDepth = 0;
+        int counter = 0;
+        List<int[]> components = new ArrayList<>();
+        for (int root = 0; root < n; ++root) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            calls[callDepth] = root;
+            cursors[callDepth] = followerOffsets[root];
+            ++callDepth;
+            while (callDepth > 0) {
+                int v = calls[callDepth-1];
+                if (cursors[callDepth-1] < followerOffsets[v+1]) {
+                    int w = followers[cursors[callDepth-1]++];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        calls[callDepth] = w;
+                        cursors[callDepth] = followerOffsets[w];
+                        ++callDepth;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                --callDepth;
+                if (callDepth > 0) {
+                    int u = calls[callDepth-1];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+                if (low[v]==index[v]) {
+                    int start = stackSize;
+                    do {
+                        --start;
+                        onStack[stack[start]] = false;
+                    } while (stack[start]!=v);
+                    components.add(Arrays.copyOfRange(stack, start, stackSize));
+                    stackSize = start;
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Finds one cycle in each strongly connected component that contains a cycle.
+     * Each cycle is found by a breadth-first search within its component, so it is as short as any cycle
+     * through its first item, and the whole search takes time linear in the size of the graph.
+     * @return the ids of the items in each cycle found, in order; the last item in each cycle leads back to the first
+     */
+    public List<int[]> findCycles() {
+        final int n = size();
+        List<int[]> components = stronglyConnectedComponents();
+        int[] componentOf = new int[n];
+        for (int c = 0; c < components.size(); ++c) {
+            for (int id : components.get(c)) {
+                componentOf[id] = c;
+            }
+        }
+        int[] parent = new int[n];
+        Arrays.fill(parent, -1);
+        int[] queue = new int[n];
+        List<int[]> cycles = new ArrayList<>();
+        for (int c = components.size()-1; c >= 0; --c) {
+            int[] component = components.get(c);
+            int root = component[0];
+            for (int id : component) {
+                root = Math.min(root, id);
+            }
+            if (component.length==1 && !hasFollower(root, root)) {
+                continue;
+            }
+            // Breadth-first search from the root until an edge leads back to it
+            int head = 0, tail = 0;
+            queue[tail++] = root;
+            parent[root] = root;
+            int last = -1;
+            while (last < 0) {
+                int v = queue[head++];
+                for (int k = followerOffsets[v]; k < followerOffsets[v+1]; ++k) {
+                    int w = followers[k];
+                    if (w==root) {
+                        last = v;
+                        break;
+                    }
+                    if (componentOf[w]==c && parent[w] < 0) {
+                        parent[w] = v;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            int length = 1;
+            for (int v = last; v!=root; v = parent[v]) {
+                ++length;
+            }
+            int[] cycle = new int[length];
+            for (int v = last; length > 0; v = parent[v]) {
+                cycle[--length] = v;
+            }
+            cycles.add(cycle);
+        }
+        return cycles;
+    }
+
+    /**
+     * Finds one cycle in each strongly connected component that contains a cycle, as lists of items.
+     * @return the items in each cycle found
+     * @see #findCycles
+     */
+    public List<List<E>> cycleItems() {
+        List<List<E>> cycles = new ArrayList<>();
+        for (int[] cycle : findCycles()) {
+            List<E> cycleItems = new ArrayList<>(cycle.length);
+            for (int id : cycle) {
+                cycleItems.add(item(id));
+            }
+            cycles.add(cycleItems);
+        }
+        return cycles;
+    }
+
+    private boolean hasFollower(int id, int follower) {
+        for (int k = followerOffsets[id]; k < followerOffsets[id+1]; ++k) {
+            if (followers[k]==follower) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * An exception indicating that a graph could not be sorted because it contains cycles.
+ * The exception holds one cycle from each part of the graph that contains any.
+ * @author dr6
+ */
+public class CycleException extends IllegalArgumentException {
+    private final List<List<?>> cycles;
+
+    /**
+     * Creates an exception describing the given cycles.
+     * @param cycles the items in each cycle, in order; the last item in each leads back to the first
+     */
+    public CycleException(List<? extends List<?>> cycles) {
+        super(describe(cycles));
+        this.cycles = new ArrayList<>(cycles);
+    }
+
+    /**
+     * Gets the cycles found in the graph.
+     * @return a list of cycles, each of which is a list of items
+     */
+    public List<List<?>> getCycles() {
+        return this.cycles;
+    }
+
+    private static String describe(List<? extends List<?>> cycles) {
+        return "Graph contains cycles: " + describeCycles(cycles, String::valueOf);
+    }
+
+    /**
+     * Describes some cycles, separated by semicolons, such as {@code "A -> B -> A; C -> C"}.
+     * @param cycles the items in each cycle, in order
+     * @param describer the function giving the description of each item
+     * @param <E> the type of item in the cycles
+     * @return a description of the cycles
+     */
+    public static <E> String describeCycles(List<? extends List<? extends E>> cycles,
+                                            Function<? super E, String> describer) {
+        return cycles.stream()
+                .map(cycle -> describeCycle(cycle, describer))
+                .collect(Collectors.joining("; "));
+    }
+
+    /**
+     * Describes a cycle as a sequence of its items, returning to the first, such as {@code "A -> B -> A"}.
+     */
+    private static <E> String describeCycle(List<? extends E> cycle, Function<? super E, String> describer) {
+        StringBuilder sb = new StringBuilder();
+        for (E item : cycle) {
+            sb.append(describer.apply(item)).append(" -> ");
+        }
+        return sb.append(describer.apply(cycle.get(0))).toString();
+    }
+}
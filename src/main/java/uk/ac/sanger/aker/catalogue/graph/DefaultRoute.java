@@ -0,0 +1,93 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import uk.ac.sanger.aker.catalogue.model.Module;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The result of checking the default route through a process, found by a {@link DefaultRouteAnalyser}.
+ * A valid default route is a single chain of default paths leading from START to END, with no other default paths.
+ * If the route is not valid, the result gives the reason and the modules responsible.
+ * @author dr6
+ */
+public class DefaultRoute {
+    /** Whether the default route is valid, or why not */
+    public enum Status {
+        /** There is a single default route from START to END */
+        VALID,
+        /** More than one default path leads from the same module */
+        BRANCHING,
+        /** The default route stops at a module with no default path leading from it */
+        DEAD_END,
+        /** The default route goes round in a loop, and never reaches END */
+        CYCLE,
+        /** Some default paths are not on the default route from START to END */
+        UNREACHABLE,
+    }
+
+    /** The result for a valid default route */
+    public static final DefaultRoute VALID = new DefaultRoute(Status.VALID, Collections.emptyList());
+
+    private final Status status;
+    private final List<Module> modules;
+
+    DefaultRoute(Status status, List<Module> modules) {
+        this.status = status;
+        this.modules = modules;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    public boolean isValid() {
+        return (this.status==Status.VALID);
+    }
+
+    /**
+     * The modules responsible for the default route being invalid:
+     * <ul>
+     *     <li>for {@link Status#BRANCHING BRANCHING}, the modules with more than one default path leading from them;</li>
+     *     <li>for {@link Status#DEAD_END DEAD_END}, the module where the route stops (which is START if there
+     *     is no default path from START);</li>
+     *     <li>for {@link Status#CYCLE CYCLE}, the modules in the loop, in order;</li>
+     *     <li>for {@link Status#UNREACHABLE UNREACHABLE}, the modules with default paths leading from them that
+     *     are not on the route.</li>
+     * </ul>
+     * @return the modules responsible, or an empty list if the route is valid
+     */
+    public List<Module> getModules() {
+        return this.modules;
+    }
+
+    /**
+     * Describes what is wrong with the default route.
+     * @return a description of the problem, or an empty string if the route is valid
+     */
+    public String describe() {
+        switch (status) {
+            case BRANCHING:
+                return "More than one default route leads from " + names(", ");
+            case DEAD_END:
+                return "The default route stops at " + names(", ");
+            case CYCLE:
+                return "The default route goes round in a loop: "
+                        + CycleException.describeCycles(Collections.singletonList(modules), Module::getName);
+            case UNREACHABLE:
+                return "Default routes from " + names(", ") + " are not on the route from START to END";
+            default:
+                return "";
+        }
+    }
+
+    private String names(String separator) {
+        return modules.stream().map(Module::getName).collect(Collectors.joining(separator));
+    }
+
+    @Override
+    public String toString() {
+        return (isValid() ? "Valid default route" : describe());
+    }
+}
@@ -0,0 +1,132 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import uk.ac.sanger.aker.catalogue.model.Module;
+import uk.ac.sanger.aker.catalogue.model.ModulePair;
+
+import java.util.*;
+
+/**
+ * Checks the default route through a process, giving the reason and the modules responsible if it is invalid.
+ * <p>The default paths are held as a compact int graph: each module on a default path is given an int id
+ * (START is 0 and END is 1), and the default path leading from each module is held as the id of the module
+ * it leads to. The route is then followed from START, so each check takes time linear in the number of paths.
+ * <p>The arrays and map used are kept and reused from one check to the next, so a valid route can be checked
+ * without allocating anything but (for large processes) the boxed ids. An analyser is not safe to use
+ * from more than one thread at a time.
+ * @see DefaultRouteCache
+ * @author dr6
+ */
+public class DefaultRouteAnalyser {
+    private static final int START = 0, END = 1;
+
+    private final Map<Module, Integer> ids = new IdentityHashMap<>();
+    private Module[] modules = new Module[16];
+    /** The id of the module that the default path from each module leads to, or -1 */
+    private int[] next = new int[16];
+    private boolean[] marked = new boolean[16];
+    private int size;
+
+    /**
+     * Checks the default route through the given paths.
+     * @param pairs the paths of a process
+     * @return the result of the check
+     */
+    public DefaultRoute analyse(List<ModulePair> pairs) {
+        try {
+            return check(pairs);
+        } finally {
+            // Don't keep hold of the modules
+            Arrays.fill(modules, 0, size, null);
+            ids.clear();
+            size = 0;
+        }
+    }
+
+    private DefaultRoute check(List<ModulePair> pairs) {
+        idOf(Module.START);
+        idOf(Module.END);
+        int numDefaults = 0;
+        boolean branching = false;
+        for (ModulePair pair : pairs) {
+            if (!pair.isDefaultPath()) {
+                continue;
+            }
+            ++numDefaults;
+            int from = idOf(pair.getFrom());
+            int to = idOf(pair.getTo());
+            if (next[from] < 0) {
+                next[from] = to;
+            } else {
+                branching = true;
+                marked[from] = true;
+            }
+        }
+        if (branching) {
+            return new DefaultRoute(DefaultRoute.Status.BRANCHING, markedModules());
+        }
+        // Follow the route from START, marking each module on it
+        int length = 0;
+        int cur = START;
+        while (cur!=END) {
+            if (marked[cur]) {
+                return new DefaultRoute(DefaultRoute.Status.CYCLE, cycleFrom(cur));
+            }
+            marked[cur] = true;
+            if (next[cur] < 0) {
+                return new DefaultRoute(DefaultRoute.Status.DEAD_END, Collections.singletonList(modules[cur]));
+            }
+            cur = next[cur];
+            ++length;
+        }
+        if (length==numDefaults) {
+            return DefaultRoute.VALID;
+        }
+        // Every module with a default path that is not on the route (including END)
+        List<Module> unreachable = new ArrayList<>();
+        for (int id = 0; id < size; ++id) {
+            if (!marked[id] && next[id] >= 0) {
+                unreachable.add(modules[id]);
+            }
+        }
+        return new DefaultRoute(DefaultRoute.Status.UNREACHABLE, unreachable);
+    }
+
+    /** Gets the id of the given module, giving it a new id if it does not have one. */
+    private int idOf(Module module) {
+        Integer id = ids.get(module);
+        if (id!=null) {
+            return id;
+        }
+        if (size==modules.length) {
+            int length = 2*size;
+            modules = Arrays.copyOf(modules, length);
+            next = Arrays.copyOf(next, length);
+            marked = Arrays.copyOf(marked, length);
+        }
+        modules[size] = module;
+        next[size] = -1;
+        marked[size] = false;
+        ids.put(module, size);
+        return size++;
+    }
+
+    private List<Module> markedModules() {
+        List<Module> found = new ArrayList<>();
+        for (int id = 0; id < size; ++id) {
+            if (marked[id]) {
+                found.add(modules[id]);
+            }
+        }
+        return found;
+    }
+
+    private List<Module> cycleFrom(int id) {
+        List<Module> cycle = new ArrayList<>();
+        int cur = id;
+        do {
+            cycle.add(modules[cur]);
+            cur = next[cur];
+        } while (cur!=id);
+        return cycle;
+    }
+}
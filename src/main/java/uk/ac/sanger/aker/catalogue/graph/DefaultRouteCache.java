@@ -0,0 +1,53 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import uk.ac.sanger.aker.catalogue.model.AkerProcess;
+import uk.ac.sanger.aker.catalogue.model.Catalogue;
+import uk.ac.sanger.aker.catalogue.model.CatalogueListener;
+
+import java.util.*;
+
+/**
+ * A cache of the {@link DefaultRoute default route} of each process.
+ * The result for a process is kept until the process is reported as changed,
+ * so the cache must be registered as a {@link CatalogueListener} with whatever reports changes to the catalogue.
+ * The cache is not safe to use from more than one thread; it is used on the AWT thread.
+ * @author dr6
+ */
+public class DefaultRouteCache implements CatalogueListener {
+    private final DefaultRouteAnalyser analyser = new DefaultRouteAnalyser();
+    private final Map<AkerProcess, DefaultRoute> routes = new HashMap<>();
+
+    /**
+     * Gets the default route of the given process, checking it if it is not in the cache.
+     * @param pro the process
+     * @return the result of checking the default route of the process
+     */
+    public DefaultRoute get(AkerProcess pro) {
+        DefaultRoute route = routes.get(pro);
+        if (route==null) {
+            route = analyser.analyse(pro.getModulePairs());
+            routes.put(pro, route);
+        }
+        return route;
+    }
+
+    @Override
+    public void catalogueReplaced(Catalogue catalogue) {
+        routes.clear();
+    }
+
+    @Override
+    public void itemsAdded(Collection<?> items) {
+        // New processes are checked when they are first needed
+    }
+
+    @Override
+    public void itemsRemoved(Collection<?> items) {
+        routes.keySet().removeAll(items);
+    }
+
+    @Override
+    public void itemChanged(Object item) {
+        routes.remove(item);
+    }
+}
@@ -0,0 +1,350 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import java.util.*;
+
+/**
+ * A topological order of a graph that is kept up to date as items and edges are added and removed,
+ * using the algorithm of Pearce and Kelly.
+ * Each item holds a distinct number, its position in the order, such that every edge leads from a lower
+ * number to a higher one.
+ * When an edge {@code X -> Y} is added with {@code X} already before {@code Y}, nothing needs to change.
+ * Otherwise only the <i>affected region</i> is searched: the items reachable from {@code Y} that are before {@code X},
+ * and the items leading to {@code X} that are after {@code Y}. Those items are reordered among their own positions,
+ * and no other item is moved.
+ * If {@code X} is reachable from {@code Y}, the edge closes a cycle. It cannot be placed in the order, so it is
+ * kept aside as a <i>back edge</i>: it still counts when looking for cycles, and it is placed in the order
+ * as soon as removing other edges makes that possible. A graph loaded with cycles is therefore held in full.
+ * <p>Removing an edge or item never invalidates the order. Only when there are back edges is more work needed,
+ * to see whether any of them can now be placed.
+ * Repeated edges are counted, so each one must be removed before the items are no longer linked.
+ * @param <E> the type of item
+ * @author dr6
+ */
+public class IncrementalTopologicalOrder<E> {
+    private static class Node<E> {
+        private final E item;
+        private int position;
+        private final List<Node<E>> followers = new ArrayList<>(), preceders = new ArrayList<>();
+        /** The items this item has back edges to, which are not placed in the order */
+        private final List<Node<E>> backFollowers = new ArrayList<>();
+        private boolean visited;
+
+        Node(E item, int position) {
+            this.item = item;
+            this.position = position;
+        }
+    }
+
+    /** An edge that closes a cycle, so it is not placed in the order. */
+    private static class BackEdge<E> {
+        private final Node<E> from, to;
+
+        BackEdge(Node<E> from, Node<E> to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final Map<E, Node<E>> nodes = new HashMap<>();
+    private final List<BackEdge<E>> backEdges = new ArrayList<>();
+    private int nextPosition;
+
+    /**
+     * Adds an item to the end of the order, if it is not already present.
+     * @param item the item to add
+     * @return true if the item was added; false if it was already present
+     */
+    public boolean addItem(E item) {
+        if (nodes.containsKey(item)) {
+            return false;
+        }
+        nodes.put(item, new Node<>(item, nextPosition++));
+        return true;
+    }
+
+    /**
+     * Removes an item and all its edges.
+     * @param item the item to remove
+     * @return true if the item was removed; false if it was not present
+     */
+    public boolean removeItem(E item) {
+        Node<E> node = nodes.remove(item);
+        if (node==null) {
+            return false;
+        }
+        for (Node<E> fol : node.followers) {
+            fol.preceders.removeIf(n -> n==node);
+        }
+        for (Node<E> prec : node.preceders) {
+            prec.followers.removeIf(n -> n==node);
+        }
+        boolean hadBackEdges = !backEdges.isEmpty();
+        for (BackEdge<E> edge : backEdges) {
+            if (edge.to==node) {
+                edge.from.backFollowers.remove(node);
+            }
+        }
+        backEdges.removeIf(edge -> edge.from==node || edge.to==node);
+        if (hadBackEdges) {
+            placeBackEdges();
+        }
+        return true;
+    }
+
+    /** Is the given item in the order? */
+    public boolean contains(E item) {
+        return nodes.containsKey(item);
+    }
+
+    /** Does the graph contain a cycle? That is, are there edges that could not be placed in the order? */
+    public boolean isCyclic() {
+        return !backEdges.isEmpty();
+    }
+
+    /**
+     * Would adding an edge from {@code from} to {@code to} create a cycle?
+     * This is true if {@code from} can already be reached from {@code to}, including through back edges,
+     * so a new cycle is recognised even in a graph that already has one.
+     * Items that are not yet present are treated as having no edges.
+     * @param from the item the edge would lead from
+     * @param to the item the edge would lead to
+     * @return true if the edge would create a cycle; false if it could be added
+     */
+    public boolean wouldCreateCycle(E from, E to) {
+        if (from.equals(to)) {
+            return true;
+        }
+        Node<E> x = nodes.get(from);
+        Node<E> y = nodes.get(to);
+        if (x==null || y==null) {
+            return false;
+        }
+        List<Node<E>> forward = new ArrayList<>();
+        try {
+            if (!backEdges.isEmpty()) {
+                // A back edge may lead anywhere, so the order cannot bound the search
+                return reaches(y, x, forward);
+            }
+            return (x.position >= y.position && !searchForward(y, x.position, forward));
+        } finally {
+            clearVisited(forward);
+        }
+    }
+
+    /**
+     * Adds an edge from {@code from} to {@code to}, adding either item if it is not already present,
+     * and reorders the affected region if necessary.
+     * If the edge creates a cycle, it is kept as a back edge instead of being placed in the order.
+     * @param from the item the edge leads from
+     * @param to the item the edge leads to
+     * @return true if the edge was placed in the order; false if it created a cycle
+     */
+    public boolean addEdge(E from, E to) {
+        addItem(from);
+        addItem(to);
+        Node<E> x = nodes.get(from);
+        Node<E> y = nodes.get(to);
+        if (x==y || !placeEdge(x, y)) {
+            backEdges.add(new BackEdge<>(x, y));
+            x.backFollowers.add(y);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Places an edge in the order, reordering the affected region if necessary.
+     * @return true if the edge was placed; false if it would create a cycle among the placed edges
+     */
+    private boolean placeEdge(Node<E> x, Node<E> y) {
+        if (y.position < x.position) {
+            List<Node<E>> forward = new ArrayList<>();
+            List<Node<E>> backward = new ArrayList<>();
+            try {
+                if (!searchForward(y, x.position, forward)) {
+                    return false;
+                }
+                searchBackward(x, y.position, backward);
+            } finally {
+                clearVisited(forward);
+                clearVisited(backward);
+            }
+            reorder(backward, forward);
+        }
+        x.followers.add(y);
+        y.preceders.add(x);
+        return true;
+    }
+
+    /**
+     * Removes one edge from {@code from} to {@code to}, if there is one.
+     * A back edge is removed in preference to an edge placed in the order.
+     * Removing an edge placed in the order may let back edges be placed.
+     * @param from the item the edge leads from
+     * @param to the item the edge leads to
+     * @return true if an edge was removed; false if there was none
+     */
+    public boolean removeEdge(E from, E to) {
+        Node<E> x = nodes.get(from);
+        Node<E> y = nodes.get(to);
+        if (x==null || y==null) {
+            return false;
+        }
+        if (x.backFollowers.remove(y)) {
+            for (Iterator<BackEdge<E>> iter = backEdges.iterator(); iter.hasNext(); ) {
+                BackEdge<E> edge = iter.next();
+                if (edge.from==x && edge.to==y) {
+                    iter.remove();
+                    break;
+                }
+            }
+            return true;
+        }
+        if (!x.followers.remove(y)) {
+            return false;
+        }
+        y.preceders.remove(x);
+        if (!backEdges.isEmpty()) {
+            placeBackEdges();
+        }
+        return true;
+    }
+
+    /** Places whichever back edges no longer close a cycle, in the order they were added. */
+    private void placeBackEdges() {
+        for (Iterator<BackEdge<E>> iter = backEdges.iterator(); iter.hasNext(); ) {
+            BackEdge<E> edge = iter.next();
+            if (edge.from!=edge.to && placeEdge(edge.from, edge.to)) {
+                edge.from.backFollowers.remove(edge.to);
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Lists the items in their current topological order.
+     * @return a new list of the items in order
+     */
+    public List<E> getOrder() {
+        List<Node<E>> sorted = new ArrayList<>(nodes.values());
+        sorted.sort(Comparator.comparingInt(node -> node.position));
+        List<E> order = new ArrayList<>(sorted.size());
+        for (Node<E> node : sorted) {
+            order.add(node.item);
+        }
+        return order;
+    }
+
+    /**
+     * Finds the nodes reachable from the given start node that are before the given bound.
+     * @param start the node to search from
+     * @param bound the position of the node the new edge leads from
+     * @param found receives the nodes found
+     * @return false if the node at the bound was reached, meaning there would be a cycle
+     */
+    private static <E> boolean searchForward(Node<E> start, int bound, List<Node<E>> found) {
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        start.visited = true;
+        found.add(start);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            for (Node<E> fol : node.followers) {
+                if (fol.position==bound) {
+                    return false;
+                }
+                if (!fol.visited && fol.position < bound) {
+                    fol.visited = true;
+                    found.add(fol);
+                    stack.push(fol);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Is the given target reachable from the given start node, following both placed edges and back edges?
+     * @param start the node to search from
+     * @param target the node to look for
+     * @param found receives the nodes visited
+     * @return true if the target was reached
+     */
+    private static <E> boolean reaches(Node<E> start, Node<E> target, List<Node<E>> found) {
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        start.visited = true;
+        found.add(start);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            for (List<Node<E>> next : Arrays.asList(node.followers, node.backFollowers)) {
+                for (Node<E> fol : next) {
+                    if (fol==target) {
+                        return true;
+                    }
+                    if (!fol.visited) {
+                        fol.visited = true;
+                        found.add(fol);
+                        stack.push(fol);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the nodes leading to the given start node that are after the given bound.
+     * @param start the node to search from
+     * @param bound the position of the node the new edge leads to
+     * @param found receives the nodes found
+     */
+    private static <E> void searchBackward(Node<E> start, int bound, List<Node<E>> found) {
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        start.visited = true;
+        found.add(start);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            for (Node<E> prec : node.preceders) {
+                if (!prec.visited && prec.position > bound) {
+                    prec.visited = true;
+                    found.add(prec);
+                    stack.push(prec);
+                }
+            }
+        }
+    }
+
+    private static <E> void clearVisited(List<Node<E>> nodes) {
+        for (Node<E> node : nodes) {
+            node.visited = false;
+        }
+    }
+
+    /**
+     * Gives the positions held by the affected nodes to the backward nodes (in their existing relative order)
+     * followed by the forward nodes (in their existing relative order).
+     */
+    private static <E> void reorder(List<Node<E>> backward, List<Node<E>> forward) {
+        Comparator<Node<E>> byPosition = Comparator.comparingInt(node -> node.position);
+        backward.sort(byPosition);
+        forward.sort(byPosition);
+        int[] positions = new int[backward.size() + forward.size()];
+        int i = 0;
+        for (Node<E> node : backward) {
+            positions[i++] = node.position;
+        }
+        for (Node<E> node : forward) {
+            positions[i++] = node.position;
+        }
+        Arrays.sort(positions);
+        i = 0;
+        for (Node<E> node : backward) {
+            node.position = positions[i++];
+        }
+        for (Node<E> node : forward) {
+            node.position = positions[i++];
+        }
+    }
+}
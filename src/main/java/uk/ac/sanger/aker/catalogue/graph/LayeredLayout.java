@@ -0,0 +1,619 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import uk.ac.sanger.aker.catalogue.model.Module;
+import uk.ac.sanger.aker.catalogue.model.ModulePair;
+
+import java.awt.Point;
+import java.util.*;
+
+/**
+ * A layout engine that arranges modules in layers by the Sugiyama method, so that paths cross as little as possible.
+ * <ol>
+ *     <li>Any cycles are broken by reversing the paths that lead back up the {@link CompactGraph#orderBreakingCycles order}.</li>
+ *     <li>Each module is put in the layer below the lowest module leading to it (longest-path layering).
+ *     The start module has the top layer to itself, and the end module has the bottom layer to itself.</li>
+ *     <li>A path spanning more than one layer is divided by <i>dummy</i> nodes, one in each layer it passes through.</li>
+ *     <li>The order of the nodes in each layer is improved by sweeping down and up through the layers,
+ *     sorting each layer by the barycentre of its nodes' neighbours in the layer before.
+ *     The order with the fewest crossings is kept.</li>
+ *     <li>The x-coordinates are assigned by the method of Brandes and K&ouml;pf, which lines up the segments of
+ *     long paths vertically and balances each node among its neighbours.</li>
+ * </ol>
+ * Dummy nodes affect where the modules are placed, but have no position in the resulting layout,
+ * since paths are drawn as straight lines.
+ * @author dr6
+ */
+public class LayeredLayout {
+    private static final int YSEP = 80;
+    /** Half the horizontal space taken up by a module or by a dummy node */
+    private static final int MODULE_HALF_WIDTH = 80, DUMMY_HALF_WIDTH = 20;
+    /** The most sweeps made to reduce crossings, and the number of sweeps without improvement before giving up */
+    private static final int MAX_SWEEPS = 24, PATIENCE = 4;
+
+    private final int numModules;
+    private int numNodes;
+    private int[] layerOf;
+    private int[][] layers;
+    private int[] pos;
+    private int[][] uppers, lowers;
+    private Set<Long> conflicts;
+
+    private LayeredLayout(int numModules) {
+        this.numModules = numModules;
+    }
+
+    /**
+     * Generates a layered layout from the described paths.
+     * The start module is positioned at {@code (0,0)}, and subsequent layers are positioned below,
+     * a fixed distance apart.
+     * @param pairs the paths between modules
+     * @return the layout specifying the positions of the modules
+     * @exception IllegalArgumentException if a path leads to a module that no path leads on from
+     */
+    public static ModuleLayout layOut(Collection<? extends ModulePair> pairs) {
+        List<Module> modules = ModuleLayoutUtil.pathModules(pairs);
+        CompactGraph<Module> graph = new CompactGraph<>(modules, pairs, ModulePair::getFrom, ModulePair::getTo);
+        LayeredLayout engine = new LayeredLayout(graph.size());
+        int[] x = engine.run(graph, graph.id(Module.START), graph.id(Module.END));
+        int x0 = x[graph.id(Module.START)];
+        Map<Module, Point> positions = new HashMap<>(graph.size());
+        for (int id = 0; id < graph.size(); ++id) {
+            positions.put(graph.item(id), new Point(x[id] - x0, engine.layerOf[id] * YSEP));
+        }
+        return new ModuleLayout(positions);
+    }
+
+    /**
+     * Lays out the graph.
+     * @return the x-coordinate of each node
+     */
+    private int[] run(CompactGraph<?> graph, int start, int end) {
+        int[] order = graph.orderBreakingCycles();
+        int[] edges = orientEdges(graph, order);
+        assignLayers(order, edges, start, end);
+        int[] segments = addDummies(edges);
+        buildNeighbours(segments);
+        initialOrder(order);
+        reduceCrossings();
+        return assignCoordinates();
+    }
+
+    /**
+     * Lists the edges of the graph as pairs of ids, reversing any that lead backwards in the given order.
+     */
+    private static int[] orientEdges(CompactGraph<?> graph, int[] order) {
+        final int n = graph.size();
+        int[] rank = new int[n];
+        for (int i = 0; i < n; ++i) {
+            rank[order[i]] = i;
+        }
+        int numEdges = 0;
+        for (int u = 0; u < n; ++u) {
+            numEdges += graph.followerCount(u);
+        }
+        int[] edges = new int[2*numEdges];
+        int length = 0;
+        for (int u = 0; u < n; ++u) {
+            for (int k = 0; k < graph.followerCount(u); ++k) {
+                int v = graph.follower(u, k);
+                if (u==v) {
+                    continue;
+                }
+                boolean forward = (rank[u] < rank[v]);
+                edges[length++] = (forward ? u : v);
+                edges[length++] = (forward ? v : u);
+            }
+        }
+        return Arrays.copyOf(edges, length);
+    }
+
+    /**
+     * Longest-path layering. The given order is topological for the oriented edges.
+     */
+    private void assignLayers(int[] order, int[] edges, int start, int end) {
+        final int n = numModules;
+        int[] rank = new int[n];
+        for (int i = 0; i < n; ++i) {
+            rank[order[i]] = i;
+        }
+        // Group the edges by the rank of their source
+        int[] offsets = new int[n+1];
+        for (int e = 0; e < edges.length; e += 2) {
+            ++offsets[rank[edges[e]]+1];
+        }
+        for (int i = 0; i < n; ++i) {
+            offsets[i+1] += offsets[i];
+        }
+        int[] targets = new int[edges.length/2];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < edges.length; e += 2) {
+            targets[next[rank[edges[e]]]++] = edges[e+1];
+        }
+        layerOf = new int[n];
+        Arrays.fill(layerOf, 1);
+        layerOf[start] = 0;
+        int maxLayer = 0;
+        for (int i = 0; i < n; ++i) {
+            int u = order[i];
+            if (u!=end) {
+                maxLayer = Math.max(maxLayer, layerOf[u]);
+            }
+            for (int k = offsets[i]; k < offsets[i+1]; ++k) {
+                int v = targets[k];
+                layerOf[v] = Math.max(layerOf[v], layerOf[u]+1);
+            }
+        }
+        layerOf[end] = Math.max(layerOf[end], maxLayer+1);
+    }
+
+    /**
+     * Divides each edge spanning several layers into segments between adjacent layers, by adding dummy nodes.
+     * Edges between modules in the same layer (only possible where the endpoints have been forced into
+     * their layers despite a cycle) are left out.
+     * @return the segments as pairs of ids, upper node first
+     */
+    private int[] addDummies(int[] edges) {
+        numNodes = numModules;
+        int numSegments = 0, numDummies = 0;
+        for (int e = 0; e < edges.length; e += 2) {
+            int span = Math.abs(layerOf[edges[e+1]] - layerOf[edges[e]]);
+            if (span > 0) {
+                numSegments += span;
+                numDummies += span-1;
+            }
+        }
+        layerOf = Arrays.copyOf(layerOf, numModules + numDummies);
+        int[] segments = new int[2*numSegments];
+        int length = 0;
+        for (int e = 0; e < edges.length; e += 2) {
+            int upper = edges[e];
+            int target = edges[e+1];
+            if (layerOf[upper]==layerOf[target]) {
+                continue;
+            }
+            if (layerOf[upper] > layerOf[target]) {
+                upper = edges[e+1];
+                target = edges[e];
+            }
+            for (int layer = layerOf[upper]+1; layer < layerOf[target]; ++layer) {
+                int dummy = numNodes++;
+                layerOf[dummy] = layer;
+                segments[length++] = upper;
+                segments[length++] = dummy;
+                upper = dummy;
+            }
+            segments[length++] = upper;
+            segments[length++] = target;
+        }
+        return segments;
+    }
+
+    private boolean isDummy(int v) {
+        return (v >= numModules);
+    }
+
+    private void buildNeighbours(int[] segments) {
+        int[] upperCounts = new int[numNodes];
+        int[] lowerCounts = new int[numNodes];
+        for (int s = 0; s < segments.length; s += 2) {
+            ++lowerCounts[segments[s]];
+            ++upperCounts[segments[s+1]];
+        }
+        uppers = new int[numNodes][];
+        lowers = new int[numNodes][];
+        for (int v = 0; v < numNodes; ++v) {
+            uppers[v] = new int[upperCounts[v]];
+            lowers[v] = new int[lowerCounts[v]];
+        }
+        Arrays.fill(upperCounts, 0);
+        Arrays.fill(lowerCounts, 0);
+        for (int s = 0; s < segments.length; s += 2) {
+            int u = segments[s], v = segments[s+1];
+            lowers[u][lowerCounts[u]++] = v;
+            uppers[v][upperCounts[v]++] = u;
+        }
+    }
+
+    /**
+     * Puts the modules in each layer in the given order, followed by the dummy nodes in the order they were created.
+     */
+    private void initialOrder(int[] order) {
+        int numLayers = 0;
+        for (int v = 0; v < numNodes; ++v) {
+            numLayers = Math.max(numLayers, layerOf[v]+1);
+        }
+        int[] layerSizes = new int[numLayers];
+        for (int v = 0; v < numNodes; ++v) {
+            ++layerSizes[layerOf[v]];
+        }
+        layers = new int[numLayers][];
+        for (int i = 0; i < numLayers; ++i) {
+            layers[i] = new int[layerSizes[i]];
+        }
+        Arrays.fill(layerSizes, 0);
+        pos = new int[numNodes];
+        for (int v : order) {
+            place(v, layerSizes);
+        }
+        for (int v = numModules; v < numNodes; ++v) {
+            place(v, layerSizes);
+        }
+    }
+
+    private void place(int v, int[] layerSizes) {
+        int layer = layerOf[v];
+        pos[v] = layerSizes[layer]++;
+        layers[layer][pos[v]] = v;
+    }
+
+    // ---------- Crossing reduction ----------
+
+    private void reduceCrossings() {
+        long best = countCrossings();
+        int[][] bestLayers = copyLayers();
+        int stale = 0;
+        for (int sweep = 0; sweep < MAX_SWEEPS && stale < PATIENCE && best > 0; ++sweep) {
+            if (sweep%2==0) {
+                for (int i = 1; i < layers.length; ++i) {
+                    sortByBarycentre(layers[i], uppers);
+                }
+            } else {
+                for (int i = layers.length-2; i >= 0; --i) {
+                    sortByBarycentre(layers[i], lowers);
+                }
+            }
+            long crossings = countCrossings();
+            if (crossings < best) {
+                best = crossings;
+                bestLayers = copyLayers();
+                stale = 0;
+            } else {
+                ++stale;
+            }
+        }
+        layers = bestLayers;
+        for (int[] layer : layers) {
+            for (int k = 0; k < layer.length; ++k) {
+                pos[layer[k]] = k;
+            }
+        }
+    }
+
+    private int[][] copyLayers() {
+        int[][] copy = new int[layers.length][];
+        for (int i = 0; i < layers.length; ++i) {
+            copy[i] = layers[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Sorts the nodes in a layer by the mean position of their neighbours in the adjacent layer.
+     * Nodes with no such neighbours keep their places.
+     */
+    private void sortByBarycentre(int[] layer, int[][] neighbours) {
+        double[] barycentres = new double[layer.length];
+        List<Integer> movable = new ArrayList<>(layer.length);
+        for (int k = 0; k < layer.length; ++k) {
+            int[] nbs = neighbours[layer[k]];
+            if (nbs.length > 0) {
+                double sum = 0;
+                for (int w : nbs) {
+                    sum += pos[w];
+                }
+                barycentres[k] = sum/nbs.length;
+                movable.add(k);
+            }
+        }
+        List<Integer> sorted = new ArrayList<>(movable);
+        sorted.sort(Comparator.comparingDouble(k -> barycentres[k]));
+        int[] old = layer.clone();
+        for (int j = 0; j < movable.size(); ++j) {
+            layer[movable.get(j)] = old[sorted.get(j)];
+        }
+        for (int k = 0; k < layer.length; ++k) {
+            pos[layer[k]] = k;
+        }
+    }
+
+    /**
+     * Counts the crossings between every pair of adjacent layers,
+     * using the accumulator tree of Barth, J&uuml;nger and Mutzel.
+     */
+    private long countCrossings() {
+        long crossings = 0;
+        for (int i = 0; i+1 < layers.length; ++i) {
+            int[] lowerPositions = new int[0];
+            int length = 0;
+            for (int u : layers[i]) {
+                int[] nbs = lowers[u];
+                int[] nbPositions = new int[nbs.length];
+                for (int k = 0; k < nbs.length; ++k) {
+                    nbPositions[k] = pos[nbs[k]];
+                }
+                Arrays.sort(nbPositions);
+                if (length + nbPositions.length > lowerPositions.length) {
+                    lowerPositions = Arrays.copyOf(lowerPositions, Math.max(2*lowerPositions.length, length + nbPositions.length));
+                }
+                System.arraycopy(nbPositions, 0, lowerPositions, length, nbPositions.length);
+                length += nbPositions.length;
+            }
+            int firstIndex = 1;
+            while (firstIndex < layers[i+1].length) {
+                firstIndex *= 2;
+            }
+            int[] tree = new int[2*firstIndex - 1];
+            --firstIndex;
+            for (int j = 0; j < length; ++j) {
+                int index = lowerPositions[j] + firstIndex;
+                ++tree[index];
+                while (index > 0) {
+                    if (index%2==1) {
+                        crossings += tree[index+1];
+                    }
+                    index = (index-1)/2;
+                    ++tree[index];
+                }
+            }
+        }
+        return crossings;
+    }
+
+    // ---------- Coordinate assignment (Brandes & Köpf) ----------
+
+    private long segmentKey(int a, int b) {
+        return (layerOf[a] < layerOf[b] ? (long) a * numNodes + b : (long) b * numNodes + a);
+    }
+
+    private int halfWidth(int v) {
+        return (isDummy(v) ? DUMMY_HALF_WIDTH : MODULE_HALF_WIDTH);
+    }
+
+    /**
+     * Marks type 1 conflicts: segments between modules or a module and a dummy, that cross
+     * an inner segment (one between two dummies). Inner segments are given priority in alignment,
+     * so that long paths are drawn straight.
+     */
+    private void markConflicts() {
+        conflicts = new HashSet<>();
+        for (int i = 0; i+1 < layers.length; ++i) {
+            int[] upperLayer = layers[i];
+            int[] lowerLayer = layers[i+1];
+            int k0 = 0;
+            int l = 0;
+            for (int l1 = 0; l1 < lowerLayer.length; ++l1) {
+                int v = lowerLayer[l1];
+                int innerUpper = innerUpper(v);
+                if (l1==lowerLayer.length-1 || innerUpper >= 0) {
+                    int k1 = (innerUpper >= 0 ? pos[innerUpper] : upperLayer.length-1);
+                    for (; l <= l1; ++l) {
+                        int w = lowerLayer[l];
+                        for (int u : uppers[w]) {
+                            if (pos[u] < k0 || pos[u] > k1) {
+                                if (!(isDummy(u) && isDummy(w))) {
+                                    conflicts.add(segmentKey(u, w));
+                                }
+                            }
+                        }
+                    }
+                    k0 = k1;
+                }
+            }
+        }
+    }
+
+    /** If the given node is a dummy with a dummy above it, returns that upper dummy; otherwise -1. */
+    private int innerUpper(int v) {
+        if (isDummy(v)) {
+            for (int u : uppers[v]) {
+                if (isDummy(u)) {
+                    return u;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int[] assignCoordinates() {
+        markConflicts();
+        int[][] candidates = new int[4][];
+        for (int c = 0; c < 4; ++c) {
+            candidates[c] = new Alignment(c < 2, c%2==0).compute();
+        }
+        // Align the candidates to the one with the smallest width
+        int[] mins = new int[4], maxs = new int[4];
+        int smallest = 0;
+        for (int c = 0; c < 4; ++c) {
+            mins[c] = Arrays.stream(candidates[c]).min().orElse(0);
+            maxs[c] = Arrays.stream(candidates[c]).max().orElse(0);
+            if (maxs[c]-mins[c] < maxs[smallest]-mins[smallest]) {
+                smallest = c;
+            }
+        }
+        for (int c = 0; c < 4; ++c) {
+            int shift = (c%2==0 ? mins[smallest] - mins[c] : maxs[smallest] - maxs[c]);
+            for (int v = 0; v < numNodes; ++v) {
+                candidates[c][v] += shift;
+            }
+        }
+        // Each node takes the average of the median two candidates
+        int[] x = new int[numNodes];
+        int[] values = new int[4];
+        for (int v = 0; v < numNodes; ++v) {
+            for (int c = 0; c < 4; ++c) {
+                values[c] = candidates[c][v];
+            }
+            Arrays.sort(values);
+            x[v] = (values[1] + values[2])/2;
+        }
+        // Balancing can bring neighbours too close together, so push them apart where necessary
+        for (int[] layer : layers) {
+            for (int k = 1; k < layer.length; ++k) {
+                int min = x[layer[k-1]] + halfWidth(layer[k-1]) + halfWidth(layer[k]);
+                if (x[layer[k]] < min) {
+                    x[layer[k]] = min;
+                }
+            }
+        }
+        return x;
+    }
+
+    /**
+     * One of the four alignments used by Brandes and K&ouml;pf: nodes are aligned with their upper or lower
+     * neighbours, working from the left or from the right. The computation is always done top-left,
+     * with the layers and the nodes in them reversed as necessary; the results are mirrored back.
+     */
+    private class Alignment {
+        private final boolean down, left;
+        private final int[][] tlayers;
+        private final int[][] tuppers;
+        private final int[] tpos;
+        private final int[] root, align, sink;
+        private final int[] shift;
+        private final int[] x;
+        private final boolean[] placed;
+
+        Alignment(boolean down, boolean left) {
+            this.down = down;
+            this.left = left;
+            final int numLayers = layers.length;
+            tlayers = new int[numLayers][];
+            for (int i = 0; i < numLayers; ++i) {
+                int[] layer = layers[down ? i : numLayers-1-i].clone();
+                if (!left) {
+                    reverse(layer);
+                }
+                tlayers[i] = layer;
+            }
+            tpos = new int[numNodes];
+            for (int[] layer : tlayers) {
+                for (int k = 0; k < layer.length; ++k) {
+                    tpos[layer[k]] = k;
+                }
+            }
+            tuppers = new int[numNodes][];
+            for (int v = 0; v < numNodes; ++v) {
+                int[] nbs = (down ? uppers[v] : lowers[v]).clone();
+                sortByTpos(nbs);
+                tuppers[v] = nbs;
+            }
+            root = new int[numNodes];
+            align = new int[numNodes];
+            sink = new int[numNodes];
+            shift = new int[numNodes];
+            x = new int[numNodes];
+            placed = new boolean[numNodes];
+        }
+
+        private void sortByTpos(int[] nodes) {
+            for (int i = 1; i < nodes.length; ++i) {
+                int v = nodes[i];
+                int j = i-1;
+                while (j >= 0 && tpos[nodes[j]] > tpos[v]) {
+                    nodes[j+1] = nodes[j];
+                    --j;
+                }
+                nodes[j+1] = v;
+            }
+        }
+
+        int[] compute() {
+            alignVertically();
+            compactHorizontally();
+            if (!left) {
+                for (int v = 0; v < numNodes; ++v) {
+                    x[v] = -x[v];
+                }
+            }
+            return x;
+        }
+
+        private void alignVertically() {
+            for (int v = 0; v < numNodes; ++v) {
+                root[v] = v;
+                align[v] = v;
+            }
+            for (int i = 1; i < tlayers.length; ++i) {
+                int r = -1;
+                for (int v : tlayers[i]) {
+                    int[] nbs = tuppers[v];
+                    int d = nbs.length;
+                    if (d==0) {
+                        continue;
+                    }
+                    for (int m = (d-1)/2; m <= d/2; ++m) {
+                        if (align[v]==v) {
+                            int u = nbs[m];
+                            if (r < tpos[u] && !conflicts.contains(segmentKey(u, v))) {
+                                align[u] = v;
+                                root[v] = root[u];
+                                align[v] = root[v];
+                                r = tpos[u];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void compactHorizontally() {
+            for (int v = 0; v < numNodes; ++v) {
+                sink[v] = v;
+                shift[v] = Integer.MAX_VALUE;
+            }
+            for (int[] layer : tlayers) {
+                for (int v : layer) {
+                    if (root[v]==v) {
+                        placeBlock(v);
+                    }
+                }
+            }
+            for (int v = 0; v < numNodes; ++v) {
+                x[v] = x[root[v]];
+                int s = shift[sink[root[v]]];
+                if (s!=Integer.MAX_VALUE) {
+                    x[v] += s;
+                }
+            }
+        }
+
+        private void placeBlock(int v) {
+            if (placed[v]) {
+                return;
+            }
+            placed[v] = true;
+            x[v] = 0;
+            int w = v;
+            do {
+                int k = tpos[w];
+                if (k > 0) {
+                    int pred = tlayers[layerIndex(w)][k-1];
+                    int u = root[pred];
+                    placeBlock(u);
+                    if (sink[v]==v) {
+                        sink[v] = sink[u];
+                    }
+                    int delta = halfWidth(pred) + halfWidth(w);
+                    if (sink[v]!=sink[u]) {
+                        shift[sink[u]] = Math.min(shift[sink[u]], x[v] - x[u] - delta);
+                    } else {
+                        x[v] = Math.max(x[v], x[u] + delta);
+                    }
+                }
+                w = align[w];
+            } while (w!=v);
+        }
+
+        private int layerIndex(int v) {
+            return (down ? layerOf[v] : tlayers.length-1-layerOf[v]);
+        }
+    }
+
+    private static void reverse(int[] array) {
+        for (int i = 0, j = array.length-1; i < j; ++i, --j) {
+            int t = array[i];
+            array[i] = array[j];
+            array[j] = t;
+        }
+    }
+}
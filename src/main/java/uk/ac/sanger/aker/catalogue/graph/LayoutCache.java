@@ -0,0 +1,162 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import uk.ac.sanger.aker.catalogue.model.AkerProcess;
+
+import java.util.*;
+
+/**
+ * A cache of the module layouts of processes, bounded in size, that evicts the least recently used layouts.
+ * Only layouts that have not been {@link ModuleLayout#isEdited edited} are evicted, since they can be
+ * worked out again when they are next needed; edited layouts are kept until they are saved.
+ * The bound applies to the unedited layouts.
+ * <p>The cache counts hits, misses and evictions, so its effectiveness can be measured.
+ * All methods are synchronized, so the cache can be filled from several threads.
+ * @author dr6
+ */
+public class LayoutCache {
+    private final int maxSize;
+    /** The layouts, from least to most recently used */
+    private final LinkedHashMap<AkerProcess, ModuleLayout> layouts = new LinkedHashMap<>();
+    private long hits, misses, evictions;
+
+    /**
+     * Creates a cache holding at most the given number of unedited layouts.
+     * @param maxSize the maximum number of unedited layouts to keep
+     */
+    public LayoutCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid cache size: "+maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cached layout for the given process, marking it as recently used.
+     * @param pro the process
+     * @return the cached layout, or null if there is none
+     */
+    public synchronized ModuleLayout get(AkerProcess pro) {
+        ModuleLayout layout = layouts.remove(pro);
+        if (layout==null) {
+            ++misses;
+        } else {
+            ++hits;
+            layouts.put(pro, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Gets the cached layout for the given process, without marking it as recently used.
+     * This does not count as a use of the layout.
+     * @param pro the process
+     * @return the cached layout, or null if there is none
+     */
+    public synchronized ModuleLayout peek(AkerProcess pro) {
+        return layouts.get(pro);
+    }
+
+    /** Is there a cached layout for the given process? This does not count as a use of the layout. */
+    public synchronized boolean contains(AkerProcess pro) {
+        return layouts.containsKey(pro);
+    }
+
+    /**
+     * Caches the layout for the given process as the most recently used, evicting old layouts if necessary.
+     * If the layout is already cached for the process (as it is each time it is edited), it is only marked
+     * as recently used: being edited cannot add to the number of unedited layouts, so nothing need be evicted.
+     * @param pro the process
+     * @param layout the layout for the process
+     */
+    public synchronized void put(AkerProcess pro, ModuleLayout layout) {
+        ModuleLayout old = layouts.remove(pro);
+        layouts.put(pro, layout);
+        if (old!=layout) {
+            evict();
+        }
+    }
+
+    /** Caches all the given layouts as the most recently used, evicting old layouts if necessary. */
+    public synchronized void putAll(Map<? extends AkerProcess, ? extends ModuleLayout> map) {
+        layouts.keySet().removeAll(map.keySet());
+        layouts.putAll(map);
+        evict();
+    }
+
+    /** Removes the layouts for the given processes (for instance, because they have been deleted). */
+    public synchronized void removeAll(Collection<? extends AkerProcess> processes) {
+        layouts.keySet().removeAll(processes);
+    }
+
+    /** Removes all the layouts, and resets the counts. */
+    public synchronized void clear() {
+        layouts.clear();
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * Gets a copy of the cached layouts.
+     * @return a new map of process to layout
+     */
+    public synchronized Map<AkerProcess, ModuleLayout> copy() {
+        return new HashMap<>(layouts);
+    }
+
+    /**
+     * Marks all the cached layouts as not edited, because they have been saved.
+     * They may then be evicted.
+     */
+    public synchronized void markSaved() {
+        for (ModuleLayout layout : layouts.values()) {
+            layout.setEdited(false);
+        }
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used unedited layouts until there are no more than the maximum.
+     * Layouts may have been edited since they were added, so the unedited layouts are counted each time.
+     */
+    private void evict() {
+        int unedited = 0;
+        for (ModuleLayout layout : layouts.values()) {
+            if (!layout.isEdited()) {
+                ++unedited;
+            }
+        }
+        Iterator<ModuleLayout> iter = layouts.values().iterator();
+        while (unedited > maxSize && iter.hasNext()) {
+            if (!iter.next().isEdited()) {
+                iter.remove();
+                --unedited;
+                ++evictions;
+            }
+        }
+    }
+
+    /** The number of layouts in the cache. */
+    public synchronized int size() {
+        return layouts.size();
+    }
+
+    /** The number of times a layout was found in the cache. */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /** The number of times a layout was not found in the cache. */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** The number of layouts that have been evicted. */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /** The proportion of lookups that found a layout in the cache, or zero if there have been none. */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return (lookups==0 ? 0 : (double) hits / lookups);
+    }
+}
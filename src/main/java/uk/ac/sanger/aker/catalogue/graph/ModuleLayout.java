@@ -10,12 +10,13 @@ import java.util.Set;
 
 /**
  * A container for the positions of modules in a graph.
- * This is a simple wrapper for a map of {@link Module} to {@link Point}.
- * At one point it had additional data, and is retained in case that becomes useful in future.
+ * This is a wrapper for a map of {@link Module} to {@link Point}, along with a flag
+ * recording whether the layout has been edited since it was generated or saved.
  * @author dr6
  */
 public class ModuleLayout {
     private Map<Module, Point> positions;
+    private boolean edited;
 
     /** Constructs a layout object holding the given map of positions. */
     public ModuleLayout(Map<Module, Point> positions) {
@@ -69,6 +70,19 @@ public class ModuleLayout {
         positions.keySet().retainAll(modules);
     }
 
+    /**
+     * Has this layout been edited (for instance, by the user moving modules) since it was generated or saved?
+     * An edited layout cannot be worked out again, so it must be kept until it is saved.
+     */
+    public boolean isEdited() {
+        return this.edited;
+    }
+
+    /** Sets whether this layout has been edited since it was generated or saved. */
+    public void setEdited(boolean edited) {
+        this.edited = edited;
+    }
+
     /** Get the set of modules whose position is given in this layout */
     public Set<Module> modules() {
         return positions.keySet();
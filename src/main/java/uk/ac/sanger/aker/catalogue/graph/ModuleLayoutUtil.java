@@ -16,32 +16,45 @@ public class ModuleLayoutUtil {
 
     private static final int XSEP = 160, YSEP = 80;
 
-    private static List<List<Module>> getRows(Collection<? extends Module> modules, Collection<? extends ModulePair> pairs) {
-        TopologicalSorter<Module> sorter = new TopologicalSorter<>(modules);
-        sorter.setRelations(pairs, ModulePair::getFrom, ModulePair::getTo);
-        Map<Module, Set<Module>> preceders = sorter.getPreceders().entrySet().stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> new HashSet<>(e.getValue())));
-        modules = sorter.sort();
+    private static CompactGraph<Module> graph(Collection<? extends ModulePair> pairs) {
+        return new CompactGraph<>(pathModules(pairs), pairs, ModulePair::getFrom, ModulePair::getTo);
+    }
+
+    private static List<List<Module>> getRows(CompactGraph<Module> graph) {
+        int[] order = graph.orderBreakingCycles();
+        // The row that each module (by id) has been put in, or -1
+        int[] moduleRows = new int[graph.size()];
+        Arrays.fill(moduleRows, -1);
         List<List<Module>> rows = new ArrayList<>();
         List<Module> current = new ArrayList<>();
         rows.add(current);
-        for (Module module : modules) {
-            final Set<Module> precs = preceders.get(module);
+        for (int id : order) {
+            Module module = graph.item(id);
             if (module==Module.END || current.size()==1 && current.contains(Module.START)
-                    || current.stream().anyMatch(precs::contains)) {
+                    || hasPrecederInRow(graph, id, moduleRows, rows.size()-1)) {
                 current = new ArrayList<>();
                 rows.add(current);
             }
             current.add(module);
+            moduleRows[id] = rows.size()-1;
         }
         return rows;
     }
 
-    private static ModuleLayout layOut(Collection<? extends Module> modules, Collection<? extends ModulePair> pairs) {
-        List<List<Module>> rows = getRows(modules, pairs);
+    private static boolean hasPrecederInRow(CompactGraph<Module> graph, int id, int[] moduleRows, int row) {
+        for (int k = 0; k < graph.precederCount(id); ++k) {
+            if (moduleRows[graph.preceder(id, k)]==row) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ModuleLayout layOut(CompactGraph<Module> graph) {
+        List<List<Module>> rows = getRows(graph);
         // Start is at (0,0).
         // Rows are below, to the left and right of zero, so (0,0) should be centre-top
-        Map<Module, Point> positions = new HashMap<>(modules.size());
+        Map<Module, Point> positions = new HashMap<>(graph.size());
         int y = 0;
         int[] xoffsets = new int[rows.size()];
         for (int i = 1; i < rows.size()-1; ++i) {
@@ -68,16 +81,69 @@ public class ModuleLayoutUtil {
 
     /**
      * Generates a layout from the described paths.
-     * The modules are ordered using {@link TopologicalSorter},
+     * The modules are ordered topologically using a {@link CompactGraph},
      * then arrayed into rows based on keeping path-end modules below their respective path-start module.
      * The start module is positioned at {@code (0,0)}, and subsequent rows are
      * positioned below, a fixed distance apart, centred around x=0.
      * In cases where there are three consecutive rows of the same size, they will be offset in x
      * to reduce the chance of paths hiding each other.
+     * If the paths contain cycles, they are laid out as if the paths closing the cycles were absent;
+     * use {@link #findCycles findCycles} to find them.
      * @param pairs the paths between modules
      * @return the layout specifying the positions of the modules
+     * @exception IllegalArgumentException if a path leads to a module that no path leads on from
      */
     public static ModuleLayout layOut(Collection<? extends ModulePair> pairs) {
+        return layOut(graph(pairs));
+    }
+
+    /**
+     * Generates a layout from the described paths, as {@link #layOut(Collection)} does,
+     * and finds the cycles in them, as {@link #findCycles findCycles} does, building the graph only once.
+     * @param pairs the paths between modules
+     * @param cycles the list to add the cycles to
+     * @return the layout specifying the positions of the modules
+     * @exception IllegalArgumentException if a path leads to a module that no path leads on from
+     */
+    public static ModuleLayout layOut(Collection<? extends ModulePair> pairs, List<List<Module>> cycles) {
+        CompactGraph<Module> graph = graph(pairs);
+        cycles.addAll(graph.cycleItems());
+        return layOut(graph);
+    }
+
+    /**
+     * Checks whether the described paths can be laid out.
+     * They cannot be laid out properly if they contain a cycle,
+     * and cannot be laid out at all if they lead to a module that no path leads on from.
+     * This does not create a layout, so it does not need any AWT classes.
+     * @param pairs the paths between modules
+     * @return true if {@link #layOut layOut} can lay out the paths properly; false if it cannot
+     */
+    public static boolean canLayOut(Collection<? extends ModulePair> pairs) {
+        try {
+            graph(pairs).topologicalOrder();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds cycles in the described paths, with one cycle from each group of modules that are joined in a cycle.
+     * This takes time linear in the number of paths.
+     * @param pairs the paths between modules
+     * @return a list of cycles, each listing the modules in order; the last module in each leads back to the first
+     * @exception IllegalArgumentException if a path leads to a module that no path leads on from
+     * @see CompactGraph#findCycles
+     */
+    public static List<List<Module>> findCycles(Collection<? extends ModulePair> pairs) {
+        return graph(pairs).cycleItems();
+    }
+
+    /**
+     * Lists the modules that paths lead from, along with the start and end modules.
+     */
+    static List<Module> pathModules(Collection<? extends ModulePair> pairs) {
         List<Module> modules = pairs.stream()
                 .map(ModulePair::getFrom)
                 .distinct()
@@ -86,6 +152,6 @@ public class ModuleLayoutUtil {
         if (!modules.contains(Module.START)) {
             modules.add(0, Module.START);
         }
-        return layOut(modules, pairs);
+        return modules;
     }
 }
@@ -0,0 +1,96 @@
+package uk.ac.sanger.aker.catalogue.graph;
+
+import uk.ac.sanger.aker.catalogue.model.Module;
+import uk.ac.sanger.aker.catalogue.model.ModulePair;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the modules in a process that are not on any route from START to END.
+ * A module is <i>unreachable</i> if no route from START leads to it,
+ * and a <i>dead end</i> if routes from START lead to it but no route leads on from it to END.
+ * <p>The paths are held in a {@link CompactGraph}, and the modules reachable from START and the modules
+ * that can reach END are each found by a single search, held as a {@link BitSet} of module ids.
+ * The modules found are listed in the {@link CompactGraph#orderBreakingCycles topological order} of the graph,
+ * which is the order in which they appear along the routes.
+ * The whole check takes time linear in the number of paths.
+ * @author dr6
+ */
+public class RouteReachability {
+    private final List<Module> unreachable, deadEnds;
+
+    private RouteReachability(List<Module> unreachable, List<Module> deadEnds) {
+        this.unreachable = unreachable;
+        this.deadEnds = deadEnds;
+    }
+
+    /**
+     * Checks which modules in the given paths are on a route from START to END.
+     * @param pairs the paths of a process
+     * @return the modules found not to be on any route
+     */
+    public static RouteReachability analyse(Collection<? extends ModulePair> pairs) {
+        if (pairs.isEmpty()) {
+            return new RouteReachability(Collections.emptyList(), Collections.emptyList());
+        }
+        List<Module> modules = Stream.concat(Stream.of(Module.START, Module.END),
+                pairs.stream().flatMap(pair -> Stream.of(pair.getFrom(), pair.getTo())))
+                .distinct()
+                .collect(Collectors.toList());
+        CompactGraph<Module> graph = new CompactGraph<>(modules, pairs, ModulePair::getFrom, ModulePair::getTo);
+        BitSet fromStart = graph.reachable(graph.id(Module.START), true);
+        BitSet toEnd = graph.reachable(graph.id(Module.END), false);
+        List<Module> unreachable = new ArrayList<>();
+        List<Module> deadEnds = new ArrayList<>();
+        if (fromStart.cardinality() < graph.size() || toEnd.cardinality() < graph.size()) {
+            for (int id : graph.orderBreakingCycles()) {
+                Module module = graph.item(id);
+                if (module.isEndpoint()) {
+                    continue;
+                }
+                if (!fromStart.get(id)) {
+                    unreachable.add(module);
+                } else if (!toEnd.get(id)) {
+                    deadEnds.add(module);
+                }
+            }
+        }
+        return new RouteReachability(unreachable, deadEnds);
+    }
+
+    /** The modules that no route from START leads to, in route order */
+    public List<Module> getUnreachable() {
+        return this.unreachable;
+    }
+
+    /** The modules that routes from START lead to, but that have no route on to END, in route order */
+    public List<Module> getDeadEnds() {
+        return this.deadEnds;
+    }
+
+    /** Is every module in the paths on some route from START to END? */
+    public boolean allOnRoute() {
+        return (unreachable.isEmpty() && deadEnds.isEmpty());
+    }
+
+    /**
+     * Describes the modules not on any route.
+     * @return a description of the unreachable modules and the dead ends, if there are any
+     */
+    public List<String> describe() {
+        List<String> descs = new ArrayList<>(2);
+        if (!unreachable.isEmpty()) {
+            descs.add("Not reached from START: " + names(unreachable));
+        }
+        if (!deadEnds.isEmpty()) {
+            descs.add("No route on to END: " + names(deadEnds));
+        }
+        return descs;
+    }
+
+    private static String names(List<Module> modules) {
+        return modules.stream().map(Module::getName).collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,39 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import java.util.Collection;
+
+/**
+ * A listener for changes made to a catalogue.
+ * The model classes do not report their own changes; the application reports the changes
+ * made through its editors to its listeners.
+ * The items reported are modules, processes and products.
+ * @author dr6
+ */
+public interface CatalogueListener {
+    /**
+     * The current catalogue has been replaced by the given catalogue (for instance, a catalogue has been loaded).
+     * @param catalogue the new catalogue
+     */
+    void catalogueReplaced(Catalogue catalogue);
+
+    /**
+     * Items have been added to the catalogue.
+     * @param items the new items
+     */
+    void itemsAdded(Collection<?> items);
+
+    /**
+     * Items have been removed from the catalogue.
+     * Any changes this causes to other items (such as deleting the paths through a removed module)
+     * are reported separately.
+     * @param items the removed items
+     */
+    void itemsRemoved(Collection<?> items);
+
+    /**
+     * An item in the catalogue has been changed.
+     * For a process, this includes changes to its paths and to the layout of its modules.
+     * @param item the changed item
+     */
+    void itemChanged(Object item);
+}
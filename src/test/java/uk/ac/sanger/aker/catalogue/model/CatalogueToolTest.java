@@ -0,0 +1,104 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.CatalogueTool;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamExporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamImporter;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link CatalogueTool}
+ * @author dr6
+ */
+@Test
+public class CatalogueToolTest {
+    private ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+    private ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+
+    private String filename(String resource) throws URISyntaxException {
+        URL url = getClass().getClassLoader().getResource(resource);
+        assert url!=null;
+        return Paths.get(url.toURI()).toString();
+    }
+
+    private int run(String... args) {
+        outBytes.reset();
+        errBytes.reset();
+        return new CatalogueTool(new PrintStream(outBytes, true), new PrintStream(errBytes, true)).run(args);
+    }
+
+    private String[] outputLines() {
+        return outBytes.toString().trim().split("\\R");
+    }
+
+    private JsonObject outputJson(int line) {
+        return Json.createReader(new StringReader(outputLines()[line])).readObject();
+    }
+
+    public void testValidate() throws URISyntaxException, IOException {
+        String catalogueFile = filename("catalogue.json");
+        assertEquals(run("validate", catalogueFile, filename("variant_catalogue.json")), CatalogueTool.EXIT_OK);
+        assertEquals(outputLines().length, 2);
+        assertEquals(outputJson(0).getString("file"), catalogueFile);
+        assertTrue(outputJson(0).getBoolean("valid"));
+
+        Catalogue catalogue = new JsonStreamImporter().importCatalogue(Paths.get(catalogueFile));
+        catalogue.getProducts().get(1).setUuid(catalogue.getProducts().get(0).getUuid());
+        Path file = Files.createTempFile("catalogue", ".json");
+        try {
+            new JsonStreamExporter().write(catalogue, file);
+            assertEquals(run("validate", file.toString()), CatalogueTool.EXIT_PROBLEMS);
+            JsonObject result = outputJson(0);
+            assertEquals(result.getBoolean("valid"), false);
+            JsonObject problem = result.getJsonArray("problems").getJsonObject(0);
+            assertEquals(problem.getString("type"), "DUPLICATE_UUIDS");
+            assertEquals(problem.getJsonArray("items").getJsonObject(0).getJsonArray("details").size(), 2);
+            assertEquals(problem.getString("severity"), "ERROR");
+
+            assertEquals(run("report", "json_lines", file.toString()), CatalogueTool.EXIT_PROBLEMS);
+            assertEquals(outputLines().length, 1);
+            JsonObject line = outputJson(0);
+            assertEquals(line.getString("type"), "DUPLICATE_UUIDS");
+            assertEquals(line.getJsonArray("refs").size(), 2);
+            assertEquals(line.getJsonArray("refs").getJsonObject(0).getString("kind"), "product");
+
+            assertEquals(run("report", "sarif", file.toString()), CatalogueTool.EXIT_PROBLEMS);
+            JsonObject run = Json.createReader(new StringReader(outBytes.toString())).readObject()
+                    .getJsonArray("runs").getJsonObject(0);
+            JsonObject sarifResult = run.getJsonArray("results").getJsonObject(0);
+            assertEquals(sarifResult.getString("ruleId"), "DUPLICATE_UUIDS");
+            assertEquals(sarifResult.getString("level"), "error");
+
+            assertEquals(run("report", "html", file.toString()), CatalogueTool.EXIT_PROBLEMS);
+            assertTrue(outBytes.toString().startsWith("<p>The following UUID is duplicated:<ul>"));
+            assertEquals(run("report", "xml", file.toString()), CatalogueTool.EXIT_USAGE);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testErrors() throws URISyntaxException {
+        assertEquals(run("stats", filename("catalogue.json"), "no_such_file.json"), CatalogueTool.EXIT_ERROR);
+        assertEquals(outputJson(0).getInt("processes"), 3);
+        JsonObject stringPool = outputJson(0).getJsonObject("string_pool");
+        assertEquals(stringPool.getInt("lookups"), 5);
+        assertEquals(stringPool.getInt("duplicates"), 1);
+        assertEquals(outputJson(1).getString("error_type"), "NoSuchFileException");
+        assertEquals(run("frobnicate"), CatalogueTool.EXIT_USAGE);
+        assertTrue(errBytes.toString().startsWith("Unknown command"));
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.graph.DefaultRoute;
+import uk.ac.sanger.aker.catalogue.graph.DefaultRoute.Status;
+import uk.ac.sanger.aker.catalogue.graph.DefaultRouteAnalyser;
+
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link DefaultRouteAnalyser}
+ * @author dr6
+ */
+@Test
+public class DefaultRouteAnalyserTest {
+    private final DefaultRouteAnalyser analyser = new DefaultRouteAnalyser();
+    private final Module alpha = new Module("Alpha"), beta = new Module("Beta"), gamma = new Module("Gamma");
+
+    private static ModulePair def(Module from, Module to) {
+        return new ModulePair(from, to, true);
+    }
+
+    private void check(List<ModulePair> pairs, Status status, Module... modules) {
+        DefaultRoute route = analyser.analyse(pairs);
+        assertEquals(route.getStatus(), status);
+        assertEquals(route.getModules(), Arrays.asList(modules));
+    }
+
+    public void testAnalyse() {
+        check(Arrays.asList(def(Module.START, alpha), new ModulePair(alpha, beta, false), def(alpha, Module.END),
+                new ModulePair(beta, Module.END, false)), Status.VALID);
+        check(Collections.emptyList(), Status.DEAD_END, Module.START);
+        check(Arrays.asList(def(Module.START, alpha), def(alpha, beta), def(alpha, Module.END), def(beta, Module.END)),
+                Status.BRANCHING, alpha);
+        check(Arrays.asList(def(Module.START, alpha), def(alpha, beta)), Status.DEAD_END, beta);
+        check(Arrays.asList(def(Module.START, alpha), def(alpha, beta), def(beta, gamma), def(gamma, alpha)),
+                Status.CYCLE, alpha, beta, gamma);
+        check(Arrays.asList(def(Module.START, alpha), def(alpha, Module.END), def(beta, gamma), def(gamma, beta)),
+                Status.UNREACHABLE, beta, gamma);
+
+        DefaultRoute route = analyser.analyse(Arrays.asList(def(Module.START, alpha), def(alpha, alpha)));
+        assertEquals(route.describe(), "The default route goes round in a loop: Alpha -> Alpha");
+    }
+
+    public void testLongRoute() {
+        final int length = 1000;
+        List<ModulePair> pairs = new ArrayList<>(length+1);
+        Module last = Module.START;
+        for (int i = 0; i < length; ++i) {
+            Module module = new Module("M"+i);
+            pairs.add(def(last, module));
+            last = module;
+        }
+        pairs.add(def(last, Module.END));
+        Collections.shuffle(pairs, new Random(7));
+        assertTrue(analyser.analyse(pairs).isValid());
+        pairs.remove(pairs.size()-1);
+        assertTrue(!analyser.analyse(pairs).isValid());
+        // The analyser is reused after growing
+        check(Arrays.asList(def(Module.START, alpha), def(alpha, Module.END)), Status.VALID);
+    }
+}
@@ -0,0 +1,80 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.graph.IncrementalTopologicalOrder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test of {@link IncrementalTopologicalOrder}
+ * @author dr6
+ */
+@Test
+public class IncrementalTopologicalOrderTest {
+    private static void assertPrecedes(List<String> order, String first, String second) {
+        assertTrue(order.indexOf(first) < order.indexOf(second), first+" should precede "+second+" in "+order);
+    }
+
+    public void testEdits() {
+        IncrementalTopologicalOrder<String> order = new IncrementalTopologicalOrder<>();
+        for (String item : Arrays.asList("Alpha", "Beta", "Gamma", "Delta", "Epsilon")) {
+            order.addItem(item);
+        }
+        assertTrue(order.addEdge("Delta", "Beta"));
+        assertTrue(order.addEdge("Epsilon", "Delta"));
+        assertTrue(order.addEdge("Beta", "Alpha"));
+        List<String> sorted = order.getOrder();
+        assertPrecedes(sorted, "Epsilon", "Delta");
+        assertPrecedes(sorted, "Delta", "Beta");
+        assertPrecedes(sorted, "Beta", "Alpha");
+        assertEquals(sorted.size(), 5);
+
+        assertTrue(order.wouldCreateCycle("Alpha", "Epsilon"));
+        assertTrue(order.wouldCreateCycle("Beta", "Beta"));
+        assertFalse(order.wouldCreateCycle("Epsilon", "Alpha"));
+        assertFalse(order.addEdge("Alpha", "Epsilon"));
+        assertEquals(order.getOrder(), sorted);
+
+        assertTrue(order.removeEdge("Delta", "Beta"));
+        assertFalse(order.wouldCreateCycle("Alpha", "Epsilon"));
+        assertTrue(order.addEdge("Alpha", "Epsilon"));
+        sorted = order.getOrder();
+        assertPrecedes(sorted, "Beta", "Alpha");
+        assertPrecedes(sorted, "Alpha", "Epsilon");
+        assertPrecedes(sorted, "Epsilon", "Delta");
+
+        assertTrue(order.removeItem("Epsilon"));
+        assertFalse(order.contains("Epsilon"));
+        assertTrue(order.addEdge("Delta", "Alpha"));
+        assertPrecedes(order.getOrder(), "Delta", "Alpha");
+    }
+
+    public void testCycles() {
+        IncrementalTopologicalOrder<String> order = new IncrementalTopologicalOrder<>();
+        assertTrue(order.addEdge("Alpha", "Beta"));
+        assertTrue(order.addEdge("Beta", "Gamma"));
+        // The edge closing the cycle is kept, though it cannot be placed in the order
+        assertFalse(order.addEdge("Gamma", "Alpha"));
+        assertTrue(order.isCyclic());
+        // Alpha is before Gamma in the order, but Gamma leads back to Alpha
+        assertTrue(order.wouldCreateCycle("Alpha", "Gamma"));
+        assertFalse(order.wouldCreateCycle("Alpha", "Delta"));
+
+        // Breaking the cycle lets the back edge be placed
+        assertTrue(order.removeEdge("Alpha", "Beta"));
+        assertFalse(order.isCyclic());
+        List<String> sorted = order.getOrder();
+        assertPrecedes(sorted, "Beta", "Gamma");
+        assertPrecedes(sorted, "Gamma", "Alpha");
+        assertTrue(order.wouldCreateCycle("Alpha", "Beta"));
+
+        assertFalse(order.addEdge("Alpha", "Beta"));
+        assertTrue(order.isCyclic());
+        assertTrue(order.removeItem("Gamma"));
+        assertFalse(order.isCyclic());
+        assertPrecedes(order.getOrder(), "Alpha", "Beta");
+    }
+}
@@ -0,0 +1,85 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.IncrementalValidator;
+import uk.ac.sanger.aker.catalogue.Validator;
+
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test of {@link IncrementalValidator}
+ * @author dr6
+ */
+@Test
+public class IncrementalValidatorTest {
+    private static void checkSame(IncrementalValidator incremental, Catalogue catalogue) {
+        Validator validator = new Validator(pro -> null);
+        assertEquals(incremental.findProblems(), validator.findProblems(catalogue));
+        assertEquals(incremental.problemsHtml(), validator.problemsHtml());
+    }
+
+    public void testEdits() {
+        Catalogue catalogue = new Catalogue();
+        Module alpha = new Module("Alpha"), beta = new Module("Beta"), gamma = new Module("Gamma");
+        catalogue.getModules().addAll(Arrays.asList(alpha, beta, gamma));
+        AkerProcess pro1 = new AkerProcess("Process 1");
+        pro1.getModulePairs().addAll(Arrays.asList(new ModulePair(Module.START, alpha, true),
+                new ModulePair(alpha, Module.END, true)));
+        AkerProcess pro2 = new AkerProcess("Process 2");
+        pro2.getModulePairs().addAll(Arrays.asList(new ModulePair(Module.START, beta, true),
+                new ModulePair(beta, Module.END, false)));
+        catalogue.getProcesses().addAll(Arrays.asList(pro1, pro2));
+        Product product = new Product("Product");
+        product.setUuid("123");
+        pro1.setUuid("123");
+        catalogue.getProducts().add(product);
+
+        IncrementalValidator incremental = new IncrementalValidator(pro -> null);
+        incremental.catalogueReplaced(catalogue);
+        checkSame(incremental, catalogue);
+        String html = incremental.problemsHtml();
+        assertTrue(html.contains("<li>Gamma"));
+        assertTrue(html.contains("<li>Process 2"));
+        assertTrue(html.contains("<li>123<ul><li>Product: Product<li>Process: Process 1</ul>"));
+
+        gamma.setName("Alpha");
+        incremental.itemChanged(gamma);
+        checkSame(incremental, catalogue);
+
+        pro2.getModulePairs().get(1).setDefaultPath(true);
+        pro2.getModulePairs().add(new ModulePair(beta, gamma, false));
+        incremental.itemChanged(pro2);
+        checkSame(incremental, catalogue);
+
+        catalogue.getModules().remove(alpha);
+        pro1.getModulePairs().clear();
+        incremental.itemsRemoved(Collections.singletonList(alpha));
+        incremental.itemChanged(pro1);
+        checkSame(incremental, catalogue);
+
+        AkerProcess pro3 = new AkerProcess("Process 1");
+        catalogue.getProcesses().add(0, pro3);
+        incremental.itemsAdded(Collections.singletonList(pro3));
+        product.setUuid("456");
+        incremental.itemChanged(product);
+        checkSame(incremental, catalogue);
+
+        catalogue.getProcesses().remove(pro1);
+        incremental.itemsRemoved(Collections.singletonList(pro1));
+        checkSame(incremental, catalogue);
+        assertTrue(incremental.problemsHtml().contains("<li>Process 1"));
+        assertFalse(incremental.problemsHtml().contains("123"));
+
+        // Duplicates are listed in catalogue order, not alphabetical order
+        List<AkerProcess> added = Arrays.asList(new AkerProcess("Zed"), new AkerProcess("Ann"),
+                new AkerProcess("Zed"), new AkerProcess("Ann"));
+        catalogue.getProcesses().addAll(added);
+        incremental.itemsAdded(added);
+        checkSame(incremental, catalogue);
+        html = incremental.problemsHtml();
+        String duplicates = html.substring(html.indexOf("multiple processes"));
+        assertTrue(duplicates.indexOf("<li>Zed") < duplicates.indexOf("<li>Ann"));
+    }
+}
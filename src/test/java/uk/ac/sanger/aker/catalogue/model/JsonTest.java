@@ -2,27 +2,60 @@ package uk.ac.sanger.aker.catalogue.model;
 
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.conversion.CatalogueSnapshot;
+import uk.ac.sanger.aker.catalogue.conversion.Compression;
+import uk.ac.sanger.aker.catalogue.conversion.IncrementalJsonExporter;
 import uk.ac.sanger.aker.catalogue.conversion.JsonExporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamExporter;
 import uk.ac.sanger.aker.catalogue.conversion.JsonImporter;
+import uk.ac.sanger.aker.catalogue.conversion.JsonStreamImporter;
+import uk.ac.sanger.aker.catalogue.conversion.LayoutSidecar;
+import uk.ac.sanger.aker.catalogue.conversion.MappedCatalogueView;
+import uk.ac.sanger.aker.catalogue.conversion.StringPool;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayoutUtil;
 
+import javax.json.Json;
 import javax.json.JsonValue;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
- * Tests for {@link JsonImporter} and {@link JsonExporter}
+ * Tests for {@link JsonImporter}, {@link JsonStreamImporter}, {@link JsonExporter} and {@link JsonStreamExporter}
  * @author dr6
  */
 @Test
 public class JsonTest {
     private JsonImporter jim = new JsonImporter();
     private JsonExporter jex = new JsonExporter();
+    private JsonStreamImporter jsim = new JsonStreamImporter();
+    private JsonStreamExporter jsex = new JsonStreamExporter();
 
     private JsonValue catalogueData;
     private Catalogue catalogue;
@@ -33,11 +66,31 @@ public class JsonTest {
         catalogue = jim.importCatalogue(catalogueData);
     }
 
-    private JsonValue fileJson(String filename) throws URISyntaxException, IOException {
+    private Path filePath(String filename) throws URISyntaxException {
         URL resource = getClass().getClassLoader().getResource(filename);
         assert resource!=null;
-        Path path = Paths.get(resource.toURI());
-        return jim.readPath(path);
+        return Paths.get(resource.toURI());
+    }
+
+    private JsonValue fileJson(String filename) throws URISyntaxException, IOException {
+        return jim.readPath(filePath(filename));
+    }
+
+    private String importError(String json) {
+        String message = null;
+        try {
+            jsim.importCatalogue(Json.createParser(new StringReader(json)));
+        } catch (IOException e) {
+            message = e.getMessage();
+        }
+        // The tree importer should fail in the same way
+        try {
+            jim.importCatalogue(Json.createReader(new StringReader(json)).readValue());
+            assertNull(message);
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), message);
+        }
+        return message;
     }
 
     public void testLoadFile() throws URISyntaxException, IOException {
@@ -48,6 +101,374 @@ public class JsonTest {
         assertEquals(jex.toExportData(catalogueFromVariant), catalogueData);
     }
 
+    public void testStreamImport() throws URISyntaxException, IOException {
+        assertEquals(jex.toExportData(jsim.importCatalogue(filePath("catalogue.json"))), catalogueData);
+        assertEquals(jex.toExportData(jsim.importCatalogue(filePath("variant_catalogue.json"))), catalogueData);
+    }
+
+    public void testStreamImportErrors() {
+        assertEquals(importError("[]"), "Expected a JSON object, but got ARRAY");
+        assertEquals(importError("{}"), "Missing key: \"catalogue\"");
+        assertEquals(importError("{\"catalogue\":{\"lims_id\":5}}"),
+                "Expected string for key lims_id but got NUMBER");
+        assertEquals(importError("{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                "\"processes\":[{\"name\":\"A\",\"uuid\":\"1\",\"TAT\":1.5}]}}"),
+                "Expected an integer from key TAT but got 1.5");
+        assertEquals(importError("{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                "\"processes\":[],\"products\":[{\"name\":\"B\",\"description\":\"\",\"uuid\":\"2\"," +
+                "\"product_version\":1,\"availability\":\"1\",\"requested_biomaterial_type\":\"dna\"," +
+                "\"process_uuids\":[\"1\"]}]}}"),
+                "Unknown process uuid: 1");
+        assertEquals(importError("{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                "\"processes\":[null]}}"),
+                "expected object in processes but got NULL");
+        assertEquals(importError("{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                "\"processes\":[],\"products\":[{\"name\":\"B\",\"description\":\"\",\"uuid\":\"2\"," +
+                "\"product_version\":1,\"availability\":\"1\",\"requested_biomaterial_type\":\"dna\"," +
+                "\"process_uuids\":[null]}]}}"),
+                "expected string in process_uuids but got NULL");
+    }
+
+    public void testParallelImport() throws URISyntaxException, IOException {
+        JsonImporter parallelImporter = new JsonImporter();
+        parallelImporter.setParallelChunkSize(1);
+        Catalogue parallelCatalogue = parallelImporter.importCatalogue(filePath("catalogue.json"));
+        assertEquals(jex.toExportData(parallelCatalogue), catalogueData);
+        assertEquals(parallelCatalogue.getModules().size(), catalogue.getModules().size());
+        for (int i = 0; i < catalogue.getModules().size(); ++i) {
+            assertEquals(parallelCatalogue.getModules().get(i).getName(), catalogue.getModules().get(i).getName());
+        }
+        // The first error in the array is reported, as in a sequential import
+        String json = "{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                "\"processes\":[{\"name\":\"A\"},null,5]}}";
+        try {
+            parallelImporter.importCatalogue(Json.createReader(new StringReader(json)).readValue());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "Missing key: \"uuid\"");
+        }
+    }
+
+    public void testStringPool() throws IOException {
+        JsonImporter pooledImporter = new JsonImporter();
+        StringPool pool = new StringPool();
+        pooledImporter.setStringPool(pool);
+        Catalogue pooledCatalogue = pooledImporter.importCatalogue(catalogueData);
+        assertEquals(jex.toExportData(pooledCatalogue), catalogueData);
+        List<AkerProcess> pros = pooledCatalogue.getProcesses();
+        assertSame(pros.get(2).getProcessClass(), pros.get(1).getProcessClass());
+        assertEquals(pool.getLookups(), 5);
+        assertEquals(pool.size(), 4);
+        assertEquals(pool.getDuplicates(), 1);
+    }
+
+    public void testStringPoolPerFile() throws URISyntaxException, IOException {
+        // A pool created by the view is not carried over to the next file it opens
+        MappedCatalogueView view = new MappedCatalogueView();
+        view.open(filePath("catalogue.json"));
+        StringPool firstPool = view.getStringPool();
+        view.open(filePath("variant_catalogue.json"));
+        assertNotSame(view.getStringPool(), firstPool);
+        MappedCatalogueView freshView = new MappedCatalogueView();
+        freshView.open(filePath("variant_catalogue.json"));
+        assertEquals(view.getStringPool().getLookups(), freshView.getStringPool().getLookups());
+        // A pool set by the caller is kept
+        StringPool pool = new StringPool();
+        view.setStringPool(pool);
+        view.open(filePath("catalogue.json"));
+        assertSame(view.getStringPool(), pool);
+        jsim.setStringPool(pool);
+        jsim.importCatalogue(filePath("catalogue.json"));
+        assertSame(jsim.getStringPool(), pool);
+        jsim.setStringPool(null);
+    }
+
+    public void testStreamExport() throws IOException {
+        Path treeFile = Files.createTempFile("tree", ".json");
+        Path streamFile = Files.createTempFile("stream", ".json");
+        try {
+            jex.write(jex.toExportData(catalogue), treeFile);
+            jsex.write(catalogue, streamFile);
+            assertEquals(Files.readAllBytes(streamFile), Files.readAllBytes(treeFile));
+        } finally {
+            Files.deleteIfExists(treeFile);
+            Files.deleteIfExists(streamFile);
+        }
+    }
+
+    public void testIncrementalExport() throws IOException {
+        Catalogue cat = jim.importCatalogue(catalogueData);
+        IncrementalJsonExporter incex = new IncrementalJsonExporter();
+        Path file = Files.createTempFile("catalogue", ".json");
+        Path expectedFile = Files.createTempFile("expected", ".json");
+        try {
+            incex.write(cat, file);
+            assertEquals(incex.getRecordsRendered(), cat.getProcesses().size() + cat.getProducts().size());
+            jsex.write(cat, expectedFile);
+            assertEquals(Files.readAllBytes(file), Files.readAllBytes(expectedFile));
+
+            AkerProcess pro = cat.getProcesses().get(1);
+            pro.setTat(pro.getTat() + 1);
+            incex.write(cat, file);
+            assertEquals(incex.getRecordsRendered(), 1);
+            jsex.write(cat, expectedFile);
+            assertEquals(Files.readAllBytes(file), Files.readAllBytes(expectedFile));
+
+            // Changing a module changes every process that lists its parameters
+            Module module = pro.getModulePairs().stream().map(ModulePair::getTo)
+                    .filter(m -> !m.isEndpoint()).findFirst().orElseThrow(AssertionError::new);
+            module.setMinValue(17);
+            long users = cat.getProcesses().stream()
+                    .filter(p -> p.getModulePairs().stream().anyMatch(pair -> pair.getTo()==module))
+                    .count();
+            incex.write(cat, file);
+            assertEquals(incex.getRecordsRendered(), (int) users);
+            jsex.write(cat, expectedFile);
+            assertEquals(Files.readAllBytes(file), Files.readAllBytes(expectedFile));
+
+            AkerProcess newPro = new AkerProcess("New process");
+            newPro.setUuid("new-uuid");
+            cat.getProcesses().add(0, newPro);
+            cat.getProducts().remove(0);
+            incex.write(cat, file);
+            assertEquals(incex.getRecordsRendered(), 1);
+            jsex.write(cat, expectedFile);
+            assertEquals(Files.readAllBytes(file), Files.readAllBytes(expectedFile));
+            assertEquals(jex.toExportData(jsim.importCatalogue(file)), jex.toExportData(cat));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(expectedFile);
+        }
+    }
+
+    public void testIncrementalExportThroughLink() throws IOException {
+        Path dir = Files.createTempDirectory("catalogue");
+        Path file = dir.resolve("catalogue.json");
+        Path link = dir.resolve("link.json");
+        try {
+            Files.write(file, new byte[0]);
+            Files.createSymbolicLink(link, file.getFileName());
+            boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+            Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+            if (posix) {
+                Files.setPosixFilePermissions(file, permissions);
+            }
+            new IncrementalJsonExporter().write(catalogue, link);
+            assertTrue(Files.isSymbolicLink(link));
+            assertEquals(jex.toExportData(jsim.importCatalogue(file)), catalogueData);
+            if (posix) {
+                assertEquals(Files.getPosixFilePermissions(file), permissions);
+            }
+        } finally {
+            Files.deleteIfExists(link);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    public void testInterruptedImport() throws URISyntaxException, IOException {
+        JsonStreamImporter importer = new JsonStreamImporter();
+        importer.setProgressListener(bytes -> {});
+        Thread.currentThread().interrupt();
+        try {
+            importer.importCatalogue(filePath("catalogue.json"));
+            fail("Expected an InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    public void testCompressed() throws IOException {
+        Path treeFile = Files.createTempFile("tree", ".json.gz");
+        Path streamFile = Files.createTempFile("stream", ".json.gz");
+        Path misnamedFile = Files.createTempFile("misnamed", ".json");
+        try {
+            jex.write(jex.toExportData(catalogue), treeFile);
+            jsex.write(catalogue, streamFile);
+            assertEquals(Compression.detect(treeFile), Compression.GZIP);
+            assertEquals(Compression.detect(streamFile), Compression.GZIP);
+            assertEquals(jim.readPath(treeFile), catalogueData);
+            assertEquals(jex.toExportData(jsim.importCatalogue(streamFile)), catalogueData);
+            // Compressed data is recognised whatever the file is called
+            Files.copy(streamFile, misnamedFile, StandardCopyOption.REPLACE_EXISTING);
+            assertEquals(jex.toExportData(jsim.importCatalogue(misnamedFile)), catalogueData);
+        } finally {
+            Files.deleteIfExists(treeFile);
+            Files.deleteIfExists(streamFile);
+            Files.deleteIfExists(misnamedFile);
+        }
+    }
+
+    public void testSnapshot() throws IOException {
+        Path snapshotFile = Files.createTempFile("catalogue", CatalogueSnapshot.EXTENSION);
+        try {
+            CatalogueSnapshot snapshot = new CatalogueSnapshot();
+            snapshot.write(catalogue, snapshotFile);
+            Catalogue snapshotCatalogue = snapshot.read(snapshotFile);
+            assertEquals(jex.toExportData(snapshotCatalogue), catalogueData);
+            assertEquals(snapshotCatalogue.getModules().size(), catalogue.getModules().size());
+        } finally {
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+
+    public void testCurrentSnapshot() throws IOException {
+        Path jsonFile = Files.createTempFile("catalogue", ".json");
+        Path snapshotFile = CatalogueSnapshot.snapshotPath(jsonFile);
+        try {
+            new JsonStreamExporter().write(catalogue, jsonFile);
+            assertFalse(CatalogueSnapshot.hasCurrentSnapshot(jsonFile));
+            new CatalogueSnapshot().write(catalogue, snapshotFile, jsonFile);
+            assertTrue(CatalogueSnapshot.hasCurrentSnapshot(jsonFile));
+            // A different file restored with a later timestamp
+            FileTime modified = Files.getLastModifiedTime(jsonFile);
+            Files.write(jsonFile, new byte[] { '{', '}' });
+            Files.setLastModifiedTime(jsonFile, FileTime.fromMillis(modified.toMillis() + 60_000));
+            assertFalse(CatalogueSnapshot.hasCurrentSnapshot(jsonFile));
+            Files.delete(jsonFile);
+            assertFalse(CatalogueSnapshot.hasCurrentSnapshot(jsonFile));
+        } finally {
+            Files.deleteIfExists(jsonFile);
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+
+    public void testSnapshotMatchesJson() throws IOException {
+        Catalogue orphanCatalogue = new Catalogue();
+        orphanCatalogue.setLimsId("L");
+        orphanCatalogue.setPipeline("P");
+        orphanCatalogue.setUrl("U");
+        Module orphan = new Module("Orphan"), alpha = new Module("Alpha"), beta = new Module("Beta");
+        orphan.setMinValue(1);
+        beta.setMaxValue(5);
+        orphanCatalogue.getModules().addAll(Arrays.asList(orphan, beta, alpha));
+        AkerProcess pro = new AkerProcess("Process");
+        pro.setUuid("1");
+        pro.setProcessClass("dna");
+        pro.getModulePairs().addAll(Arrays.asList(new ModulePair(Module.START, alpha, true),
+                new ModulePair(alpha, beta, true), new ModulePair(beta, Module.END, true)));
+        orphanCatalogue.getProcesses().add(pro);
+
+        Path jsonFile = Files.createTempFile("catalogue", ".json");
+        Path snapshotFile = CatalogueSnapshot.snapshotPath(jsonFile);
+        try {
+            jsex.write(orphanCatalogue, jsonFile);
+            new CatalogueSnapshot().write(orphanCatalogue, snapshotFile, jsonFile);
+            Catalogue jsonCatalogue = jsim.importCatalogue(jsonFile);
+            Catalogue snapshotCatalogue = new CatalogueSnapshot().read(snapshotFile);
+            assertEquals(jex.toExportData(snapshotCatalogue), jex.toExportData(jsonCatalogue));
+            assertEquals(describeModules(snapshotCatalogue), describeModules(jsonCatalogue));
+            assertEquals(describeModules(snapshotCatalogue), Arrays.asList("Alpha null null", "Beta null 5"));
+        } finally {
+            Files.deleteIfExists(jsonFile);
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+
+    private static List<String> describeModules(Catalogue catalogue) {
+        List<String> descs = new ArrayList<>(catalogue.getModules().size());
+        for (Module module : catalogue.getModules()) {
+            descs.add(module.getName()+" "+module.getMinValue()+" "+module.getMaxValue());
+        }
+        return descs;
+    }
+
+    public void testLayoutSidecar() throws IOException {
+        Path layoutFile = Files.createTempFile("catalogue", LayoutSidecar.EXTENSION);
+        try {
+            LayoutSidecar layouts = new LayoutSidecar();
+            for (AkerProcess pro : catalogue.getProcesses()) {
+                layouts.putLayout(pro.getUuid(), ModuleLayoutUtil.layOut(pro.getModulePairs()));
+            }
+            layouts.write(layoutFile);
+            LayoutSidecar read = LayoutSidecar.read(layoutFile);
+            assertEquals(read.size(), catalogue.getProcesses().size());
+            Map<String, Module> modules = new HashMap<>();
+            for (Module module : catalogue.getModules()) {
+                modules.put(module.getName(), module);
+            }
+            for (AkerProcess pro : catalogue.getProcesses()) {
+                ModuleLayout expected = ModuleLayoutUtil.layOut(pro.getModulePairs());
+                ModuleLayout layout = read.getLayout(pro, modules);
+                assertEquals(layout.modules(), expected.modules());
+                for (Module module : expected.modules()) {
+                    assertEquals(layout.get(module), expected.get(module));
+                }
+            }
+            AkerProcess pro = catalogue.getProcesses().get(0);
+            Module missing = pro.getModulePairs().get(0).getTo();
+            modules.remove(missing.getName());
+            assertNull(read.getLayout(pro, modules));
+
+            // Names too long for DataOutput.writeUTF
+            char[] chars = new char[40_000];
+            Arrays.fill(chars, '\u00e9');
+            Module longModule = new Module(new String(chars));
+            AkerProcess longPro = new AkerProcess("Long");
+            longPro.setUuid("long-uuid");
+            longPro.setModulePairs(new ArrayList<>(Arrays.asList(new ModulePair(Module.START, longModule, true),
+                    new ModulePair(longModule, Module.END, true))));
+            LayoutSidecar longLayouts = new LayoutSidecar();
+            longLayouts.putLayout(longPro.getUuid(), ModuleLayoutUtil.layOut(longPro.getModulePairs()));
+            longLayouts.write(layoutFile);
+            ModuleLayout longLayout = LayoutSidecar.read(layoutFile)
+                    .getLayout(longPro, Collections.singletonMap(longModule.getName(), longModule));
+            assertEquals(longLayout.modules(), ModuleLayoutUtil.layOut(longPro.getModulePairs()).modules());
+        } finally {
+            Files.deleteIfExists(layoutFile);
+        }
+    }
+
+    public void testMappedView() throws URISyntaxException, IOException {
+        Catalogue viewed = new MappedCatalogueView().open(filePath("catalogue.json"));
+        assertEquals(jex.toExportData(viewed), catalogueData);
+        assertEquals(jex.toExportData(new MappedCatalogueView().open(filePath("variant_catalogue.json"))),
+                catalogueData);
+
+        // Multi-byte characters before an object must not upset its offsets
+        viewed.getProcesses().get(0).setName("Qualit\u00e9 \u20ac \ud834\udd1e");
+        Path file = Files.createTempFile("catalogue", ".json");
+        try {
+            jsex.write(viewed, file);
+            MappedCatalogueView view = new MappedCatalogueView();
+            Catalogue reviewed = view.open(file);
+            view.loadAll();
+            assertEquals(jex.toExportData(reviewed), jex.toExportData(viewed));
+
+            // Errors in the lazily decoded fields are found when the view is opened
+            Files.write(file, ("{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                    "\"processes\":[{\"name\":\"A\",\"uuid\":\"1\",\"TAT\":1.5}],\"products\":[]}}").getBytes());
+            try {
+                new MappedCatalogueView().open(file);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "Expected an integer from key TAT but got 1.5");
+            }
+
+            // Duplicate process uuids are rejected, as they are by the importers
+            Files.write(file, ("{\"catalogue\":{\"lims_id\":\"L\",\"pipeline\":\"P\",\"url\":\"U\"," +
+                    "\"processes\":[{\"name\":\"A\",\"uuid\":\"1\",\"TAT\":1,\"process_class\":\"dna\"," +
+                    "\"process_module_pairings\":[]},{\"name\":\"B\",\"uuid\":\"1\",\"TAT\":1," +
+                    "\"process_class\":\"dna\",\"process_module_pairings\":[]}],\"products\":[]}}").getBytes());
+            try {
+                jsim.importCatalogue(file);
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            try {
+                new MappedCatalogueView().open(file);
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
     public void testCatalogueFields() {
         assertEquals(catalogue.getPipeline(), "My pipeline");
         assertEquals(catalogue.getUrl(), "http://localhost:3400");
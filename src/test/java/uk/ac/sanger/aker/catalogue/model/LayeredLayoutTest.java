@@ -0,0 +1,87 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.graph.LayeredLayout;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+
+import java.awt.Point;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test of {@link LayeredLayout}
+ * @author dr6
+ */
+@Test
+public class LayeredLayoutTest {
+    /**
+     * Generates random paths through modules arranged in ranks, where every path leads to a later rank.
+     */
+    private static List<ModulePair> randomPairs(int numRanks, int rankSize, long seed) {
+        Random random = new Random(seed);
+        List<List<Module>> ranks = new ArrayList<>(numRanks);
+        for (int r = 0; r < numRanks; ++r) {
+            List<Module> rank = new ArrayList<>(rankSize);
+            for (int i = 0; i < rankSize; ++i) {
+                rank.add(new Module("M"+r+"_"+i));
+            }
+            ranks.add(rank);
+        }
+        List<ModulePair> pairs = new ArrayList<>();
+        for (Module module : ranks.get(0)) {
+            pairs.add(new ModulePair(Module.START, module, false));
+        }
+        for (int r = 0; r < numRanks; ++r) {
+            for (Module module : ranks.get(r)) {
+                if (r==numRanks-1) {
+                    pairs.add(new ModulePair(module, Module.END, false));
+                    continue;
+                }
+                int numPaths = 1 + random.nextInt(3);
+                for (int p = 0; p < numPaths; ++p) {
+                    int targetRank = r + 1 + random.nextInt(Math.min(3, numRanks - r - 1));
+                    Module target = ranks.get(targetRank).get(random.nextInt(rankSize));
+                    if (pairs.stream().noneMatch(pair -> pair.getFrom()==module && pair.getTo()==target)) {
+                        pairs.add(new ModulePair(module, target, false));
+                    }
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static void checkLayout(List<ModulePair> pairs, ModuleLayout layout) {
+        assertEquals(layout.get(Module.START), new Point(0, 0));
+        for (ModulePair pair : pairs) {
+            assertTrue(layout.getFrom(pair).y < layout.getTo(pair).y, "Path should lead downwards: "+pair);
+        }
+        Map<Integer, List<Integer>> rows = new HashMap<>();
+        for (Map.Entry<Module, Point> entry : layout.entries()) {
+            rows.computeIfAbsent(entry.getValue().y, y -> new ArrayList<>()).add(entry.getValue().x);
+        }
+        for (List<Integer> row : rows.values()) {
+            Collections.sort(row);
+            for (int i = 1; i < row.size(); ++i) {
+                assertTrue(row.get(i) - row.get(i-1) >= 160, "Modules should not overlap");
+            }
+        }
+        Integer endY = layout.get(Module.END).y;
+        assertEquals(rows.get(endY).size(), 1);
+        assertEquals(rows.get(0).size(), 1);
+    }
+
+    public void testLayout() {
+        List<ModulePair> pairs = randomPairs(8, 4, 1L);
+        ModuleLayout layout = LayeredLayout.layOut(pairs);
+        assertEquals(layout.modules().size(), 8*4 + 2);
+        checkLayout(pairs, layout);
+    }
+
+    public void testLargeLayout() {
+        List<ModulePair> pairs = randomPairs(25, 24, 2L);
+        ModuleLayout layout = LayeredLayout.layOut(pairs);
+        assertEquals(layout.modules().size(), 25*24 + 2);
+        checkLayout(pairs, layout);
+    }
+}
@@ -0,0 +1,74 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.graph.LayoutCache;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test of {@link LayoutCache}
+ * @author dr6
+ */
+@Test
+public class LayoutCacheTest {
+    public void testEviction() {
+        LayoutCache cache = new LayoutCache(2);
+        AkerProcess alpha = new AkerProcess("Alpha"), beta = new AkerProcess("Beta"),
+                gamma = new AkerProcess("Gamma"), delta = new AkerProcess("Delta");
+        ModuleLayout edited = new ModuleLayout(new HashMap<>());
+        edited.setEdited(true);
+        cache.put(alpha, edited);
+        cache.put(beta, new ModuleLayout(new HashMap<>()));
+        cache.put(gamma, new ModuleLayout(new HashMap<>()));
+        assertNotNull(cache.get(beta));
+        cache.put(delta, new ModuleLayout(new HashMap<>()));
+        // Gamma is the least recently used unedited layout
+        assertNull(cache.get(gamma));
+        assertSame(cache.get(alpha), edited);
+        assertEquals(cache.size(), 3);
+        assertEquals(cache.getEvictions(), 1);
+
+        cache.markSaved();
+        assertFalse(edited.isEdited());
+        // Beta was used least recently
+        assertFalse(cache.contains(beta));
+        assertTrue(cache.contains(alpha));
+
+        // Peeking does not count as a use, so delta is still the least recently used
+        assertNotNull(cache.peek(delta));
+        cache.put(new AkerProcess("Epsilon"), new ModuleLayout(new HashMap<>()));
+        assertFalse(cache.contains(delta));
+        assertTrue(cache.contains(alpha));
+
+        cache.removeAll(Collections.singleton(alpha));
+        assertFalse(cache.contains(alpha));
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getMisses(), 1);
+        assertEquals(cache.getHitRate(), 2.0/3, 1e-9);
+    }
+
+    public void testReplacedLayoutIsRecent() {
+        LayoutCache cache = new LayoutCache(2);
+        AkerProcess alpha = new AkerProcess("Alpha"), beta = new AkerProcess("Beta"), gamma = new AkerProcess("Gamma");
+        cache.put(alpha, new ModuleLayout(new HashMap<>()));
+        ModuleLayout betaLayout = new ModuleLayout(new HashMap<>());
+        cache.put(beta, betaLayout);
+        // Replacing alpha's layout (e.g. with an automatic layout) makes it the most recently used
+        ModuleLayout replacement = new ModuleLayout(new HashMap<>());
+        cache.put(alpha, replacement);
+        cache.put(gamma, new ModuleLayout(new HashMap<>()));
+        assertFalse(cache.contains(beta));
+        assertSame(cache.peek(alpha), replacement);
+
+        // Putting the same layout again (as each edit does) also makes it the most recently used
+        cache.put(alpha, replacement);
+        cache.put(beta, betaLayout);
+        assertFalse(cache.contains(gamma));
+        assertTrue(cache.contains(alpha));
+        assertEquals(cache.size(), 2);
+    }
+}
@@ -0,0 +1,89 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.component.ModuleGraph;
+import uk.ac.sanger.aker.catalogue.graph.ModuleLayout;
+
+import java.awt.Point;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test of finding modules and paths in a {@link ModuleGraph}, and of the paths it allows
+ * @author dr6
+ */
+@Test
+public class ModuleGraphTest {
+    public void testHitTesting() {
+        Module alpha = new Module("Alpha"), beta = new Module("Beta");
+        Map<Module, Point> points = new HashMap<>();
+        points.put(Module.START, new Point(0, 0));
+        points.put(alpha, new Point(0, 200));
+        points.put(beta, new Point(600, 400));
+        points.put(Module.END, new Point(0, 1000));
+        ModulePair startAlpha = new ModulePair(Module.START, alpha, true);
+        ModulePair alphaBeta = new ModulePair(alpha, beta, true);
+        ModulePair betaEnd = new ModulePair(beta, Module.END, true);
+        List<ModulePair> pairs = new ArrayList<>(Arrays.asList(startAlpha, alphaBeta, betaEnd));
+        ModuleGraph graph = new ModuleGraph(new ModuleLayout(points), pairs);
+
+        assertSame(graph.moduleAt(50, 210), alpha);
+        assertSame(graph.moduleAt(-59, 181), alpha);
+        assertNull(graph.moduleAt(61, 200));
+        assertSame(graph.pathAt(300, 302), alphaBeta);
+        assertSame(graph.pathAt(2, 100), startAlpha);
+        assertNull(graph.pathAt(300, 330));
+
+        // Moving beta moves its paths too
+        graph.select(beta);
+        graph.moveSelected(-600, 200);
+        assertNull(graph.moduleAt(600, 400));
+        assertSame(graph.moduleAt(0, 600), beta);
+        assertNull(graph.pathAt(300, 302));
+        assertSame(graph.pathAt(3, 400), alphaBeta);
+        assertSame(graph.pathAt(-3, 800), betaEnd);
+
+        Module gamma = new Module("Gamma");
+        assertTrue(graph.addModule(gamma, 1000, 500));
+        assertSame(graph.moduleAt(1000, 500), gamma);
+
+        graph.select(beta);
+        graph.deleteSelected();
+        assertNull(graph.moduleAt(0, 600));
+        assertNull(graph.pathAt(3, 400));
+        assertEquals(pairs, Collections.singletonList(startAlpha));
+    }
+
+    public void testCyclicPaths() {
+        Module alpha = new Module("Alpha"), beta = new Module("Beta"), gamma = new Module("Gamma");
+        Map<Module, Point> points = new HashMap<>();
+        points.put(Module.START, new Point(0, 0));
+        points.put(alpha, new Point(0, 200));
+        points.put(beta, new Point(0, 400));
+        points.put(gamma, new Point(400, 600));
+        points.put(Module.END, new Point(0, 1000));
+        // A loaded process whose paths already form a cycle, drawn with gamma leading back up to alpha
+        ModulePair gammaAlpha = new ModulePair(gamma, alpha, false);
+        List<ModulePair> pairs = new ArrayList<>(Arrays.asList(new ModulePair(Module.START, alpha, true),
+                new ModulePair(alpha, beta, true), new ModulePair(beta, gamma, true), gammaAlpha,
+                new ModulePair(gamma, Module.END, true)));
+        ModuleGraph graph = new ModuleGraph(new ModuleLayout(points), pairs);
+
+        // A path down from alpha to gamma would make a second cycle
+        graph.select(alpha);
+        graph.projectPath(400, 600);
+        graph.releaseProjectedPath(false);
+        assertEquals(pairs.size(), 5);
+
+        // Once the cycle is broken, the path can be added
+        graph.selectPair(gammaAlpha);
+        graph.deleteSelectedPair();
+        graph.select(alpha);
+        graph.projectPath(400, 600);
+        graph.releaseProjectedPath(false);
+        assertEquals(pairs.size(), 5);
+        assertSame(pairs.get(4).getFrom(), alpha);
+        assertSame(pairs.get(4).getTo(), gamma);
+    }
+}
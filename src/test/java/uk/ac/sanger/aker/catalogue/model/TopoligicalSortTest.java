@@ -1,6 +1,8 @@
 package uk.ac.sanger.aker.catalogue.model;
 
 import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.graph.CompactGraph;
+import uk.ac.sanger.aker.catalogue.graph.CycleException;
 import uk.ac.sanger.aker.catalogue.graph.TopologicalSorter;
 
 import java.util.*;
@@ -40,5 +42,43 @@ public class TopoligicalSortTest {
             ex = e;
         }
         assertNotNull(ex, "An exception should have been thrown.");
+        assertTrue(ex instanceof CycleException);
+        assertEquals(((CycleException) ex).getCycles(),
+                Collections.singletonList(Arrays.asList("Delta", "Zeta", "Epsilon")));
+    }
+
+    public void testDeepCycles() {
+        final int n = 200_000;
+        List<Integer> items = new ArrayList<>(n);
+        List<int[]> relations = new ArrayList<>(n+1);
+        for (int i = 0; i < n; ++i) {
+            items.add(i);
+            if (i > 0) {
+                relations.add(new int[] { i-1, i });
+            }
+        }
+        relations.add(new int[] { n-1, 0 });
+        relations.add(new int[] { 7, 7 });
+        CompactGraph<Integer> graph = new CompactGraph<>(items, relations, arr -> arr[0], arr -> arr[1]);
+        List<int[]> cycles = graph.findCycles();
+        assertEquals(cycles.size(), 1);
+        assertEquals(cycles.get(0).length, n);
+        assertEquals(graph.stronglyConnectedComponents().size(), 1);
+        assertEquals(graph.orderBreakingCycles().length, n);
+        relations.remove(n-1);
+        graph = new CompactGraph<>(items, relations, arr -> arr[0], arr -> arr[1]);
+        assertEquals(graph.cycleItems(), Collections.singletonList(Collections.singletonList(7)));
+        assertEquals(graph.stronglyConnectedComponents().size(), n);
+    }
+
+    public void testRepeatedRelations() {
+        List<String> items = Arrays.asList("Alpha", "Beta", "Gamma");
+        TopologicalSorter<String> sorter = new TopologicalSorter<>(items);
+        String[][] relations = new String[][] {
+                { "Gamma", "Beta" }, { "Gamma", "Beta" }, { "Beta", "Alpha" } };
+        sorter.setRelations(Arrays.stream(relations)::iterator, arr -> arr[0], arr -> arr[1]);
+        assertEquals(sorter.sort(), Arrays.asList("Gamma", "Beta", "Alpha"));
+        assertEquals(sorter.getPreceders().get("Beta"), Collections.singleton("Gamma"));
+        assertEquals(sorter.getPreceders().get("Gamma"), Collections.emptySet());
     }
 }
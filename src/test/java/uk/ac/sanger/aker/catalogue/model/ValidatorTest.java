@@ -0,0 +1,83 @@
+package uk.ac.sanger.aker.catalogue.model;
+
+import org.testng.annotations.Test;
+import uk.ac.sanger.aker.catalogue.Validator;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test of {@link Validator}
+ * @author dr6
+ */
+@Test
+public class ValidatorTest {
+    public void testProblemOrder() {
+        Catalogue catalogue = new Catalogue();
+        final int numProcesses = 5000;
+        for (int i = 0; i < numProcesses; ++i) {
+            AkerProcess pro = new AkerProcess(String.format("P%05d", i));
+            if (i%3!=0) {
+                Module module = new Module(String.format("M%05d", i));
+                catalogue.getModules().add(module);
+                pro.getModulePairs().add(new ModulePair(Module.START, module, true));
+                pro.getModulePairs().add(new ModulePair(module, Module.END, i%3==1));
+            }
+            catalogue.getProcesses().add(pro);
+        }
+        catalogue.getModules().add(new Module("Orphan"));
+        Validator validator = new Validator(pro -> null);
+        assertTrue(validator.findProblems(catalogue));
+        String html = validator.problemsHtml();
+        // Checking again gives the same result
+        assertTrue(validator.findProblems(catalogue));
+        assertEquals(validator.problemsHtml(), html);
+
+        Matcher matcher = Pattern.compile("<li>P(\\d+)").matcher(html);
+        int count = 0, last = -1;
+        boolean emptyProcesses = true;
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(1));
+            if (index <= last) {
+                // The next list of processes has started
+                assertTrue(emptyProcesses, "Processes out of order");
+                emptyProcesses = false;
+            }
+            if (emptyProcesses) {
+                assertEquals(index%3, 0);
+            } else {
+                // Empty processes also have no default route
+                assertNotEquals(index%3, 1);
+            }
+            last = index;
+            ++count;
+        }
+        // 1667 empty processes, listed again with the 1666 processes with no default route
+        assertEquals(count, 1667 + 1667 + 1666);
+        assertTrue(html.contains("<li>Orphan"));
+    }
+
+    public void testModulesOffRoute() {
+        Catalogue catalogue = new Catalogue();
+        Module alpha = new Module("Alpha"), beta = new Module("Beta"), gamma = new Module("Gamma"),
+                delta = new Module("Delta");
+        catalogue.getModules().addAll(Arrays.asList(alpha, beta, gamma, delta));
+        AkerProcess pro = new AkerProcess("Process");
+        pro.getModulePairs().addAll(Arrays.asList(new ModulePair(Module.START, alpha, true),
+                new ModulePair(alpha, Module.END, true), new ModulePair(alpha, beta, false),
+                new ModulePair(beta, gamma, false), new ModulePair(gamma, beta, false),
+                new ModulePair(delta, Module.END, false)));
+        catalogue.getProcesses().add(pro);
+        Validator validator = new Validator(p -> null);
+        assertTrue(validator.findProblems(catalogue));
+        assertTrue(validator.problemsHtml().contains("<li>Process<ul><li>Not reached from START: Delta"
+                + "<li>No route on to END: Beta, Gamma</ul>"));
+
+        pro.getModulePairs().add(new ModulePair(gamma, Module.END, false));
+        pro.getModulePairs().add(new ModulePair(Module.START, delta, false));
+        assertFalse(validator.findProblems(catalogue));
+    }
+}